@@ -0,0 +1,45 @@
+#!/bin/sh
+#
+# Download the JMH jars the benchmarks are built against into lib/. They 
+# aren't checked in (see .gitignore). Jars that are already there are left
+# alone, so this is cheap to run before every build.
+#
+# Usage: ./fetch-dependencies.sh
+
+set -e
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+LIB="$HERE/lib"
+REPO=https://repo1.maven.org/maven2
+
+# Keep in sync with Bundle-ClassPath, .classpath and .factorypath
+JARS="org/openjdk/jmh/jmh-core/1.21/jmh-core-1.21.jar
+org/openjdk/jmh/jmh-generator-annprocess/1.21/jmh-generator-annprocess-1.21.jar
+net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar"
+
+download()
+{
+    if command -v curl > /dev/null; then
+        curl -fsSL -o "$2" "$1"
+    else
+        wget -q -O "$2" "$1"
+    fi
+}
+
+mkdir -p "$LIB"
+for path in $JARS; do
+    jar="$LIB/$(basename "$path")"
+    if [ -f "$jar" ]; then
+        continue
+    fi
+    echo "Downloading $(basename "$path")"
+    download "$REPO/$path" "$jar.part"
+    download "$REPO/$path.sha1" "$jar.sha1"
+    if [ "$(cut -c1-40 "$jar.sha1")" != "$(sha1sum "$jar.part" | cut -c1-40)" ]; then
+        rm -f "$jar.part" "$jar.sha1"
+        echo "Checksum mismatch for $(basename "$path")" >&2
+        exit 1
+    fi
+    rm -f "$jar.sha1"
+    mv "$jar.part" "$jar"
+done
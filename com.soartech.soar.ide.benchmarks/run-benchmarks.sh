@@ -0,0 +1,37 @@
+#!/bin/sh
+#
+# Build and run the benchmarks from the command line, without starting
+# Eclipse. The Eclipse plug-ins are only used as plain jars on the class
+# path, so no workbench or display is needed.
+#
+# Usage: ECLIPSE_HOME=/path/to/eclipse ./run-benchmarks.sh [JMH options]
+#
+# e.g. ./run-benchmarks.sh TclParser -p productions=1000
+#      ./run-benchmarks.sh -rf json -rff results.json
+#
+# The JMH jars are downloaded into lib/ by fetch-dependencies.sh if they
+# aren't there yet.
+
+set -e
+
+if [ -z "$ECLIPSE_HOME" ]; then
+    echo "ECLIPSE_HOME must point to an Eclipse installation" >&2
+    exit 1
+fi
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+CORE="$HERE/../com.soartech.soar.ide.core"
+BUILD="$HERE/build"
+
+"$HERE/fetch-dependencies.sh"
+
+CP="$HERE/lib/*:$CORE/lib/*:$CORE/lib/db/*:$ECLIPSE_HOME/plugins/*"
+
+rm -rf "$BUILD"
+mkdir -p "$BUILD"
+find "$CORE/src" "$HERE/src" -name '*.java' > "$BUILD/sources.txt"
+# The JMH annotation processor is picked up from lib/ on the class path.
+# It is only needed here, so it isn't on the bundle class path.
+javac -nowarn -encoding UTF-8 -d "$BUILD" -cp "$CP" @"$BUILD/sources.txt"
+
+exec java -cp "$BUILD:$CP" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,95 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.soartech.soar.ide.core.model.ast.TriplesExtractor;
+import com.soartech.soar.ide.core.model.impl.datamap.SoarDatamap;
+
+/**
+ * Benchmarks for building a datamap from productions. Productions are parsed
+ * during setup so only triple extraction and datamap construction are
+ * measured.
+ * 
+ * @author ray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DatamapBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int productions;
+    
+    private List<SyntheticProduction> parsed;
+    
+    @Setup
+    public void setUp()
+    {
+        parsed = new ArrayList<SyntheticProduction>(productions);
+        int offset = 0;
+        for(String p : SyntheticSource.productions(productions))
+        {
+            parsed.add(new SyntheticProduction(p, offset));
+            offset += p.length();
+        }
+    }
+    
+    @Benchmark
+    public int extractTriples()
+    {
+        int count = 0;
+        for(SyntheticProduction p : parsed)
+        {
+            TriplesExtractor extractor = new TriplesExtractor(p.getSyntaxTree());
+            count += extractor.triples().size();
+        }
+        return count;
+    }
+    
+    @Benchmark
+    public SoarDatamap addProductions()
+    {
+        SoarDatamap datamap = new SoarDatamap();
+        for(SyntheticProduction p : parsed)
+        {
+            datamap.addProduction(p);
+        }
+        return datamap;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.soartech.soar.ide.core.model.BasicSoarSourceRange;
+import com.soartech.soar.ide.core.model.impl.datamap.SoarDatamap;
+import com.soartech.soar.ide.core.model.impl.serialization.DatamapMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.ElementMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.FileMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.Mementos;
+import com.soartech.soar.ide.core.model.impl.serialization.ProductionMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.SourceRangeMemento;
+import com.soartech.soar.ide.core.tcl.TclAstNode;
+import com.soartech.soar.ide.core.tcl.TclParser;
+
+/**
+ * Benchmarks for writing and reading build cache mementos through
+ * {@link Mementos}.
+ * 
+ * @author ray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MementosBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int productions;
+    
+    private FileMemento fileMemento;
+    private DatamapMemento datamapMemento;
+    private File writeFile;
+    private File fileMementoFile;
+    private File datamapMementoFile;
+    
+    @Setup
+    public void setUp() throws IOException
+    {
+        String source = SyntheticSource.file(productions);
+        TclParser parser = new TclParser();
+        parser.setInput(source, 0, source.length());
+        fileMemento = createFileMemento(parser.parse(), source);
+        
+        SoarDatamap datamap = new SoarDatamap();
+        int offset = 0;
+        for(String p : SyntheticSource.productions(productions))
+        {
+            datamap.addProduction(new SyntheticProduction(p, offset));
+            offset += p.length();
+        }
+        datamapMemento = datamap.createMemento();
+        
+        writeFile = File.createTempFile("soar-benchmark", Mementos.EXTENSION);
+        fileMementoFile = File.createTempFile("soar-benchmark", Mementos.EXTENSION);
+        datamapMementoFile = File.createTempFile("soar-benchmark", Mementos.EXTENSION);
+        Mementos.serialize(fileMemento, fileMementoFile);
+        Mementos.serialize(datamapMemento, datamapMementoFile);
+    }
+    
+    @TearDown
+    public void tearDown()
+    {
+        writeFile.delete();
+        fileMementoFile.delete();
+        datamapMementoFile.delete();
+    }
+    
+    @Benchmark
+    public long serializeFile()
+    {
+        Mementos.serialize(fileMemento, writeFile);
+        return writeFile.length();
+    }
+    
+    @Benchmark
+    public FileMemento deserializeFile()
+    {
+        return Mementos.deserializeFile(fileMementoFile);
+    }
+    
+    @Benchmark
+    public long serializeDatamap()
+    {
+        Mementos.serialize(datamapMemento, writeFile);
+        return writeFile.length();
+    }
+    
+    @Benchmark
+    public DatamapMemento deserializeDatamap()
+    {
+        return Mementos.deserializeDatamap(datamapMementoFile);
+    }
+    
+    @Benchmark
+    public FileMemento roundTripFile()
+    {
+        Mementos.serialize(fileMemento, writeFile);
+        return Mementos.deserializeFile(writeFile);
+    }
+    
+    @Benchmark
+    public DatamapMemento roundTripDatamap()
+    {
+        Mementos.serialize(datamapMemento, writeFile);
+        return Mementos.deserializeDatamap(writeFile);
+    }
+    
+    /**
+     * Build a memento like the one SoarFile saves, with a production memento
+     * for each top-level command.
+     */
+    private static FileMemento createFileMemento(TclAstNode root, String source)
+    {
+        List<ElementMemento> children = new ArrayList<ElementMemento>();
+        for(TclAstNode command : root.getChildren())
+        {
+            if(command.getType() != TclAstNode.COMMAND)
+            {
+                continue;
+            }
+            List<TclAstNode> words = command.getWordChildren();
+            ProductionMemento memento = new ProductionMemento();
+            memento.setRange(new SourceRangeMemento(new BasicSoarSourceRange(command)));
+            memento.setCommandName(words.get(0).getInternalText(source));
+            memento.setCommandNameRange(new SourceRangeMemento(new BasicSoarSourceRange(words.get(0))));
+            if(words.size() > 1)
+            {
+                TclAstNode body = words.get(1);
+                memento.setBodyInBraces(body.getType() == TclAstNode.BRACED_WORD);
+                memento.setBodyRange(new SourceRangeMemento(new BasicSoarSourceRange(body)));
+                String text = body.getInternalText(source).trim();
+                int nameEnd = 0;
+                while(nameEnd < text.length() && !Character.isWhitespace(text.charAt(nameEnd)))
+                {
+                    ++nameEnd;
+                }
+                memento.setProductionName(text.substring(0, nameEnd));
+            }
+            children.add(memento);
+        }
+        
+        FileMemento memento = new FileMemento();
+        memento.setPath("/benchmark/synthetic.soar");
+        memento.setChildren(children.toArray(ElementMemento.EMPTY_ELEMENT_ARRAY));
+        return memento;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.soartech.soar.ide.core.model.impl.datamap.SoarDatamap;
+import com.soartech.soar.ide.core.tcl.TclAstNode;
+import com.soartech.soar.ide.core.tcl.TclParser;
+
+/**
+ * End-to-end benchmark of the work SoarFile.makeConsistent() does for a
+ * file in a single agent: parse the file as Tcl, parse each production and
+ * add it to the agent's datamap.
+ * 
+ * <p>SoarFile itself needs a workspace, and expanding Tcl needs a live
+ * agent interpreter, so this runs the same pipeline on the model classes 
+ * that don't. Files without Tcl macros take exactly this path.
+ * 
+ * @author ray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SoarFilePipelineBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int productions;
+    
+    private String source;
+    
+    @Setup
+    public void setUp()
+    {
+        source = SyntheticSource.file(productions);
+    }
+    
+    @Benchmark
+    public SoarDatamap makeConsistent()
+    {
+        TclParser parser = new TclParser();
+        parser.setInput(source, 0, source.length());
+        TclAstNode root = parser.parse();
+        
+        SoarDatamap datamap = new SoarDatamap();
+        for(TclAstNode command : root.getChildren())
+        {
+            if(command.getType() != TclAstNode.COMMAND)
+            {
+                continue;
+            }
+            List<TclAstNode> words = command.getWordChildren();
+            if(words.isEmpty() || !"sp".equals(words.get(0).getInternalText(source)))
+            {
+                continue;
+            }
+            int start = command.getStart();
+            String text = source.substring(start, start + command.getLength());
+            datamap.addProduction(new SyntheticProduction(text, start));
+        }
+        return datamap;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.soartech.soar.ide.core.model.ast.CustomSoarParserTokenManager;
+import com.soartech.soar.ide.core.model.ast.ParseException;
+import com.soartech.soar.ide.core.model.ast.SoarCharStream;
+import com.soartech.soar.ide.core.model.ast.SoarParser;
+import com.soartech.soar.ide.core.model.ast.SoarProductionAst;
+
+/**
+ * Benchmarks for parsing production bodies with {@link SoarParser} and
+ * {@link CustomSoarParserTokenManager}, the same way SoarProduction does.
+ * 
+ * @author ray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SoarParserBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int productions;
+    
+    private List<String> bodies;
+    
+    @Setup
+    public void setUp()
+    {
+        bodies = new ArrayList<String>(productions);
+        for(String p : SyntheticSource.productions(productions))
+        {
+            bodies.add(SyntheticSource.body(p));
+        }
+    }
+    
+    @Benchmark
+    public List<SoarProductionAst> parseProductions() throws ParseException
+    {
+        List<SoarProductionAst> result = new ArrayList<SoarProductionAst>(bodies.size());
+        for(String body : bodies)
+        {
+            SoarCharStream charStream = new SoarCharStream(new StringReader(body), 0);
+            CustomSoarParserTokenManager mgr = new CustomSoarParserTokenManager(charStream);
+            SoarParser parser = new SoarParser(mgr);
+            result.add(parser.soarProduction());
+        }
+        return result;
+    }
+}
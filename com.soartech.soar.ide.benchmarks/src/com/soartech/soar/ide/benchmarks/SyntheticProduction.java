@@ -0,0 +1,89 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import com.soartech.soar.ide.core.model.BasicSoarSourceRange;
+import com.soartech.soar.ide.core.model.ISoarElement;
+import com.soartech.soar.ide.core.model.ISoarSourceRange;
+import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.impl.InMemorySoarProduction;
+
+/**
+ * A production that isn't attached to a file or agent. This fills in the
+ * parts of {@link InMemorySoarProduction} that the datamap and memento code
+ * use, without needing a workspace.
+ * 
+ * @author ray
+ */
+public class SyntheticProduction extends InMemorySoarProduction
+{
+    private static final IPath PATH = new Path("/benchmark/synthetic.soar");
+    
+    private final ISoarSourceRange range;
+    
+    /**
+     * @param source The source of the production, starting with "sp {"
+     * @param offset Offset of the production in its file
+     */
+    public SyntheticProduction(String source, int offset)
+    {
+        super(source);
+        this.range = new BasicSoarSourceRange(offset, source.length());
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.InMemorySoarProduction#getProductionName()
+     */
+    @Override
+    public String getProductionName()
+    {
+        return getSyntaxTree() != null ? getSyntaxTree().getName() : "";
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.InMemorySoarProduction#getPath()
+     */
+    @Override
+    public IPath getPath()
+    {
+        return PATH;
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.InMemorySoarProduction#getParent()
+     */
+    @Override
+    public ISoarElement getParent()
+    {
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.InMemorySoarProduction#getSourceRange()
+     */
+    @Override
+    public ISoarSourceRange getSourceRange() throws SoarModelException
+    {
+        return range;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic Soar source for the benchmarks. The productions look
+ * like typical hand written agent code: multi-level state tests, negated
+ * conditions, operator proposals and the occasional comment. The output 
+ * only depends on the requested size, so results can be compared across
+ * commits.
+ * 
+ * @author ray
+ */
+public class SyntheticSource
+{
+    /**
+     * @param i Index of the production
+     * @return The source of a single production, starting with "sp {"
+     */
+    public static String production(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("sp {bench*propose*op-").append(i).append("\n");
+        sb.append("   (state <s> ^name task-").append(i % 7).append("\n");
+        sb.append("              ^io.input-link <il>\n");
+        sb.append("              ^superstate nil)\n");
+        sb.append("   (<il> ^sensor-").append(i % 50).append(" <x>)\n");
+        sb.append("   (<x> ^value <v>\n");
+        sb.append("        ^position <p>\n");
+        sb.append("        ^count > ").append(i % 5).append(")\n");
+        sb.append("   (<p> ^x <px> ^y <py>)\n");
+        sb.append("  -(<s> ^operator.name op-").append(i).append(")\n");
+        sb.append("-->\n");
+        sb.append("   (<s> ^operator <o> + =)\n");
+        sb.append("   (<o> ^name op-").append(i).append("\n");
+        sb.append("        ^target <x>\n");
+        sb.append("        ^destination <d>)\n");
+        sb.append("   (<d> ^x <px> ^y <py> ^priority ").append(i % 3).append(")\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+    
+    /**
+     * @param count Number of productions
+     * @return The productions, each starting with "sp {"
+     */
+    public static List<String> productions(int count)
+    {
+        List<String> result = new ArrayList<String>(count);
+        for(int i = 0; i < count; ++i)
+        {
+            result.add(production(i));
+        }
+        return result;
+    }
+    
+    /**
+     * @param productions Number of productions
+     * @return The contents of a .soar file with the given number of 
+     *      productions
+     */
+    public static String file(int productions)
+    {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < productions; ++i)
+        {
+            if(i % 10 == 0)
+            {
+                sb.append("# Productions ").append(i).append(" through ").append(i + 9).append("\n\n");
+            }
+            sb.append(production(i)).append("\n");
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Strip the "sp {" and closing brace from a production, leaving the body
+     * that's handed to the Soar parser.
+     * 
+     * @param production Production source as returned by {@link #production(int)}
+     * @return The body of the production
+     */
+    public static String body(String production)
+    {
+        int start = production.indexOf('{') + 1;
+        int end = production.lastIndexOf('}');
+        return production.substring(start, end);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.soartech.soar.ide.core.tcl.TclAstNode;
+import com.soartech.soar.ide.core.tcl.TclParser;
+
+/**
+ * Benchmarks for {@link TclParser}, both full parses and the incremental
+ * reparse that working copies use on every keystroke.
+ * 
+ * @author ray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TclParserBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int productions;
+    
+    private String source;
+    private String editedSource;
+    private int editOffset;
+    
+    @Setup
+    public void setUp()
+    {
+        source = SyntheticSource.file(productions);
+        
+        // Simulate typing a character in the middle of the file
+        editOffset = source.indexOf("^target", source.length() / 2);
+        editedSource = source.substring(0, editOffset) + "x" + source.substring(editOffset);
+    }
+    
+    /**
+     * The incremental parse takes ownership of the old tree, so each 
+     * invocation needs a fresh one. Building it is kept out of the 
+     * measurement.
+     */
+    @State(Scope.Thread)
+    public static class OldTree
+    {
+        TclAstNode root;
+        
+        @Setup(Level.Invocation)
+        public void setUp(TclParserBenchmark benchmark)
+        {
+            TclParser parser = new TclParser();
+            parser.setInput(benchmark.source, 0, benchmark.source.length());
+            root = parser.parse();
+        }
+    }
+    
+    @Benchmark
+    public TclAstNode parse()
+    {
+        TclParser parser = new TclParser();
+        parser.setInput(source, 0, source.length());
+        return parser.parse();
+    }
+    
+    @Benchmark
+    public TclAstNode reparseAfterEdit(OldTree oldTree)
+    {
+        TclParser parser = new TclParser();
+        parser.setInput(editedSource, 0, editedSource.length());
+        return parser.parse(oldTree.root, editOffset, 0, 1);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapNode;
+import com.soartech.soar.ide.core.model.impl.datamap.SoarDatamap;
+
+import edu.umich.soar.editor.editors.datamap.DatamapAttribute;
+import edu.umich.soar.editor.editors.datamap.ValidateDatamapAction;
+
+/**
+ * Benchmark for checking a production-derived datamap against a static
+ * (.dm) datamap, as done by {@link ValidateDatamapAction}. The static 
+ * datamap is a copy of the dynamic one with some attributes left out, so
+ * that both the matching and the mismatch paths are exercised.
+ * 
+ * @author ray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ValidateDatamapBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int productions;
+    
+    private SoarDatamap datamap;
+    private Map<Integer, ArrayList<DatamapAttribute>> staticAttributes;
+    
+    @Setup
+    public void setUp()
+    {
+        datamap = new SoarDatamap();
+        int offset = 0;
+        for(String p : SyntheticSource.productions(productions))
+        {
+            datamap.addProduction(new SyntheticProduction(p, offset));
+            offset += p.length();
+        }
+        staticAttributes = toStaticAttributes(datamap, 7);
+    }
+    
+    @Benchmark
+    public List<ValidateDatamapAction.Mismatch> validate()
+    {
+        return ValidateDatamapAction.findMismatches(staticAttributes, datamap);
+    }
+    
+    /**
+     * Convert a datamap into the attribute table of a static datamap, with
+     * the state as node 0.
+     * 
+     * @param datamap The datamap to convert
+     * @param omitEvery Every n-th attribute is left out of the result
+     * @return Attributes indexed by source node id
+     */
+    static Map<Integer, ArrayList<DatamapAttribute>> toStaticAttributes(ISoarDatamap datamap, int omitEvery)
+    {
+        Map<Integer, ArrayList<DatamapAttribute>> result = new HashMap<Integer, ArrayList<DatamapAttribute>>();
+        Map<ISoarDatamapNode, Integer> ids = new HashMap<ISoarDatamapNode, Integer>();
+        Queue<ISoarDatamapNode> queue = new ArrayDeque<ISoarDatamapNode>();
+        
+        ids.put(datamap.getState(), 0);
+        queue.add(datamap.getState());
+        int count = 0;
+        while(!queue.isEmpty())
+        {
+            ISoarDatamapNode node = queue.remove();
+            int from = ids.get(node);
+            for(ISoarDatamapAttribute attr : node.getAttributes())
+            {
+                if(++count % omitEvery == 0)
+                {
+                    continue;
+                }
+                ISoarDatamapNode target = attr.getTarget();
+                Integer to = ids.get(target);
+                if(to == null)
+                {
+                    to = ids.size();
+                    ids.put(target, to);
+                    queue.add(target);
+                }
+                ArrayList<DatamapAttribute> attrs = result.get(from);
+                if(attrs == null)
+                {
+                    attrs = new ArrayList<DatamapAttribute>();
+                    result.put(from, attrs);
+                }
+                attrs.add(new DatamapAttribute(from, attr.getName(), to, null));
+            }
+        }
+        return result;
+    }
+}
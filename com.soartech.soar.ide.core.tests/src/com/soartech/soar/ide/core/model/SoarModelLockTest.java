@@ -0,0 +1,153 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the deadlock detection and upgrade check of {@link SoarModelLock}.
+ * 
+ * @author ray
+ */
+public class SoarModelLockTest
+{
+    private boolean wasEnabled;
+    
+    @Before
+    public void setUp()
+    {
+        wasEnabled = SoarModelLock.isDeadlockDetectionEnabled();
+        SoarModelLock.setDeadlockDetectionEnabled(true);
+    }
+    
+    @After
+    public void tearDown()
+    {
+        SoarModelLock.setDeadlockDetectionEnabled(wasEnabled);
+    }
+    
+    @Test
+    public void testProjectLockAfterModelLockIsReported()
+    {
+        SoarModelLock model = SoarModelLock.createModelLock();
+        SoarModelLock project = SoarModelLock.createProjectLock("a");
+        
+        model.acquireRead();
+        try
+        {
+            project.acquireRead();
+            project.releaseRead();
+            fail("Out of order acquisition wasn't reported");
+        }
+        catch(IllegalStateException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains(project.toString()));
+            assertTrue(e.getMessage(), e.getMessage().contains(model.toString()));
+        }
+        finally
+        {
+            model.releaseRead();
+        }
+        assertFalse(project.isHeldByCurrentThread());
+    }
+    
+    @Test
+    public void testProjectLocksOutOfNameOrderAreReported()
+    {
+        SoarModelLock a = SoarModelLock.createProjectLock("a");
+        SoarModelLock b = SoarModelLock.createProjectLock("b");
+        
+        b.acquireWrite();
+        try
+        {
+            a.acquireWrite();
+            a.releaseWrite();
+            fail("Out of order acquisition wasn't reported");
+        }
+        catch(IllegalStateException e)
+        {
+            // expected
+        }
+        finally
+        {
+            b.releaseWrite();
+        }
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testReadToWriteUpgradeFails()
+    {
+        SoarModelLock lock = SoarModelLock.createProjectLock("a");
+        
+        lock.acquireRead();
+        try
+        {
+            lock.acquireWrite();
+        }
+        finally
+        {
+            lock.releaseRead();
+        }
+    }
+    
+    @Test
+    public void testReadWhileHoldingWriteIsAllowed()
+    {
+        SoarModelLock lock = SoarModelLock.createProjectLock("a");
+        
+        lock.acquireWrite();
+        lock.acquireRead();
+        lock.releaseRead();
+        lock.releaseWrite();
+        assertFalse(lock.isHeldByCurrentThread());
+    }
+    
+    @Test
+    public void testInOrderAcquisitionIsAllowed()
+    {
+        SoarModelLock model = SoarModelLock.createModelLock();
+        SoarModelLock a = SoarModelLock.createProjectLock("a");
+        SoarModelLock b = SoarModelLock.createProjectLock("b");
+        
+        a.acquireRead();
+        b.acquireWrite();
+        model.acquireRead();
+        
+        // Reacquiring a held lock is always allowed
+        a.acquireRead();
+        
+        a.releaseRead();
+        model.releaseRead();
+        b.releaseWrite();
+        a.releaseRead();
+        
+        // Released locks are no longer tracked
+        model.acquireRead();
+        model.releaseRead();
+        a.acquireRead();
+        a.releaseRead();
+    }
+}
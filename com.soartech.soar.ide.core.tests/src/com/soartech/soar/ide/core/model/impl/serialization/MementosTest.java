@@ -0,0 +1,178 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests writing and reading mementos in the binary format described in
+ * {@link Mementos}.
+ * 
+ * @author ray
+ */
+public class MementosTest
+{
+    private File file;
+    
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("MementosTest", Mementos.EXTENSION);
+    }
+    
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+    
+    @Test
+    public void testDependenciesRoundTrip() throws Exception
+    {
+        DependenciesMemento in = createDependencies();
+        byte[] bytes = write(in);
+        
+        DependenciesMemento out = new MementoReader(ByteBuffer.wrap(bytes)).readDependencies();
+        assertEquals(1, out.getFiles().length);
+        assertEquals("/p/a.soar", out.getFiles()[0].getPath());
+        assertArrayEquals(new String[] { "/p/b.soar" }, out.getFiles()[0].getSources());
+        assertArrayEquals(new String[] { "ngs-match" }, out.getFiles()[0].getDefinedProcs());
+        assertEquals(0, out.getFiles()[0].getCalledCommands().length);
+        assertEquals(1, out.getAgents().length);
+        assertEquals("/p/agent.soaragent", out.getAgents()[0].getPath());
+        assertArrayEquals(new String[] { "/p/a.soar", "/p/b.soar" }, out.getAgents()[0].getFiles());
+    }
+    
+    @Test
+    public void testFileRoundTrip() throws Exception
+    {
+        ProductionMemento production = new ProductionMemento();
+        production.setProductionName("propose*init");
+        production.setBodyInBraces(false);
+        FileMemento in = new FileMemento();
+        in.setPath("/p/a.soar");
+        in.setChildren(new ElementMemento[] { production });
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new MementoWriter().write(in, bytes);
+        FileMemento out = new MementoReader(ByteBuffer.wrap(bytes.toByteArray())).readFile();
+        
+        assertEquals("/p/a.soar", out.getPath());
+        assertEquals(1, out.getChildren().length);
+        assertTrue(out.getChildren()[0] instanceof ProductionMemento);
+        ProductionMemento p = (ProductionMemento) out.getChildren()[0];
+        assertEquals("propose*init", p.getProductionName());
+        assertFalse(p.isBodyInBraces());
+    }
+    
+    @Test
+    public void testRoundTripThroughFile()
+    {
+        Mementos.serialize(createDependencies(), file);
+        DependenciesMemento out = Mementos.deserializeDependencies(file);
+        assertEquals("/p/a.soar", out.getFiles()[0].getPath());
+    }
+    
+    @Test
+    public void testMissingFileIsNull()
+    {
+        file.delete();
+        assertNull(Mementos.deserializeDependencies(file));
+    }
+    
+    @Test
+    public void testTruncatedMementoIsRejected() throws Exception
+    {
+        byte[] bytes = write(createDependencies());
+        for(int length = 0; length < bytes.length; ++length)
+        {
+            try
+            {
+                new MementoReader(ByteBuffer.wrap(Arrays.copyOf(bytes, length))).readDependencies();
+                fail("Memento truncated to " + length + " bytes was accepted");
+            }
+            catch(SoarDeserializationException e)
+            {
+                assertFalse(e.isOutdated());
+            }
+        }
+    }
+    
+    @Test
+    public void testChecksumMismatchIsRejected() throws Exception
+    {
+        byte[] bytes = write(createDependencies());
+        bytes[bytes.length / 2] ^= 0x01;
+        try
+        {
+            new MementoReader(ByteBuffer.wrap(bytes)).readDependencies();
+            fail("Corrupt memento was accepted");
+        }
+        catch(SoarDeserializationException e)
+        {
+            assertFalse(e.isOutdated());
+        }
+    }
+    
+    @Test(expected=SoarDeserializationException.class)
+    public void testWrongKindIsRejected() throws Exception
+    {
+        new MementoReader(ByteBuffer.wrap(write(createDependencies()))).readDatamap();
+    }
+    
+    private static DependenciesMemento createDependencies()
+    {
+        FileDependenciesMemento file = new FileDependenciesMemento();
+        file.setPath("/p/a.soar");
+        file.setSources(new String[] { "/p/b.soar" });
+        file.setDefinedProcs(new String[] { "ngs-match" });
+        
+        AgentDependenciesMemento agent = new AgentDependenciesMemento();
+        agent.setPath("/p/agent.soaragent");
+        agent.setFiles(new String[] { "/p/a.soar", "/p/b.soar" });
+        
+        DependenciesMemento memento = new DependenciesMemento();
+        memento.setFiles(new FileDependenciesMemento[] { file });
+        memento.setAgents(new AgentDependenciesMemento[] { agent });
+        return memento;
+    }
+    
+    private static byte[] write(DependenciesMemento memento) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new MementoWriter().write(memento, bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.tcl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link TclParser#parse(TclAstNode, int, int, int)} against a full
+ * parse of the same text.
+ * 
+ * @author ray
+ */
+public class TclParserTest
+{
+    private static final String[] COMMANDS = 
+    {
+        "sp {test*propose\n   (state <s> ^superstate nil)\n-->\n   (<s> ^operator <o> +)\n}\n",
+        "# A comment \\\n   continued\n",
+        "source \"file name.soar\"\n",
+        "set x [expr {$y + 1}]; set z \"a $x [list b c]\"\n",
+        "proc p {a {b 2}} {\n    return [concat $a $b]\n}\n",
+        "pushd dir\nsource load.soar\npopd\n",
+        "puts \\\n    hello\n",
+        "\n",
+    };
+    
+    private static final String[] INSERTS = 
+    {
+        "\n", " ", ";", "{", "}", "[", "]", "\"", "\\", "#", "$x", "sp", 
+        "\\\n", "{a b}", "[set x]", "\"q\"", "foo\nbar ", "}\n{",
+    };
+    
+    private static final int TRIALS = 5000;
+    
+    @Test
+    public void testEditInsideCommand()
+    {
+        String before = COMMANDS[0] + COMMANDS[3] + COMMANDS[4];
+        int offset = before.indexOf("nil");
+        checkEdit(before, offset, 3, "<ss>");
+    }
+    
+    @Test
+    public void testDeletedTerminatorJoinsCommands()
+    {
+        String before = COMMANDS[2] + COMMANDS[2] + COMMANDS[3];
+        checkEdit(before, COMMANDS[2].length() - 1, 1, " ");
+    }
+    
+    @Test
+    public void testBackslashJoinsCommands()
+    {
+        String before = COMMANDS[5] + COMMANDS[2];
+        checkEdit(before, before.indexOf("\nsource"), 0, " \\");
+    }
+    
+    @Test
+    public void testUnbalancedBraceSwallowsRest()
+    {
+        String before = COMMANDS[2] + COMMANDS[4] + COMMANDS[0] + COMMANDS[3];
+        checkEdit(before, COMMANDS[2].length(), 0, "set a {");
+    }
+    
+    @Test
+    public void testRandomEdits()
+    {
+        // Fixed seed so failures can be reproduced
+        Random random = new Random(42);
+        for(int trial = 0; trial < TRIALS; ++trial)
+        {
+            StringBuilder before = new StringBuilder();
+            int commands = 1 + random.nextInt(12);
+            for(int i = 0; i < commands; ++i)
+            {
+                before.append(COMMANDS[random.nextInt(COMMANDS.length)]);
+            }
+            
+            int offset = random.nextInt(before.length() + 1);
+            int removed = random.nextInt(Math.min(8, before.length() - offset) + 1);
+            StringBuilder inserted = new StringBuilder();
+            int pieces = random.nextInt(3);
+            for(int i = 0; i < pieces; ++i)
+            {
+                inserted.append(INSERTS[random.nextInt(INSERTS.length)]);
+            }
+            
+            checkEdit(before.toString(), offset, removed, inserted.toString());
+        }
+    }
+    
+    /**
+     * Parse the text, apply the edit and check that an incremental reparse
+     * gives the same tree and errors as a full parse of the edited text.
+     */
+    private void checkEdit(String before, int offset, int removed, String inserted)
+    {
+        TclParser parser = new TclParser();
+        parser.setInput(before, 0, before.length());
+        TclAstNode oldRoot = parser.parse();
+        assertFalse("Bad test input: " + before, oldRoot.hasParseErrors());
+        
+        String after = before.substring(0, offset) + inserted + before.substring(offset + removed);
+        
+        TclParser full = new TclParser();
+        full.setInput(after, 0, after.length());
+        String expected = describe(full.parse()) + full.getErrors();
+        
+        parser.setInput(after, 0, after.length());
+        String actual = describe(parser.parse(oldRoot, offset, removed, inserted.length())) + parser.getErrors();
+        
+        assertEquals("Replacing " + removed + " characters at " + offset + 
+                     " with \"" + inserted + "\" in \"" + before + "\"", expected, actual);
+    }
+    
+    private static String describe(TclAstNode node)
+    {
+        StringBuilder b = new StringBuilder();
+        describe(node, b);
+        return b.toString();
+    }
+    
+    private static void describe(TclAstNode node, StringBuilder b)
+    {
+        b.append(node.getType()).append(':').append(node.getStart()).append(':').append(node.getLength());
+        if(node.getError() != null)
+        {
+            b.append('!').append(node.getError());
+        }
+        b.append('(');
+        for(TclAstNode child : node.getChildren())
+        {
+            describe(child, b);
+        }
+        b.append(')');
+    }
+}
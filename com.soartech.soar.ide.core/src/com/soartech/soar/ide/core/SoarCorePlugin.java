@@ -110,6 +110,7 @@ public class SoarCorePlugin extends Plugin {
     {
 		super.stop(context);
         modelAdapters.unregister();
+        soarModel.dispose();
 		plugin = null;
 	}
 
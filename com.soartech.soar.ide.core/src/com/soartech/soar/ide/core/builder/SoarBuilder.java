@@ -22,8 +22,12 @@ package com.soartech.soar.ide.core.builder;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.resources.ICommand;
 import org.eclipse.core.resources.IFile;
@@ -39,11 +43,14 @@ import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
 import org.eclipse.core.runtime.jobs.Job;
 
 import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.ISoarProject;
 import com.soartech.soar.ide.core.model.SoarModelException;
@@ -68,6 +75,12 @@ public class SoarBuilder extends IncrementalProjectBuilder
 
     private SoarAgentFileSelectionUpdater changeHandler = new SoarAgentFileSelectionUpdater();
     
+    /**
+     * Dependencies recorded by the last build, loaded lazily. Null if they
+     * haven't been loaded or the project has been cleaned.
+     */
+    private SoarDependencyGraph dependencies;
+    
     /**
      * Add this builder to the given soarProject. This should only be called
      * when the Soar soarProject nature is added to a soarProject.
@@ -214,6 +227,36 @@ public class SoarBuilder extends IncrementalProjectBuilder
         
     }
     
+    /**
+     * Schedule a job that fully compiles the productions of the given agent 
+     * into the Soar kernel. Normal builds only parse productions.
+     * 
+     * @param agent The agent to compile
+     */
+    public static void scheduleProductionCompile(final ISoarAgent agent)
+    {
+        Job compileJob = new Job("Compiling productions for agent " + agent.getName()) {
+
+            @Override
+            protected IStatus run(IProgressMonitor monitor)
+            {
+                try
+                {
+                    agent.compileProductions(monitor);
+                }
+                catch (SoarModelException e)
+                {
+                    return e.getStatus();
+                }
+                return new Status(IStatus.OK, 
+                        SoarCorePlugin.PLUGIN_ID, 0, "Productions compiled", null);
+            }
+        };
+        compileJob.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+        compileJob.setUser(true); // Show job in UI progress bar
+        compileJob.schedule();
+    }
+    
     /**
      * Find this builder in the given list of builder commands
      * 
@@ -248,15 +291,14 @@ public class SoarBuilder extends IncrementalProjectBuilder
         File buildDir = createBuildDirectory();
         
         // Build path to output file
-        File outputFile = new File(buildDir, file.getFullPath().toPortableString() + ".ser");
+        File outputFile = new File(buildDir, file.getFullPath().toPortableString() + Mementos.EXTENSION);
         
         if(!outputFile.exists() || !outputFile.isFile())
         {
             throw new SoarModelException("Serialized file does not exist: " + outputFile);
         }
         
-        System.out.println("Deserializing " + outputFile);
-        FileMemento memento = (FileMemento) Mementos.deserialize(outputFile);
+        FileMemento memento = Mementos.deserializeFile(outputFile);
         if(memento == null)
         {
             throw new SoarModelException("Failed to deserialize memento: " + outputFile);
@@ -279,16 +321,15 @@ public class SoarBuilder extends IncrementalProjectBuilder
             return false;
         }
         
-        System.out.println("Deserializing datamap from " + datamapFile);
-        long start = System.currentTimeMillis();
-        DatamapMemento memento = (DatamapMemento) Mementos.deserialize(datamapFile);
+        DatamapMemento memento = Mementos.deserializeDatamap(datamapFile);
         if(memento == null)
         {
             return false;
         }
         
+        final long start = SoarMetrics.start();
         boolean r = datamap.deserialize(project, memento);
-        System.out.println("... done in " + (System.currentTimeMillis() - start) + " ms");
+        SoarMetrics.stop(BuildPhase.SERIALIZATION, SoarMetrics.AGENT, agent.getName(), start);
         return r;
     }
     
@@ -331,9 +372,16 @@ public class SoarBuilder extends IncrementalProjectBuilder
         File dir = getProjectOutputDirectory(project, false);
         deleteDirectoryTree(dir);
         
-        // Delete cached datamap
-        File datamap = new File(createBuildDirectory(), project.getName() + ".datamap.ser");
-        datamap.delete();
+        // Delete cached datamaps. See getDatamapName()
+        final String prefix = "_" + project.getName() + "_";
+        File[] datamaps = createBuildDirectory().listFiles();
+        for(File datamap : datamaps != null ? datamaps : new File[0])
+        {
+            if(datamap.getName().startsWith(prefix) && datamap.getName().endsWith(".datamap" + Mementos.EXTENSION))
+            {
+                datamap.delete();
+            }
+        }
     }
     
     public static File createOutputDirectoryForFile(IFile file)
@@ -356,7 +404,7 @@ public class SoarBuilder extends IncrementalProjectBuilder
         File buildDir = createBuildDirectory();
         
         // Build path to output file
-        File outputFile = new File(buildDir, file.getFullPath().toPortableString());
+        File outputFile = new File(buildDir, file.getFullPath().toPortableString() + Mementos.EXTENSION);
         
         // Delete the file
         outputFile.delete();
@@ -411,7 +459,7 @@ public class SoarBuilder extends IncrementalProjectBuilder
     
     private void fullBuild(IProgressMonitor monitor, SoarProject soarProject)
     {
-        System.out.println("Full Soar build triggered on soarProject " + getProject().getName());
+        SoarMetrics.increment("Full builds");
         
         runBuildRunnable(new BuildTask(soarProject, null), monitor);        
     }
@@ -450,10 +498,10 @@ public class SoarBuilder extends IncrementalProjectBuilder
         // Soar processing.
         if(!isSoarFileAffected(delta))
         {
-            System.out.println("Ignoring incremental build triggered on soarProject " + getProject().getName() + ". No files affected.");
+            SoarMetrics.increment("Incremental builds skipped");
             return;
         }
-        System.out.println("Incremental Soar build triggered on soarProject " + getProject().getName());
+        SoarMetrics.increment("Incremental builds");
         runBuildRunnable(new BuildTask(soarProject, delta), monitor);        
     }
     
@@ -538,8 +586,28 @@ public class SoarBuilder extends IncrementalProjectBuilder
         return null;
     }
 
+    /**
+     * @return The dependencies recorded by the last build, or null if there
+     *      aren't any.
+     */
+    private SoarDependencyGraph getDependencies()
+    {
+        if(dependencies == null)
+        {
+            dependencies = SoarDependencyGraph.load(getProject());
+        }
+        return dependencies;
+    }
+    
     private boolean resourceDeltaRequiresFullBuild(IResourceDelta delta) throws CoreException
     {
+        // With recorded dependencies, an incremental build can work out 
+        // which agents and files are affected by changes to agents.
+        if(getDependencies() != null)
+        {
+            return false;
+        }
+        
         // Use the final array trick so that the inner class can pass back a 
         // boolean to us. 
         final boolean[] flag = { false };
@@ -566,7 +634,7 @@ public class SoarBuilder extends IncrementalProjectBuilder
         // TODO: Make sure this is unique.
         String name = agent.getFile().getFullPath().toPortableString();
         name = name.replace('/', '_');
-        return name + ".datamap.ser";
+        return name + ".datamap" + Mementos.EXTENSION;
     }
     
     /**
@@ -591,6 +659,7 @@ public class SoarBuilder extends IncrementalProjectBuilder
         System.out.println("Clean Soar build triggered on soarProject " + getProject().getName());
 
         cleanProjectOutput(getProject());
+        dependencies = null;
         
         // Clear out the soarProject (datamap, children, etc)
         try
@@ -627,6 +696,7 @@ public class SoarBuilder extends IncrementalProjectBuilder
 
         public void run(IProgressMonitor monitor) throws CoreException
         {
+            boolean completed = false;
             try
             {
                 monitor = SoarModelTools.getSafeMonitor(monitor);
@@ -643,9 +713,23 @@ public class SoarBuilder extends IncrementalProjectBuilder
                     
                     project.accept(new SoarAgentVisitor(SoarBuilder.this, monitor));
                     soarProject.makeConsistent(new SubProgressMonitor(monitor, 1));
-                    project.accept(new SoarFileVistor(SoarBuilder.this, monitor));
+                    
+                    // Build the graph on the side so a cancelled build doesn't
+                    // leave a partial one behind.
+                    SoarDependencyGraph graph = new SoarDependencyGraph();
+                    for(ISoarAgent agent : soarProject.getAgents())
+                    {
+                        graph.setAgent(SoarDependencyGraph.getKey(agent.getFile()), 
+                                              SoarDependencyGraph.computeAgentFiles(soarProject, (SoarAgent) agent));
+                    }
+                    
+                    SoarFileVistor fileVisitor = new SoarFileVistor(SoarBuilder.this, monitor, graph);
+                    project.accept(fileVisitor);
+                    fileVisitor.processFiles();
+                    graph.save(project);
+                    dependencies = graph;
                 }
-                else // incremental build
+                else if(getDependencies() == null) // incremental build, no dependencies
                 {
                     assert delta != null;
                     
@@ -657,14 +741,22 @@ public class SoarBuilder extends IncrementalProjectBuilder
                     
                     // Update the rest of the project and files
                     soarProject.makeConsistent(new SubProgressMonitor(monitor, 1));
-                    delta.accept(new SoarFileVistor(SoarBuilder.this, monitor));
+                    SoarFileVistor fileVisitor = new SoarFileVistor(SoarBuilder.this, monitor);
+                    delta.accept(fileVisitor);
+                    fileVisitor.processFiles();
                     
                 }
+                else // incremental build
+                {
+                    assert delta != null;
+                    dependentBuild(monitor);
+                }
                                 
                 // Now finish the build.
                 soarProject.finishBuild(isIncremental(), new SubProgressMonitor(monitor, 1));
                 
                 saveDatamap(soarProject);
+                completed = true;
             }
             catch (CoreException e)
             {
@@ -672,11 +764,192 @@ public class SoarBuilder extends IncrementalProjectBuilder
             }
             finally
             {
+                if(!completed)
+                {
+                    // Cancelled or failed. Reload from the last saved graph
+                    // next time.
+                    dependencies = null;
+                }
                 SoarCorePlugin.getDefault().getInternalSoarModel().endModification();
                 monitor.done();
             }
         }
 
+        /**
+         * Incremental build driven by the recorded dependencies. Only the 
+         * agents that include a changed file are run through Tcl again, and
+         * only the changed files and the files affected by them are rebuilt.
+         * 
+         * @param monitor The progress monitor
+         * @throws CoreException
+         */
+        private void dependentBuild(IProgressMonitor monitor) throws CoreException
+        {
+            // Work on a copy. It replaces the recorded dependencies only once
+            // it has been saved.
+            final SoarDependencyGraph graph = dependencies.copy();
+            
+            // Collect the changes before the model is updated.
+            final Set<IFile> changedFiles = new LinkedHashSet<IFile>();
+            final Set<IFile> addedFiles = new LinkedHashSet<IFile>();
+            final Set<String> changedAgents = new HashSet<String>();
+            delta.accept(new IResourceDeltaVisitor() {
+
+                public boolean visit(IResourceDelta delta) throws CoreException
+                {
+                    IResource resource = delta.getResource();
+                    if(!(resource instanceof IFile))
+                    {
+                        return true;
+                    }
+                    IFile file = (IFile) resource;
+                    if(SoarModelTools.isAgentFile(file))
+                    {
+                        changedAgents.add(SoarDependencyGraph.getKey(file));
+                    }
+                    else if(SoarModelTools.isSoarFile(file))
+                    {
+                        changedFiles.add(file);
+                        if(delta.getKind() == IResourceDelta.ADDED)
+                        {
+                            addedFiles.add(file);
+                        }
+                    }
+                    return true;
+                }});
+            
+            // Scan the new contents of changed files for the procs they 
+            // define and call and find the files affected by them.
+            Set<String> changedKeys = new HashSet<String>();
+            Map<String, SoarDependencyGraph.FileScan> scans = new HashMap<String, SoarDependencyGraph.FileScan>();
+            for(IFile file : changedFiles)
+            {
+                String key = SoarDependencyGraph.getKey(file);
+                changedKeys.add(key);
+                if(file.exists())
+                {
+                    scans.put(key, SoarDependencyGraph.scan(SoarModelTools.readFileAsCharArray(file)));
+                }
+            }
+            Set<String> affectedFiles = graph.getAffectedFiles(changedKeys, scans);
+            
+            // Update agents
+            delta.accept(new SoarAgentVisitor(SoarBuilder.this, monitor));
+            
+            // Update agents with any new files or folders
+            changeHandler.resourceChanged(delta, monitor);
+            
+            // Files of agents that no longer exist lose a proxy
+            List<ISoarAgent> agents = soarProject.getAgents();
+            Set<String> agentKeys = new HashSet<String>();
+            for(ISoarAgent agent : agents)
+            {
+                agentKeys.add(SoarDependencyGraph.getKey(agent.getFile()));
+            }
+            affectedFiles.addAll(graph.retainAgents(agentKeys));
+            
+            // An agent has to be run through Tcl again if it is new, if its
+            // agent file changed, if it includes an affected file, or if a
+            // new file is sourced by one of its files or in its selection.
+            Set<String> sourcingAdded = new HashSet<String>();
+            for(IFile file : addedFiles)
+            {
+                sourcingAdded.addAll(graph.getFilesSourcing(file.getLocation()));
+            }
+            List<SoarAgent> affectedAgents = new ArrayList<SoarAgent>();
+            for(ISoarAgent agent : agents)
+            {
+                String key = SoarDependencyGraph.getKey(agent.getFile());
+                Set<String> agentFiles = graph.getAgentFiles(key);
+                if(agentFiles == null || changedAgents.contains(key) || 
+                   containsAny(agentFiles, affectedFiles) || containsAny(agentFiles, sourcingAdded) ||
+                   containsAny(agent, addedFiles))
+                {
+                    affectedAgents.add((SoarAgent) agent);
+                }
+            }
+            soarProject.makeConsistent(new SubProgressMonitor(monitor, 1), affectedAgents);
+            
+            // Files that joined or left an agent need their proxies updated.
+            // If the agent file itself changed, rebuild everything it touches.
+            for(SoarAgent agent : affectedAgents)
+            {
+                String key = SoarDependencyGraph.getKey(agent.getFile());
+                Set<String> oldFiles = graph.getAgentFiles(key);
+                Set<String> newFiles = SoarDependencyGraph.computeAgentFiles(soarProject, agent);
+                if(oldFiles == null || changedAgents.contains(key))
+                {
+                    affectedFiles.addAll(newFiles);
+                    if(oldFiles != null)
+                    {
+                        affectedFiles.addAll(oldFiles);
+                    }
+                }
+                else
+                {
+                    for(String file : newFiles)
+                    {
+                        if(!oldFiles.contains(file))
+                        {
+                            affectedFiles.add(file);
+                        }
+                    }
+                    for(String file : oldFiles)
+                    {
+                        if(!newFiles.contains(file))
+                        {
+                            affectedFiles.add(file);
+                        }
+                    }
+                }
+                graph.setAgent(key, newFiles);
+            }
+            
+            SoarFileVistor fileVisitor = new SoarFileVistor(SoarBuilder.this, monitor, graph);
+            delta.accept(fileVisitor);
+            IProject project = getProject();
+            for(String key : affectedFiles)
+            {
+                IResource resource = project.getWorkspace().getRoot().findMember(Path.fromPortableString(key));
+                if(resource != null && resource.exists() && project.equals(resource.getProject()))
+                {
+                    SoarFile soarFile = getSoarFile(resource);
+                    if(soarFile != null)
+                    {
+                        fileVisitor.addFile(soarFile);
+                    }
+                }
+            }
+            fileVisitor.processFiles();
+            
+            graph.save(project);
+            dependencies = graph;
+        }
+        
+        private boolean containsAny(Set<String> set, Set<String> values)
+        {
+            for(String value : values)
+            {
+                if(set.contains(value))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private boolean containsAny(ISoarAgent agent, Set<IFile> files)
+        {
+            for(IFile file : files)
+            {
+                if(agent.contains(file))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
         public boolean isIncremental()
         {
             return delta != null;
@@ -0,0 +1,534 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.builder;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+
+import com.soartech.soar.ide.core.model.ISoarElement;
+import com.soartech.soar.ide.core.model.ISoarFileAgentProxy;
+import com.soartech.soar.ide.core.model.ITclFileReference;
+import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.impl.SoarAgent;
+import com.soartech.soar.ide.core.model.impl.SoarFile;
+import com.soartech.soar.ide.core.model.impl.SoarProject;
+import com.soartech.soar.ide.core.model.impl.serialization.AgentDependenciesMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.DependenciesMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.FileDependenciesMemento;
+import com.soartech.soar.ide.core.model.impl.serialization.Mementos;
+
+/**
+ * The dependencies between the files and agents of a Soar project, as seen
+ * by the last build. For each file this records the files it sources and 
+ * the Tcl procs it defines and calls. For each agent it records the files
+ * the agent includes, either through its resource selection or by sourcing
+ * them.
+ * 
+ * <p>Incremental builds use this to decide which agents have to be run 
+ * through the Tcl interpreter again and which files have to be reparsed.
+ * The graph is saved in the project's output directory so that it survives
+ * restarts, and is thrown away with the rest of the output on a clean.
+ * 
+ * <p>Files and agents are identified by the portable string of their 
+ * workspace path. Sourced files are identified by the portable string of 
+ * their file system location since they may be outside the workspace or 
+ * not exist yet.
+ * 
+ * <p>This class is not thread-safe. It is only used from the build thread.
+ */
+class SoarDependencyGraph
+{
+    private static final String FILE_NAME = ".dependencies" + Mementos.EXTENSION;
+    
+    private final Map<String, FileNode> files = new HashMap<String, FileNode>();
+    private final Map<String, Set<String>> agents = new HashMap<String, Set<String>>();
+    
+    /**
+     * Load the dependency graph saved by the last build of the given project
+     * 
+     * @param project The project
+     * @return The graph, or null if there isn't one or it couldn't be read
+     */
+    static SoarDependencyGraph load(IProject project)
+    {
+        File file = new File(SoarBuilder.getProjectOutputDirectory(project, false), FILE_NAME);
+        if(!file.isFile())
+        {
+            return null;
+        }
+        DependenciesMemento memento = Mementos.deserializeDependencies(file);
+        if(memento == null)
+        {
+            return null;
+        }
+        
+        SoarDependencyGraph graph = new SoarDependencyGraph();
+        for(FileDependenciesMemento fm : memento.getFiles())
+        {
+            FileNode node = new FileNode();
+            addAll(node.sources, fm.getSources());
+            addAll(node.defines, fm.getDefinedProcs());
+            addAll(node.calls, fm.getCalledCommands());
+            graph.files.put(fm.getPath(), node);
+        }
+        for(AgentDependenciesMemento am : memento.getAgents())
+        {
+            Set<String> agentFiles = new HashSet<String>();
+            addAll(agentFiles, am.getFiles());
+            graph.agents.put(am.getPath(), agentFiles);
+        }
+        return graph;
+    }
+    
+    /**
+     * @return A copy of this graph that can be changed without affecting 
+     *      this one
+     */
+    SoarDependencyGraph copy()
+    {
+        SoarDependencyGraph graph = new SoarDependencyGraph();
+        for(Map.Entry<String, FileNode> e : files.entrySet())
+        {
+            FileNode node = new FileNode();
+            node.sources.addAll(e.getValue().sources);
+            node.defines.addAll(e.getValue().defines);
+            node.calls.addAll(e.getValue().calls);
+            graph.files.put(e.getKey(), node);
+        }
+        for(Map.Entry<String, Set<String>> e : agents.entrySet())
+        {
+            graph.agents.put(e.getKey(), new HashSet<String>(e.getValue()));
+        }
+        return graph;
+    }
+    
+    /**
+     * Save this graph to the output directory of the given project
+     * 
+     * @param project The project
+     */
+    void save(IProject project)
+    {
+        FileDependenciesMemento[] fileMementos = new FileDependenciesMemento[files.size()];
+        int i = 0;
+        for(Map.Entry<String, FileNode> e : files.entrySet())
+        {
+            FileNode node = e.getValue();
+            FileDependenciesMemento fm = new FileDependenciesMemento();
+            fm.setPath(e.getKey());
+            fm.setSources(toArray(node.sources));
+            fm.setDefinedProcs(toArray(node.defines));
+            fm.setCalledCommands(toArray(node.calls));
+            fileMementos[i++] = fm;
+        }
+        
+        AgentDependenciesMemento[] agentMementos = new AgentDependenciesMemento[agents.size()];
+        i = 0;
+        for(Map.Entry<String, Set<String>> e : agents.entrySet())
+        {
+            AgentDependenciesMemento am = new AgentDependenciesMemento();
+            am.setPath(e.getKey());
+            am.setFiles(toArray(e.getValue()));
+            agentMementos[i++] = am;
+        }
+        
+        DependenciesMemento memento = new DependenciesMemento();
+        memento.setFiles(fileMementos);
+        memento.setAgents(agentMementos);
+        Mementos.serialize(memento, new File(SoarBuilder.getProjectOutputDirectory(project, true), FILE_NAME));
+    }
+    
+    /**
+     * @param resource A resource
+     * @return The key used for the resource in the graph
+     */
+    static String getKey(IResource resource)
+    {
+        return resource.getFullPath().toPortableString();
+    }
+    
+    /**
+     * Record the dependencies of a file that was just rebuilt
+     * 
+     * @param soarFile The file. Its agent proxies must be up to date.
+     * @param scan The result of {@link #scan(char[])} on the file's contents
+     * @throws SoarModelException
+     */
+    void setFile(SoarFile soarFile, FileScan scan) throws SoarModelException
+    {
+        FileNode node = new FileNode();
+        for(ISoarFileAgentProxy proxy : soarFile.getAgentProxies())
+        {
+            addSources(proxy, node.sources);
+        }
+        if(scan != null)
+        {
+            node.defines.addAll(scan.defines);
+            node.calls.addAll(scan.calls);
+        }
+        files.put(getKey(soarFile.getFile()), node);
+    }
+    
+    private static void addSources(ISoarElement parent, Set<String> sources) throws SoarModelException
+    {
+        for(ISoarElement child : parent.getChildren())
+        {
+            if(child instanceof ITclFileReference)
+            {
+                ITclFileReference ref = (ITclFileReference) child;
+                IPath location = ref.getReferencedLocation();
+                if(!ref.isDirectory() && location != null)
+                {
+                    sources.add(location.toPortableString());
+                }
+                addSources(ref, sources);
+            }
+        }
+    }
+    
+    /**
+     * Forget about a file that has been removed
+     * 
+     * @param key The file's key
+     */
+    void removeFile(String key)
+    {
+        files.remove(key);
+    }
+    
+    /**
+     * Record the files included by an agent
+     * 
+     * @param key The agent's key
+     * @param agentFiles The keys of the agent's files
+     */
+    void setAgent(String key, Set<String> agentFiles)
+    {
+        agents.put(key, agentFiles);
+    }
+    
+    /**
+     * @param key An agent's key
+     * @return The keys of the files the agent included in the last build, or
+     *      null if the agent isn't known.
+     */
+    Set<String> getAgentFiles(String key)
+    {
+        return agents.get(key);
+    }
+    
+    /**
+     * Forget about agents that no longer exist
+     * 
+     * @param keys The keys of the agents that still exist
+     * @return The keys of all files that were included by the forgotten 
+     *      agents
+     */
+    Set<String> retainAgents(Collection<String> keys)
+    {
+        Set<String> orphans = new HashSet<String>();
+        for(String key : new HashSet<String>(agents.keySet()))
+        {
+            if(!keys.contains(key))
+            {
+                orphans.addAll(agents.remove(key));
+            }
+        }
+        return orphans;
+    }
+    
+    /**
+     * @param location The file system location of a file
+     * @return The keys of the files that source the given location
+     */
+    Set<String> getFilesSourcing(IPath location)
+    {
+        Set<String> result = new HashSet<String>();
+        if(location == null)
+        {
+            return result;
+        }
+        String source = location.toPortableString();
+        for(Map.Entry<String, FileNode> e : files.entrySet())
+        {
+            if(e.getValue().sources.contains(source))
+            {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Find all files whose expansion may be affected by changes to the given
+     * files. A file is affected if it calls a proc defined, before or after
+     * the change, by a changed file or, transitively, by another affected 
+     * file.
+     * 
+     * @param changed The keys of the changed files
+     * @param scans Scans of the new contents of changed files, by key. Files
+     *      that were removed have no entry.
+     * @return The keys of the changed files and all files affected by them
+     */
+    Set<String> getAffectedFiles(Collection<String> changed, Map<String, FileScan> scans)
+    {
+        // Index the callers of each command. New scans take the place of the
+        // recorded calls.
+        Map<String, Set<String>> callers = new HashMap<String, Set<String>>();
+        for(Map.Entry<String, FileNode> e : files.entrySet())
+        {
+            if(!scans.containsKey(e.getKey()))
+            {
+                addCallers(callers, e.getKey(), e.getValue().calls);
+            }
+        }
+        for(Map.Entry<String, FileScan> e : scans.entrySet())
+        {
+            addCallers(callers, e.getKey(), e.getValue().calls);
+        }
+        
+        Set<String> result = new HashSet<String>(changed);
+        Deque<String> work = new ArrayDeque<String>(changed);
+        while(!work.isEmpty())
+        {
+            String key = work.remove();
+            
+            Set<String> procs = new HashSet<String>();
+            FileNode node = files.get(key);
+            if(node != null)
+            {
+                procs.addAll(node.defines);
+            }
+            FileScan scan = scans.get(key);
+            if(scan != null)
+            {
+                procs.addAll(scan.defines);
+            }
+            
+            for(String proc : procs)
+            {
+                Set<String> procCallers = callers.get(proc);
+                if(procCallers == null)
+                {
+                    continue;
+                }
+                for(String caller : procCallers)
+                {
+                    if(result.add(caller))
+                    {
+                        work.add(caller);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static void addCallers(Map<String, Set<String>> callers, String key, Set<String> calls)
+    {
+        for(String call : calls)
+        {
+            Set<String> procCallers = callers.get(call);
+            if(procCallers == null)
+            {
+                procCallers = new HashSet<String>();
+                callers.put(call, procCallers);
+            }
+            procCallers.add(key);
+        }
+    }
+    
+    /**
+     * Compute the files of the project included by an agent. This is every
+     * file in the agent's resource selection, plus every file of the project
+     * that was sourced during the agent's last Tcl preprocessing.
+     * 
+     * @param project The project
+     * @param agent The agent. It must have been made consistent.
+     * @return The keys of the files
+     * @throws SoarModelException
+     */
+    static Set<String> computeAgentFiles(SoarProject project, SoarAgent agent) throws SoarModelException
+    {
+        Set<String> result = new HashSet<String>();
+        for(SoarFile soarFile : project.getSoarFiles())
+        {
+            if(agent.contains(soarFile.getFile()))
+            {
+                result.add(getKey(soarFile.getFile()));
+            }
+        }
+        for(IFile sourced : agent.getSourcedFiles())
+        {
+            if(project.getProject().equals(sourced.getProject()))
+            {
+                result.add(getKey(sourced));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Scan the contents of a file for the Tcl procs it defines and the 
+     * commands it calls.
+     * 
+     * <p>This is a lexical scan rather than a real parse. Any word in command
+     * position, i.e. at the start of a line, after a semicolon or after an
+     * open bracket or brace, is taken to be a command call. The word after 
+     * <code>proc</code> is taken to be a proc definition. Namespace 
+     * qualifiers are dropped. This over-approximates calls, which just means
+     * a few more files get rebuilt than strictly necessary.
+     * 
+     * @param contents The file contents
+     * @return The scan result
+     */
+    static FileScan scan(char[] contents)
+    {
+        FileScan scan = new FileScan();
+        boolean commandPosition = true;
+        boolean procName = false;
+        int i = 0;
+        final int n = contents.length;
+        while(i < n)
+        {
+            char c = contents[i];
+            if(c == '\n' || c == ';')
+            {
+                commandPosition = true;
+                procName = false;
+                ++i;
+            }
+            else if(c == '[' || c == '{')
+            {
+                commandPosition = true;
+                ++i;
+            }
+            else if(c == '\\')
+            {
+                // Escaped character or line continuation
+                i += 2;
+            }
+            else if(Character.isWhitespace(c))
+            {
+                ++i;
+            }
+            else if(c == '#' && commandPosition)
+            {
+                // Comment to end of line, honoring line continuations
+                while(i < n && contents[i] != '\n')
+                {
+                    i += contents[i] == '\\' ? 2 : 1;
+                }
+            }
+            else if(isNameStart(c))
+            {
+                int start = i;
+                while(i < n && isNamePart(contents[i]))
+                {
+                    ++i;
+                }
+                String word = unqualify(new String(contents, start, i - start));
+                if(procName)
+                {
+                    if(word.length() > 0)
+                    {
+                        scan.defines.add(word);
+                    }
+                    procName = false;
+                }
+                else if(commandPosition)
+                {
+                    if(word.equals("proc"))
+                    {
+                        procName = true;
+                    }
+                    else if(word.length() > 0)
+                    {
+                        scan.calls.add(word);
+                    }
+                }
+                commandPosition = false;
+            }
+            else
+            {
+                commandPosition = false;
+                procName = false;
+                ++i;
+            }
+        }
+        return scan;
+    }
+    
+    private static boolean isNameStart(char c)
+    {
+        return Character.isLetter(c) || c == '_' || c == ':';
+    }
+    
+    private static boolean isNamePart(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == ':' || c == '-' || c == '.';
+    }
+    
+    private static String unqualify(String name)
+    {
+        int colons = name.lastIndexOf("::");
+        return colons >= 0 ? name.substring(colons + 2) : name;
+    }
+    
+    private static void addAll(Set<String> set, String[] values)
+    {
+        for(String value : values)
+        {
+            set.add(value);
+        }
+    }
+    
+    private static String[] toArray(Set<String> set)
+    {
+        return set.toArray(new String[set.size()]);
+    }
+    
+    /**
+     * The procs defined and commands called by a file
+     */
+    static class FileScan
+    {
+        final Set<String> defines = new HashSet<String>();
+        final Set<String> calls = new HashSet<String>();
+    }
+    
+    private static class FileNode
+    {
+        final Set<String> sources = new HashSet<String>();
+        final Set<String> defines = new HashSet<String>();
+        final Set<String> calls = new HashSet<String>();
+    }
+}
@@ -20,7 +20,23 @@
 package com.soartech.soar.ide.core.builder;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
@@ -28,12 +44,23 @@ import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.SoarModelException;
 import com.soartech.soar.ide.core.model.SoarModelTools;
 import com.soartech.soar.ide.core.model.impl.SoarFile;
 import com.soartech.soar.ide.core.model.impl.SoarProject;
+import com.soartech.soar.ide.core.model.impl.serialization.FileMemento;
 import com.soartech.soar.ide.core.model.impl.serialization.Mementos;
 
+/**
+ * Collects the Soar files that need to be rebuilt while visiting a resource 
+ * tree or delta. The files are then rebuilt by {@link #processFiles()}, which
+ * reads and parses them on a pool of worker threads and merges the results 
+ * into the model one at a time, in visit order.
+ * 
+ * <p>If a dependency graph is given, it is updated with the dependencies
+ * of every file that is rebuilt or removed.
+ */
 class SoarFileVistor implements IResourceVisitor, IResourceDeltaVisitor
 {
     /**
@@ -41,15 +68,44 @@ class SoarFileVistor implements IResourceVisitor, IResourceDeltaVisitor
      */
     private final SoarBuilder builder;
     private IProgressMonitor monitor;
+    private final SoarDependencyGraph dependencies;
+    
+    /**
+     * Files waiting for processFiles(), in visit order
+     */
+    private final Set<SoarFile> files = new LinkedHashSet<SoarFile>();
     
     /**
      * @param monitor
      * @param builder TODO
      */
     public SoarFileVistor(SoarBuilder builder, IProgressMonitor monitor)
+    {
+        this(builder, monitor, null);
+    }
+    
+    /**
+     * @param builder The builder
+     * @param monitor The progress monitor
+     * @param dependencies Dependency graph to update, or null
+     */
+    public SoarFileVistor(SoarBuilder builder, IProgressMonitor monitor, SoarDependencyGraph dependencies)
     {
         this.builder = builder;
         this.monitor = SoarModelTools.getSafeMonitor(monitor);
+        this.dependencies = dependencies;
+    }
+    
+    /**
+     * Add a file to be rebuilt by processFiles() even though it wasn't 
+     * visited. Incremental builds use this for files affected by changes 
+     * to other files.
+     * 
+     * @param soarFile The file
+     */
+    public void addFile(SoarFile soarFile)
+    {
+        files.add(soarFile);
     }
 
     /* (non-Javadoc)
@@ -67,7 +123,7 @@ class SoarFileVistor implements IResourceVisitor, IResourceDeltaVisitor
             return true;
         }
         
-        makeFileConsistent(soarFile, monitor);
+        files.add(soarFile);
         
         return true;
     }
@@ -91,33 +147,246 @@ class SoarFileVistor implements IResourceVisitor, IResourceDeltaVisitor
         int kind = delta.getKind();
         if(kind == IResourceDelta.ADDED)
         {
-            System.out.println("Added file " + soarFile.getFile().getFullPath());
-            makeFileConsistent(soarFile, monitor);
+            SoarMetrics.increment("Files added");
+            files.add(soarFile);
         }
         else if (kind == IResourceDelta.CHANGED)
         {
-            System.out.println("Changed file " + soarFile.getFile().getFullPath());
-            makeFileConsistent(soarFile, monitor);
+            SoarMetrics.increment("Files changed");
+            files.add(soarFile);
         }
         else if(kind == IResourceDelta.REMOVED)
         {
-            System.out.println("Removed file " + soarFile.getFile().getFullPath());
+            SoarMetrics.increment("Files removed");
             SoarBuilder.deleteOutputFile(soarFile.getFile());
             project.removeSoarFile(soarFile);
+            if(dependencies != null)
+            {
+                dependencies.removeFile(SoarDependencyGraph.getKey(soarFile.getFile()));
+            }
             monitor.worked(1);
         }
         
         return true;
     }
     
-    private void makeFileConsistent(SoarFile soarFile, IProgressMonitor monitor) throws SoarModelException
+    /**
+     * Rebuild all of the files collected by the visit.
+     * 
+     * <p>Reading and parsing a file doesn't touch the model, so it is done
+     * on a bounded pool of worker threads, a limited number of files ahead
+     * of the merge. Merging the results into the model takes the project 
+     * lock, so it is done on the calling thread in the order the files were
+     * visited. Writing the serialized file goes back to the pool.
+     * 
+     * @throws SoarModelException
+     */
+    public void processFiles() throws SoarModelException
+    {
+        if(files.isEmpty())
+        {
+            return;
+        }
+        
+        final int threads = Math.min(files.size(), 
+                                     Runtime.getRuntime().availableProcessors());
+        if(threads <= 1)
+        {
+            for(SoarFile soarFile : files)
+            {
+                SoarModelTools.checkForCancellation(monitor);
+                merge(soarFile, new Prepare(soarFile, dependencies != null).call());
+                serialize(soarFile.getFile(), soarFile.createMemento());
+                monitor.worked(1);
+            }
+            files.clear();
+            return;
+        }
+        
+        // Keep the number of parsed files waiting to be merged bounded so
+        // that a large workspace doesn't hold every file's tree at once.
+        final int window = threads * 4;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+        Deque<Future<PreparedFile>> prepared = new ArrayDeque<Future<PreparedFile>>();
+        try
+        {
+            List<Future<?>> writes = new ArrayList<Future<?>>();
+            Iterator<SoarFile> next = files.iterator();
+            for(SoarFile soarFile : files)
+            {
+                while(next.hasNext() && prepared.size() < window)
+                {
+                    prepared.add(executor.submit(new Prepare(next.next(), dependencies != null)));
+                }
+                
+                SoarModelTools.checkForCancellation(monitor);
+                
+                merge(soarFile, getResult(prepared.remove()));
+                writes.add(executor.submit(new Serialize(soarFile.getFile(), soarFile.createMemento())));
+                monitor.worked(1);
+            }
+            
+            for(Future<?> write : writes)
+            {
+                getResult(write);
+            }
+        }
+        finally
+        {
+            // If the merge stopped early, files parsed ahead of it are no 
+            // longer needed, but the writes for files that were merged must 
+            // still reach disk or their serialized files would be stale.
+            for(Future<PreparedFile> f : prepared)
+            {
+                f.cancel(true);
+            }
+            executor.shutdown();
+            awaitTermination(executor);
+            files.clear();
+        }
+    }
+    
+    /**
+     * Wait for all tasks already submitted to an executor that has been shut
+     * down. Interrupts are deferred until the tasks are done.
+     * 
+     * @param executor The executor
+     */
+    private static void awaitTermination(ExecutorService executor)
+    {
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                if(executor.awaitTermination(1, TimeUnit.SECONDS))
+                {
+                    break;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void merge(SoarFile soarFile, PreparedFile prepared) throws SoarModelException
+    {
+        soarFile.makeConsistent(monitor, prepared.contents);
+        if(dependencies != null)
+        {
+            dependencies.setFile(soarFile, prepared.scan);
+        }
+    }
+    
+    private static void serialize(IFile file, FileMemento memento)
+    {
+        File outFile = SoarBuilder.createOutputDirectoryForFile(file);
+        Mementos.serialize(memento, new File(outFile.getPath() + Mementos.EXTENSION));
+    }
+    
+    private static <T> T getResult(Future<T> future) throws SoarModelException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SoarModelException(e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof SoarModelException)
+            {
+                throw (SoarModelException) cause;
+            }
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new SoarModelException((Exception) cause);
+        }
+    }
+    
+    private static class PreparedFile
+    {
+        SoarFile.PreparedContents contents;
+        SoarDependencyGraph.FileScan scan;
+    }
+    
+    private static class Prepare implements Callable<PreparedFile>
     {
-        soarFile.makeConsistent(monitor);
-        File outFile = SoarBuilder.createOutputDirectoryForFile(soarFile.getFile());
-        Mementos.serialize(soarFile.createMemento(), 
-                                      new File(outFile.getPath() + ".ser"));
+        private final SoarFile soarFile;
+        private final boolean scan;
+        
+        Prepare(SoarFile soarFile, boolean scan)
+        {
+            this.soarFile = soarFile;
+            this.scan = scan;
+        }
         
-        monitor.worked(1);
+        /* (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        public PreparedFile call() throws SoarModelException
+        {
+            PreparedFile result = new PreparedFile();
+            result.contents = soarFile.prepare();
+            if(scan && result.contents != null)
+            {
+                result.scan = SoarDependencyGraph.scan(result.contents.getContents());
+            }
+            return result;
+        }
+    }
+    
+    private static class Serialize implements Callable<Object>
+    {
+        private final IFile file;
+        private final FileMemento memento;
+        
+        Serialize(IFile file, FileMemento memento)
+        {
+            this.file = file;
+            this.memento = memento;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        public Object call()
+        {
+            serialize(file, memento);
+            return null;
+        }
+    }
+    
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private static final AtomicInteger count = new AtomicInteger();
+        
+        /* (non-Javadoc)
+         * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+         */
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "Soar Builder Worker " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A metric that records the distribution of a non-negative value. Values
+ * are counted in power of two buckets, so recording is a few atomic 
+ * increments and percentiles are accurate to within a factor of two.
+ * 
+ * @author ray
+ */
+public class Histogram
+{
+    private static final int BUCKETS = 64;
+    
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    // Bucket i counts values v with 2^(i-1) <= v < 2^i. Bucket 0 counts 0.
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    
+    Histogram(String name)
+    {
+        this.name = name;
+    }
+    
+    /**
+     * @return The name of the histogram
+     */
+    public String getName()
+    {
+        return name;
+    }
+    
+    /**
+     * @return Number of values recorded
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+    
+    /**
+     * @return Sum of the values recorded
+     */
+    public long getTotal()
+    {
+        return total.get();
+    }
+    
+    /**
+     * @return The largest value recorded
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+    
+    /**
+     * @return The mean of the values recorded, or 0 if there are none
+     */
+    public double getMean()
+    {
+        long n = count.get();
+        return n != 0 ? (double) total.get() / n : 0.0;
+    }
+    
+    /**
+     * Estimate a percentile. The result is the upper bound of the bucket 
+     * that contains the percentile, capped at the largest value recorded.
+     * 
+     * @param percentile The percentile, between 0 and 100
+     * @return Estimate of the percentile, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long n = count.get();
+        if(n == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            seen += buckets.get(i);
+            if(seen >= rank && seen > 0)
+            {
+                // (1L << 63) - 1 wraps around to Long.MAX_VALUE, as wanted
+                return Math.min((1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+    
+    void record(long value)
+    {
+        if(value < 0)
+        {
+            value = 0;
+        }
+        count.incrementAndGet();
+        total.addAndGet(value);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        
+        long current = max.get();
+        while(value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+}
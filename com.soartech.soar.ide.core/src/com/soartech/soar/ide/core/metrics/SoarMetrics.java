@@ -0,0 +1,287 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.metrics;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process registry of build metrics: counters, timers and histograms. 
+ * Each {@link BuildPhase} is timed overall and per agent or file.
+ * 
+ * <p>Metrics are off by default and can be turned on with the 
+ * {@link #ENABLED_PROPERTY} system property, or with 
+ * {@link #setEnabled(boolean)}, e.g. from the Build Metrics view. When off,
+ * each call is a single volatile read, so instrumented code doesn't need to 
+ * check {@link #isEnabled()} itself. Typical use:
+ * 
+ * <pre>
+ * final long start = SoarMetrics.start();
+ * ... do the work ...
+ * SoarMetrics.stop(BuildPhase.TCL_PARSING, SoarMetrics.FILE, file.getFullPath(), start);
+ * </pre>
+ * 
+ * Scope names are only converted to strings when metrics are on, so pass
+ * the object rather than building a string at the call site.
+ * 
+ * @author ray
+ */
+public class SoarMetrics
+{
+    /**
+     * System property that turns metrics on at startup
+     */
+    public static final String ENABLED_PROPERTY = "com.soartech.soar.ide.metrics";
+    
+    /**
+     * Scope for metrics that are kept per agent
+     */
+    public static final String AGENT = "agent";
+    
+    /**
+     * Scope for metrics that are kept per file
+     */
+    public static final String FILE = "file";
+    
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    
+    private SoarMetrics()
+    {
+    }
+    
+    /**
+     * @return true if metrics are being recorded
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+    
+    /**
+     * Turn recording of metrics on or off. Metrics already recorded are kept.
+     * 
+     * @param enabled The new setting
+     */
+    public static void setEnabled(boolean enabled)
+    {
+        SoarMetrics.enabled = enabled;
+    }
+    
+    /**
+     * Discard all recorded metrics
+     */
+    public static void reset()
+    {
+        counters.clear();
+        timers.clear();
+        histograms.clear();
+    }
+    
+    /**
+     * Start timing something.
+     * 
+     * @return Start time to pass to one of the stop() methods, or 0 if 
+     *      metrics are off.
+     */
+    public static long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+    
+    /**
+     * Stop timing a build phase, recording the elapsed time in the overall
+     * timer for the phase.
+     * 
+     * @param phase The phase
+     * @param start Value returned by {@link #start()}
+     */
+    public static void stop(BuildPhase phase, long start)
+    {
+        if(start != 0)
+        {
+            getTimer(phase.getLabel()).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Stop timing a build phase, recording the elapsed time in the overall
+     * timer for the phase and in the timer for the phase in the given scope.
+     * 
+     * @param phase The phase
+     * @param scope The kind of scope, {@link #AGENT} or {@link #FILE}
+     * @param element The agent name, file path, etc. Converted with 
+     *      toString() only if metrics are on.
+     * @param start Value returned by {@link #start()}
+     */
+    public static void stop(BuildPhase phase, String scope, Object element, long start)
+    {
+        if(start != 0)
+        {
+            long elapsed = System.nanoTime() - start;
+            getTimer(phase.getLabel()).record(elapsed);
+            getTimer(scope + " " + element + ": " + phase.getLabel()).record(elapsed);
+        }
+    }
+    
+    /**
+     * Stop timing something that isn't a build phase
+     * 
+     * @param name Name of the timer
+     * @param start Value returned by {@link #start()}
+     */
+    public static void stop(String name, long start)
+    {
+        if(start != 0)
+        {
+            getTimer(name).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Increment a counter by one
+     * 
+     * @param name Name of the counter
+     */
+    public static void increment(String name)
+    {
+        add(name, 1);
+    }
+    
+    /**
+     * Add to a counter
+     * 
+     * @param name Name of the counter
+     * @param delta Amount to add
+     */
+    public static void add(String name, long delta)
+    {
+        if(enabled)
+        {
+            Counter counter = counters.get(name);
+            if(counter == null)
+            {
+                Counter newCounter = new Counter(name);
+                counter = counters.putIfAbsent(name, newCounter);
+                if(counter == null)
+                {
+                    counter = newCounter;
+                }
+            }
+            counter.add(delta);
+        }
+    }
+    
+    /**
+     * Record a value in a histogram
+     * 
+     * @param name Name of the histogram
+     * @param value The value
+     */
+    public static void record(String name, long value)
+    {
+        if(enabled)
+        {
+            Histogram histogram = histograms.get(name);
+            if(histogram == null)
+            {
+                Histogram newHistogram = new Histogram(name);
+                histogram = histograms.putIfAbsent(name, newHistogram);
+                if(histogram == null)
+                {
+                    histogram = newHistogram;
+                }
+            }
+            histogram.record(value);
+        }
+    }
+    
+    /**
+     * @return Snapshot of the counters, sorted by name
+     */
+    public static SortedMap<String, Counter> getCounters()
+    {
+        return new TreeMap<String, Counter>(counters);
+    }
+    
+    /**
+     * @return Snapshot of the timers, sorted by name
+     */
+    public static SortedMap<String, Timer> getTimers()
+    {
+        return new TreeMap<String, Timer>(timers);
+    }
+    
+    /**
+     * @return Snapshot of the histograms, sorted by name
+     */
+    public static SortedMap<String, Histogram> getHistograms()
+    {
+        return new TreeMap<String, Histogram>(histograms);
+    }
+    
+    /**
+     * Print all metrics in a human readable form
+     * 
+     * @param out The stream to print to
+     */
+    public static void print(PrintStream out)
+    {
+        for(Map.Entry<String, Timer> e : getTimers().entrySet())
+        {
+            Timer t = e.getValue();
+            out.printf("%s: count=%d total=%.1fms mean=%.3fms p90=%.3fms max=%.3fms%n", 
+                       e.getKey(), t.getCount(), t.getTotalMillis(), t.getMeanMillis(),
+                       t.getPercentileMillis(90), t.getMaxMillis());
+        }
+        for(Map.Entry<String, Histogram> e : getHistograms().entrySet())
+        {
+            Histogram h = e.getValue();
+            out.printf("%s: count=%d mean=%.1f p90=%d max=%d%n", 
+                       e.getKey(), h.getCount(), h.getMean(), h.getPercentile(90), h.getMax());
+        }
+        for(Map.Entry<String, Counter> e : getCounters().entrySet())
+        {
+            out.printf("%s: %d%n", e.getKey(), e.getValue().getCount());
+        }
+    }
+    
+    private static Timer getTimer(String name)
+    {
+        Timer timer = timers.get(name);
+        if(timer == null)
+        {
+            Timer newTimer = new Timer(name);
+            timer = timers.putIfAbsent(name, newTimer);
+            if(timer == null)
+            {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+}
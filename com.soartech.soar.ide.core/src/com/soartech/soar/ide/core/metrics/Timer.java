@@ -0,0 +1,74 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A histogram of elapsed times, recorded in nanoseconds.
+ * 
+ * @author ray
+ */
+public class Timer extends Histogram
+{
+    Timer(String name)
+    {
+        super(name);
+    }
+    
+    /**
+     * @return Total elapsed time in milliseconds
+     */
+    public double getTotalMillis()
+    {
+        return toMillis(getTotal());
+    }
+    
+    /**
+     * @return Mean elapsed time in milliseconds
+     */
+    public double getMeanMillis()
+    {
+        return getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    /**
+     * @return Longest elapsed time in milliseconds
+     */
+    public double getMaxMillis()
+    {
+        return toMillis(getMax());
+    }
+    
+    /**
+     * @param percentile The percentile, between 0 and 100
+     * @return Estimate of the percentile in milliseconds
+     * @see Histogram#getPercentile(double)
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        return toMillis(getPercentile(percentile));
+    }
+    
+    private static double toMillis(long nanos)
+    {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
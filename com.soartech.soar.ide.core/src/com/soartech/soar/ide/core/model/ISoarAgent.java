@@ -94,6 +94,18 @@ public interface ISoarAgent extends ISoarElement
      * @throws SoarModelException
      */
     void makeConsistent(IProgressMonitor monitor) throws SoarModelException;
+    
+    /**
+     * Runs the agent's start file with productions fully compiled into the
+     * Soar kernel rather than just parsed as during a normal build. This 
+     * catches errors, such as unbound variables found by the reorderer, 
+     * that parsing alone does not. Errors are reported as Tcl preprocessor
+     * markers.
+     * 
+     * @param monitor
+     * @throws SoarModelException
+     */
+    void compileProductions(IProgressMonitor monitor) throws SoarModelException;
 
     /**
      * Save the contents of this agent working copy to disk. This method is
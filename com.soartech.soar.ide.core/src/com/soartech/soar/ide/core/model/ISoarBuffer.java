@@ -75,10 +75,20 @@ public interface ISoarBuffer
     IResource getUnderlyingResource();
     
     /**
-     * @return All the characters in this buffer
+     * @return A copy of all the characters in this buffer
      */
     char[] getCharacters();
     
+    /**
+     * Returns a read-only view of the current contents of this buffer. The 
+     * view is not affected by later changes to the buffer. Unlike 
+     * {@link #getCharacters()} this does not necessarily copy the buffer, so
+     * it should be preferred by parsers and other read-only consumers.
+     * 
+     * @return Read-only view of the contents of this buffer
+     */
+    CharSequence getCharSequence();
+    
     /**
      * @return The contents of this buffer as a string
      */
@@ -35,9 +35,11 @@ import org.eclipse.core.runtime.IPath;
 public interface ISoarElement extends IAdaptable
 {
     /**
-     * @return The lock for this element
+     * @return The lock for this element. All elements in a project, including
+     *      working copies, share the project's lock. See {@link SoarModelLock}
+     *      for the locking discipline.
      */
-    Object getLock();
+    SoarModelLock getLock();
     
     /**
      * Returns the Soar model this element belongs to.
@@ -49,4 +49,23 @@ public interface ISoarFileAgentProxy extends ISoarElement
      * @return An list of procedures in this file
      */
     List<ITclProcedure> getProcedures();
+    
+    /**
+     * Find the innermost child whose source range contains an offset.
+     * 
+     * @param offset Offset in the file
+     * @return The child, or null if there is none
+     * @throws SoarModelException
+     */
+    ISoarElement getElementAt(int offset) throws SoarModelException;
+    
+    /**
+     * Find the children whose source ranges overlap a range of the file.
+     * 
+     * @param offset Start of the range
+     * @param length Length of the range
+     * @return The children, ordered by offset
+     * @throws SoarModelException
+     */
+    List<ISoarElement> getElementsOverlapping(int offset, int length) throws SoarModelException;
 }
\ No newline at end of file
@@ -44,7 +44,20 @@ public interface ISoarModel extends ISoarElement, ISoarOpenable
     void addListener(ISoarModelListener listener);
     
     /**
-     * Remove a listener from this model
+     * Add a listener that receives events asynchronously, on the model's
+     * event thread. Events that arrive between deliveries are coalesced into
+     * one net change per element, so the listener sees a few composite 
+     * events for a large build rather than one per element. Suited to views
+     * that refresh themselves on model changes.
+     * 
+     * @param listener The listener to add
+     * @param minIntervalMillis Minimum time between deliveries to this 
+     *      listener, in milliseconds. Zero delivers as soon as possible.
+     */
+    void addListener(ISoarModelListener listener, long minIntervalMillis);
+    
+    /**
+     * Remove a listener from this model, however it was added
      * 
      * @param listener The listener to remove
      */
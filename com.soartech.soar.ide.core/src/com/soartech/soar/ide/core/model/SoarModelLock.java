@@ -0,0 +1,251 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write lock guarding part of the Soar model. Each Soar project has its
+ * own lock that guards every element in the project, including working 
+ * copies. The model itself has a separate lock that only guards the list of
+ * projects. Any number of threads may hold the read lock at once, so queries 
+ * like content assist and hovers don't block each other, and a build in one
+ * project never blocks access to another project.
+ * 
+ * <p>Usage is the same as any other {@link ReentrantReadWriteLock}:
+ * <pre>
+ * element.getLock().acquireRead();
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     element.getLock().releaseRead();
+ * }
+ * </pre>
+ * 
+ * <p>The locking discipline is:
+ * <ul>
+ *  <li>Methods that only read the model take the read lock. Methods that
+ *      modify it take the write lock.
+ *  <li>A read lock can never be upgraded to a write lock. Doing so throws
+ *      an {@link IllegalStateException} rather than hanging forever. A write
+ *      lock may be held while acquiring the read lock.
+ *  <li>Project locks are acquired before the model lock. If more than one 
+ *      project lock is needed, they are acquired in order of project name.
+ *      Nothing else is acquired while holding the model lock.
+ * </ul>
+ * 
+ * <p>Deadlock detection can be enabled with {@link #setDeadlockDetectionEnabled(boolean)}
+ * or by setting the {@value #DEADLOCK_DETECTION_PROPERTY} system property to
+ * true. When enabled, each thread's held locks are tracked and acquiring a 
+ * lock out of order throws an exception naming both locks. Since any 
+ * deadlock between model locks requires an out of order acquisition, this
+ * finds potential deadlocks even when the timing doesn't cause one. This is
+ * meant for tests and debugging, not normal use.
+ * 
+ * @author ray
+ */
+public class SoarModelLock
+{
+    /**
+     * System property that enables deadlock detection at startup
+     */
+    public static final String DEADLOCK_DETECTION_PROPERTY = "com.soartech.soar.ide.core.detectDeadlocks";
+    
+    private static final int PROJECT_RANK = 0;
+    private static final int MODEL_RANK = 1;
+    
+    private static volatile boolean deadlockDetection = Boolean.getBoolean(DEADLOCK_DETECTION_PROPERTY);
+    
+    /**
+     * Locks held by each thread, in acquisition order. Only maintained while
+     * deadlock detection is enabled.
+     */
+    private static final ThreadLocal<List<SoarModelLock>> heldLocks = new ThreadLocal<List<SoarModelLock>>() {
+
+        @Override
+        protected List<SoarModelLock> initialValue()
+        {
+            return new ArrayList<SoarModelLock>();
+        }
+    };
+    
+    private final String name;
+    private final int rank;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    /**
+     * @return A new lock for the model's list of projects
+     */
+    public static SoarModelLock createModelLock()
+    {
+        return new SoarModelLock("Soar model", MODEL_RANK);
+    }
+    
+    /**
+     * @param projectName Name of the project
+     * @return A new lock for the given project
+     */
+    public static SoarModelLock createProjectLock(String projectName)
+    {
+        return new SoarModelLock(projectName, PROJECT_RANK);
+    }
+    
+    private SoarModelLock(String name, int rank)
+    {
+        this.name = name;
+        this.rank = rank;
+    }
+    
+    /**
+     * @return true if deadlock detection is enabled
+     */
+    public static boolean isDeadlockDetectionEnabled()
+    {
+        return deadlockDetection;
+    }
+    
+    /**
+     * Enable or disable deadlock detection for all model locks. This should
+     * be called before any locks are held.
+     * 
+     * @param enabled true to enable deadlock detection
+     */
+    public static void setDeadlockDetectionEnabled(boolean enabled)
+    {
+        deadlockDetection = enabled;
+    }
+    
+    /**
+     * Acquire the read lock, blocking until it is available.
+     */
+    public void acquireRead()
+    {
+        acquire(lock.readLock());
+    }
+    
+    /**
+     * Release the read lock.
+     */
+    public void releaseRead()
+    {
+        lock.readLock().unlock();
+        released();
+    }
+    
+    /**
+     * Acquire the write lock, blocking until it is available.
+     * 
+     * @throws IllegalStateException if the current thread holds the read lock
+     *      but not the write lock
+     */
+    public void acquireWrite()
+    {
+        if(lock.getReadHoldCount() > 0 && !lock.isWriteLockedByCurrentThread())
+        {
+            throw new IllegalStateException("Attempt to upgrade read lock to write lock on " + this);
+        }
+        acquire(lock.writeLock());
+    }
+    
+    /**
+     * Release the write lock.
+     */
+    public void releaseWrite()
+    {
+        lock.writeLock().unlock();
+        released();
+    }
+    
+    /**
+     * @return true if the current thread holds the write lock
+     */
+    public boolean isWriteLockedByCurrentThread()
+    {
+        return lock.isWriteLockedByCurrentThread();
+    }
+    
+    /**
+     * @return true if the current thread holds either the read or the write
+     *      lock
+     */
+    public boolean isHeldByCurrentThread()
+    {
+        return lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0;
+    }
+    
+    private void acquire(Lock l)
+    {
+        if(!deadlockDetection)
+        {
+            l.lock();
+            return;
+        }
+        
+        List<SoarModelLock> held = heldLocks.get();
+        if(!isHeldByCurrentThread())
+        {
+            for(SoarModelLock other : held)
+            {
+                if(other != this && !other.isOrderedBefore(this))
+                {
+                    throw new IllegalStateException("Lock ordering violation: acquiring " + 
+                            this + " while holding " + other);
+                }
+            }
+        }
+        
+        l.lock();
+        held.add(this);
+    }
+    
+    private void released()
+    {
+        List<SoarModelLock> held = heldLocks.get();
+        int i = held.lastIndexOf(this);
+        if(i != -1)
+        {
+            held.remove(i);
+        }
+    }
+    
+    private boolean isOrderedBefore(SoarModelLock other)
+    {
+        if(rank != other.rank)
+        {
+            return rank < other.rank;
+        }
+        return name.compareTo(other.name) < 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "SoarModelLock " + name;
+    }
+}
@@ -213,6 +213,8 @@ public class SoarModelTools
 
     /**
      * Find the child element of the given parent at the given buffer offset.
+     * File agent proxies answer from their source range index, returning the
+     * innermost child at the offset.
      *
      * @param parent Parent element
      * @param offset The offset
@@ -221,6 +223,10 @@ public class SoarModelTools
      */
     public static ISoarElement getChildAtOffset(ISoarElement parent, int offset) throws SoarModelException
     {
+        if(parent instanceof ISoarFileAgentProxy)
+        {
+            return ((ISoarFileAgentProxy) parent).getElementAt(offset);
+        }
         for(ISoarElement child : parent.getChildren())
         {
             if(child instanceof ISoarSourceReference)
@@ -535,7 +541,8 @@ public class SoarModelTools
      */
     public static List<ITclFileReference> getReferences(ISoarFile file) throws SoarModelException
     {
-        synchronized(file.getLock())
+        file.getLock().acquireRead();
+        try
         {
             IPath referencedLocation = file.getFile().getLocation();
             List<ITclFileReference> result = new ArrayList<ITclFileReference>();
@@ -550,6 +557,10 @@ public class SoarModelTools
             }
             return result;
         }
+        finally
+        {
+            file.getLock().releaseRead();
+        }
     }
 
     private static void getReferences(IPath referencedLocation, ISoarFile referencer, List<ITclFileReference> result) throws SoarModelException
@@ -53,6 +53,16 @@ public interface ISoarDatamap
      */
     Object getLock();
     
+    /**
+     * Returns an immutable copy of the datamap as of the end of the last
+     * modification. Snapshots can be read without holding the lock, and
+     * don't change while the datamap is being rebuilt. Listeners are 
+     * notified after the new snapshot is available.
+     * 
+     * @return The latest snapshot of the datamap
+     */
+    ISoarDatamap getSnapshot();
+    
     /**
      * Returns the root state node of this datamap.  
      * 
@@ -60,6 +70,18 @@ public interface ISoarDatamap
      */
     ISoarDatamapNode getState();
     
+    /**
+     * Find this datamap's version of an attribute. The attribute may come 
+     * from the live datamap or from any of its snapshots, so this maps the
+     * live attributes carried in {@link SoarDatamapEvent}s to the attributes
+     * of a snapshot, and back.
+     * 
+     * @param attribute An attribute of this datamap or one of its snapshots
+     * @return The matching attribute, or null if it is not part of this 
+     *      datamap
+     */
+    ISoarDatamapAttribute getAttribute(ISoarDatamapAttribute attribute);
+    
     /**
      * Find the element(s) at the given attribute path starting at the state.
      * 
@@ -125,6 +147,16 @@ public interface ISoarDatamap
      */
     void removeProduction(ISoarProduction p);
     
+    /**
+     * Hands everything supported by one production over to another, without
+     * rebuilding it. Used when a file is reparsed and a production's body
+     * hasn't changed, so only the production object is new.
+     * 
+     * @param oldProduction The production currently supporting elements
+     * @param newProduction The production that takes over its support
+     */
+    void replaceProduction(ISoarProduction oldProduction, ISoarProduction newProduction);
+    
     /**
      * Convenience function to associate an Agent with a datamap.
      */
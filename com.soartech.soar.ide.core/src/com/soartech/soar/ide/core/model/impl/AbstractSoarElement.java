@@ -34,6 +34,7 @@ import com.soartech.soar.ide.core.model.ISoarOpenable;
 import com.soartech.soar.ide.core.model.ISoarProject;
 import com.soartech.soar.ide.core.model.SoarModelEvent;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.impl.serialization.ElementMemento;
 
 /**
@@ -47,10 +48,7 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
     private static final List<ISoarElement> NO_CHILDREN = Collections.emptyList();
     private AbstractSoarElement parent;
     private List<ISoarElement> children;
-    private boolean detached = false;
-    
-    // TODO: Think about locking more. See getLock() below
-    //private Object lock = new Object();
+    private volatile boolean detached = false;
     
     public AbstractSoarElement(AbstractSoarElement parent)
     {
@@ -75,12 +73,12 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.ISoarElement#getLock()
      */
-    public Object getLock()
+    public SoarModelLock getLock()
     {
-        // This is fairly draconian. Essentially there is one lock for the
-        // entire system. It's also safer.
-        // TODO: Think about locking more.
-        return SoarCorePlugin.getDefault().getSoarModel();
+        // Elements share the lock of the project they're in. SoarProject and
+        // SoarModel override this to provide the actual locks.
+        return parent != null ? parent.getLock() : 
+                                SoarCorePlugin.getDefault().getInternalSoarModel().getLock();
     }
     
     /**
@@ -92,7 +90,8 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     protected void detach()
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             this.detached = true;
             // If there are children, detach them first.
@@ -105,6 +104,11 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
             }
             
             this.children = null;
+            childrenChanged();
+        }
+        finally
+        {
+            getLock().releaseWrite();
         }
     }
     
@@ -118,6 +122,15 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
         return true;
     }
     
+    /**
+     * Called with the write lock held whenever this element's list of 
+     * children changes. Subclasses that cache information about their
+     * children override this to drop it.
+     */
+    protected void childrenChanged()
+    {
+    }
+    
     /**
      * Add the given child as a child of this element.  The child's parent 
      * should already be set to this. Fire appropriate SoarModelEvent.
@@ -127,9 +140,10 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     protected void addChild(AbstractSoarElement element) throws SoarModelException
     {
-        synchronized(getLock())
+        openWhenClosed(null);
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(null);
             assert element.parent == this;
             if(children == null)
             {
@@ -137,47 +151,68 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
             }
             assert !children.contains(element);
             children.add(element);
+            childrenChanged();
             fireEvent(SoarModelEvent.createAdded(element));
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     protected void addChildren(List<AbstractSoarElement> elements) throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(null);
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(null);
             if(children == null)
             {
                 children = new ArrayList<ISoarElement>();
             }
             children.addAll(elements);
+            childrenChanged();
             ISoarElement[] elementArray = elements.toArray(new ISoarElement[elements.size()]);
             fireEvent(SoarModelEvent.createAdded(elementArray));
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     /**
      * Remove and detach the given child from this element. Fires appropriate 
      * SoarModelEvent
      * 
+     * <p>The child is detached after this element's lock is released since 
+     * the child may have a different lock, e.g. a project removed from the
+     * model.
+     * 
      * @param element The removed child
      * @throws SoarModelException
      */
     protected void removeChild(AbstractSoarElement element) throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(null);
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(null);
             assert element.parent == this;
             assert children.contains(element);
             if(children == null)
             {
                 return;
             }
-            element.detach();
             children.remove(element);
-            fireEvent(SoarModelEvent.createRemoved(element));
+            childrenChanged();
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
+        element.detach();
+        fireEvent(SoarModelEvent.createRemoved(element));
     }
     
     /**
@@ -188,12 +223,14 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     protected void removeChildren(List<AbstractSoarElement> elements) throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(null);
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(null);
             if(children != null)
             {
                 children.removeAll(elements);
+                childrenChanged();
                 for(ISoarElement child : elements)
                 {
                     ((AbstractSoarElement) child).detach();
@@ -202,6 +239,10 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
                 fireEvent(SoarModelEvent.createRemoved(removed));
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     /**
@@ -213,9 +254,10 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     protected void replaceChildrenFast(List<AbstractSoarElement> elements) throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(null);
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(null);
             if(children != null)
             {
                 children.clear();
@@ -225,6 +267,11 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
             {
                 children = new ArrayList<ISoarElement>(elements);
             }
+            childrenChanged();
+        }
+        finally
+        {
+            getLock().releaseWrite();
         }
     }
     
@@ -236,9 +283,10 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     protected void clearChildren() throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(null);
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(null);
             if(children != null)
             {
                 for(ISoarElement child : children)
@@ -247,20 +295,31 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
                 }
                 ISoarElement[] removed = children.toArray(new ISoarElement[children.size()]);
                 children.clear();
+                childrenChanged();
                 fireEvent(SoarModelEvent.createRemoved(removed));
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
+    /**
+     * Opens this element's openable if it isn't already open. Openables that
+     * do real work when opened, i.e. projects and the model, take their own
+     * write lock, so methods that take the read lock should call this before
+     * acquiring it.
+     * 
+     * @param monitor progress monitor
+     * @throws SoarModelException
+     */
     protected void openWhenClosed(IProgressMonitor monitor) throws SoarModelException
     {
-        synchronized (getLock())
+        ISoarOpenable openable = getOpenable();
+        if(!openable.isOpen())
         {
-            ISoarOpenable openable = getOpenable();
-            if(!openable.isOpen())
-            {
-                openable.open(monitor);
-            }
+            openable.open(monitor);
         }
     }
     
@@ -319,7 +378,8 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     protected ElementMemento saveState(ElementMemento memento)
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             if(children != null)
             {
@@ -333,6 +393,10 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
                 memento.setChildren(kidMementos);
             }
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
         return memento;
     }
     
@@ -359,10 +423,7 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     public boolean isDetached()
     {
-        synchronized (getLock())
-        {
-            return detached;
-        }
+        return detached;
     }
 
     /* (non-Javadoc)
@@ -370,11 +431,16 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     public List<ISoarElement> getChildren() throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(null);
+        getLock().acquireRead();
+        try
         {
-            openWhenClosed(null);
             return children != null ? children : NO_CHILDREN;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -410,10 +476,15 @@ public abstract class AbstractSoarElement extends PlatformObject implements ISoa
      */
     public boolean hasChildren()
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             return children != null ? !children.isEmpty() : false;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -36,7 +36,7 @@ import com.soartech.soar.ide.core.model.impl.serialization.ElementMemento;
 public abstract class AbstractSoarOpenable extends AbstractSoarElement implements
         ISoarOpenable
 {
-    private boolean open = false;
+    private volatile boolean open = false;
     private ISoarBuffer buffer = null;
     private BufferListener bufferListener = new BufferListener();
     
@@ -23,6 +23,7 @@ import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
 
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.BasicSoarSourceRange;
 import com.soartech.soar.ide.core.model.ISoarBuffer;
 import com.soartech.soar.ide.core.model.ISoarElement;
@@ -200,7 +201,7 @@ public abstract class AbstractSourceReferenceElement extends AbstractSoarElement
     {
         if(expandedSource != null)
         {
-            System.out.println("[AbstractSourceRefElement] getSource() returning expandedSource");
+            SoarMetrics.increment("Source requests (expanded)");
             return expandedSource;
         }
         
@@ -211,7 +212,7 @@ public abstract class AbstractSourceReferenceElement extends AbstractSoarElement
             return null;
         }
         
-        System.out.println("[AbstractSourceRefElement] getSource() returning UNEXPANDED source from file buffer");
+        SoarMetrics.increment("Source requests (unexpanded)");
         return buffer.getText(range.getOffset(), range.getLength());
     }
 
@@ -0,0 +1,276 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Captures the expanded source of the productions created while an agent is
+ * Tcl preprocessed. Expansions are grouped by key, one key for each proc 
+ * invocation in each file (see {@link SpInternalCommand}).
+ * 
+ * <p>Consecutive productions from the same invocation are appended to a 
+ * single buffer, so capture is linear in the size of the expanded source. 
+ * The text of an entry is only turned into a string when it is asked for, 
+ * and then cached until the entry changes.
+ * 
+ * <p>Each Tcl preprocessing run of an agent fills a new capture. When the
+ * run completes the capture is {@link #freeze(ExpandedSourceCapture) frozen}
+ * and replaces the previous one, so expansions for deleted or renamed files
+ * don't outlive the build that stopped producing them.
+ * 
+ * <p>This class is not thread-safe. It is only modified on the agent's Tcl
+ * interpreter thread. Once frozen it is immutable and may be read from any
+ * thread.
+ */
+public class ExpandedSourceCapture
+{
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    
+    /**
+     * Keys of the entries created by each source file
+     */
+    private final Map<String, Set<String>> fileKeys = new HashMap<String, Set<String>>();
+    
+    private boolean frozen;
+    
+    /**
+     * Key of the entry the last production was appended to, or null if the
+     * next production starts a new sequence.
+     */
+    private String currentKey;
+    
+    /**
+     * Append the source of a production to the entry with the given key. If
+     * the previous production was appended to the same key, the production 
+     * is added to the end of the entry. Otherwise the entry is started over.
+     * 
+     * @param key The entry key
+     * @param command The command name, e.g. "sp"
+     * @param body The expanded production body
+     */
+    public void append(String key, String command, String body)
+    {
+        checkNotFrozen();
+        
+        Entry entry = entries.get(key);
+        if(entry == null)
+        {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        else if(!key.equals(currentKey))
+        {
+            entry.clear();
+        }
+        else
+        {
+            entry.text.append('\n');
+        }
+        
+        entry.text.append(command).append(" \"").append(body).append('"');
+        entry.string = null;
+        
+        currentKey = key;
+    }
+    
+    /**
+     * Record that an entry was created by the given source file
+     * 
+     * @param file The source file path
+     * @param key The entry key
+     */
+    public void addFileKey(String file, String key)
+    {
+        checkNotFrozen();
+        
+        Set<String> keys = fileKeys.get(file);
+        if(keys == null)
+        {
+            keys = new LinkedHashSet<String>();
+            fileKeys.put(file, keys);
+        }
+        keys.add(key);
+    }
+    
+    /**
+     * @param file A source file path
+     * @return The keys of the entries created by the file
+     */
+    public Set<String> getFileKeys(String file)
+    {
+        Set<String> keys = fileKeys.get(file);
+        return keys != null ? Collections.unmodifiableSet(keys) : Collections.<String>emptySet();
+    }
+    
+    /**
+     * End the current sequence of productions. The next append will start 
+     * its entry over, even if it has the same key.
+     */
+    public void endSequence()
+    {
+        currentKey = null;
+    }
+    
+    /**
+     * @param key The entry key
+     * @return The expanded source for the key, or null if there is none
+     */
+    public String get(String key)
+    {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.toString() : null;
+    }
+    
+    /**
+     * Find the expanded source of the first entry whose key contains the 
+     * given string. This is a workaround for jsoar sometimes reporting the
+     * wrong file for a command.
+     * 
+     * @param keyPart Part of a key
+     * @return The expanded source or null if no key matches
+     */
+    public String findContaining(String keyPart)
+    {
+        for(Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            if(e.getKey().contains(keyPart))
+            {
+                return e.getValue().toString();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Finish capturing. Every entry's text is turned into a string and its
+     * buffer is released. Identical text is shared, both between entries of
+     * this capture and with the same entry of the previous capture, so 
+     * expansions that didn't change between builds are only held once.
+     * 
+     * <p>No more source may be appended after this is called.
+     * 
+     * @param previous The capture this one replaces, or null
+     */
+    public void freeze(ExpandedSourceCapture previous)
+    {
+        checkNotFrozen();
+        
+        Map<String, String> pool = new HashMap<String, String>();
+        for(Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            Entry entry = e.getValue();
+            String text = entry.toString();
+            
+            String old = previous != null ? previous.get(e.getKey()) : null;
+            if(old != null && old.equals(text))
+            {
+                text = old;
+            }
+            else
+            {
+                String shared = pool.get(text);
+                if(shared != null)
+                {
+                    text = shared;
+                }
+                else
+                {
+                    pool.put(text, text);
+                }
+            }
+            
+            entry.string = text;
+            entry.text = null;
+        }
+        frozen = true;
+        currentKey = null;
+    }
+    
+    /**
+     * @return True if {@link #freeze(ExpandedSourceCapture)} has been called
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+    
+    /**
+     * Memory accounting hook. Shared strings are only counted once.
+     * 
+     * @return The number of characters of expanded source held by this
+     *      capture
+     */
+    public long getRetainedChars()
+    {
+        long total = 0;
+        Map<String, Boolean> seen = new IdentityHashMap<String, Boolean>();
+        for(Entry entry : entries.values())
+        {
+            if(entry.text != null)
+            {
+                total += entry.text.capacity();
+            }
+            else if(seen.put(entry.string, Boolean.TRUE) == null)
+            {
+                total += entry.string.length();
+            }
+        }
+        return total;
+    }
+    
+    private void checkNotFrozen()
+    {
+        if(frozen)
+        {
+            throw new IllegalStateException("Expanded source capture is frozen");
+        }
+    }
+    
+    private static class Entry
+    {
+        StringBuilder text = new StringBuilder();
+        String string;
+        
+        void clear()
+        {
+            text.setLength(0);
+            string = null;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            if(string == null)
+            {
+                string = text.toString();
+            }
+            return string;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.soartech.soar.ide.core.model.impl;
 
 import java.util.List;
-import java.util.Map;
 
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
@@ -133,24 +132,14 @@ public class GenericCommand extends AbstractSourceReferenceElement implements IE
         String key = nameAndArgs.replace("\"", "").replace("{", "").replace("}", "") + "__" + filename;
 //        System.out.println("GenericCommand Adding key: " + key);
         
-        String ret = soarAgent.getExpandedSourceMap().get(key);
+        String ret = soarAgent.getExpandedSource().get(key);
         
         //try again to get an expanded code from the map
         //this is a workaround to jsoar sometimes giving the wrong file
         if(ret == null || ret.length() == 0)
         {
-            Map<String,String> sourceMap = soarAgent.getExpandedSourceMap();
-            
-            for(String mapKey : sourceMap.keySet())
-            {
-                String tempKey = nameAndArgs.replace("\"", "").replace("{", "").replace("}", "");
-                
-                if(mapKey.contains(tempKey))
-                {
-                    ret = soarAgent.getExpandedSourceMap().get(mapKey);
-                    break;
-                }
-            }
+            String tempKey = nameAndArgs.replace("\"", "").replace("{", "").replace("}", "");
+            ret = soarAgent.getExpandedSource().findContaining(tempKey);
         }
         
         return ret;
@@ -33,6 +33,7 @@ import com.soartech.soar.ide.core.model.ISoarProject;
 import com.soartech.soar.ide.core.model.ISoarSourceRange;
 import com.soartech.soar.ide.core.model.ITclComment;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.ast.CustomSoarParserTokenManager;
 import com.soartech.soar.ide.core.model.ast.ParseException;
 import com.soartech.soar.ide.core.model.ast.SoarCharStream;
@@ -147,7 +148,7 @@ public class InMemorySoarProduction implements ISoarProduction
         throw new UnsupportedOperationException();
     }
 
-    public Object getLock()
+    public SoarModelLock getLock()
     {
         throw new UnsupportedOperationException();
     }
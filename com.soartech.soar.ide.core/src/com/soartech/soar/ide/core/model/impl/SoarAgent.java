@@ -34,9 +34,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -47,8 +50,6 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.core.runtime.Platform;
-import org.eclipse.core.runtime.SubProgressMonitor;
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -56,13 +57,15 @@ import org.jdom.input.SAXBuilder;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 import org.jsoar.kernel.Agent;
-import org.jsoar.kernel.SoarException;
+import org.jsoar.kernel.Production;
+import org.jsoar.kernel.ProductionManager;
 import org.jsoar.tcl.SoarTclInterface;
-import org.jsoar.tcl.SoarTclInterfaceFactory;
 import org.jsoar.util.SourceLocation;
 import org.jsoar.util.commands.SoarCommandInterpreter;
 
 import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.IExpandedTclCode;
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.ISoarElement;
@@ -73,6 +76,7 @@ import com.soartech.soar.ide.core.model.ISoarSourceRange;
 import com.soartech.soar.ide.core.model.ITclProcedure;
 import com.soartech.soar.ide.core.model.SoarModelEvent;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.SoarModelTools;
 import com.soartech.soar.ide.core.model.TclExpansionError;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
@@ -123,33 +127,63 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     private Set<ISoarProduction> productions = new HashSet<ISoarProduction>();
     private Set<ITclProcedure> procedures = new HashSet<ITclProcedure>();
     
-    private Map<String, String> expandedSourceMap = new HashMap<String, String>();
-    private Map<String, List<String>> fileSourceMap = new HashMap<String, List<String>>();
+    /**
+     * Indexes for getProduction() and getProcedure(). Names map to lists
+     * since the same name may be defined in more than one file. Procedures
+     * are indexed by both their full, possibly namespace qualified, name and
+     * their unqualified name. These are kept in sync with productions and
+     * procedures by addElements() and removeElements().
+     */
+    private Map<String, List<ISoarProduction>> productionsByName = new HashMap<String, List<ISoarProduction>>();
+    private Map<String, List<ITclProcedure>> proceduresByName = new HashMap<String, List<ITclProcedure>>();
+    private Map<String, List<ITclProcedure>> proceduresByUnqualifiedName = new HashMap<String, List<ITclProcedure>>();
+    
+    /**
+     * Expanded source from the last completed Tcl preprocessing run, and the
+     * capture being filled by the run in progress. The pending capture is 
+     * only touched on the interpreter thread until the run completes, at 
+     * which point it is frozen and published by finishTclPreprocessing().
+     */
+    private volatile ExpandedSourceCapture expandedSource = new ExpandedSourceCapture();
+    private ExpandedSourceCapture pendingExpandedSource = new ExpandedSourceCapture();
+    
+    /**
+     * Files sourced by the last completed Tcl preprocessing run, and by the
+     * run in progress. Published along with the expanded source.
+     */
+    private volatile SourceMembershipIndex sourceIndex = SourceMembershipIndex.EMPTY;
+    private SourceMembershipIndex pendingSourceIndex = SourceMembershipIndex.EMPTY;
     
     private Map<String, SoarDatamap> fileDatamapMap = new HashMap<String, SoarDatamap>();
     
 //    private List<Datam>
     
-    private String previousExpandedSourceKey;
-    
-    // Keeping a handle on the SoarTclInterface and also this ScheduledExecutorService
-    // because the SoarTclInterface can only be disposed by the thread that created it.
-    private ScheduledExecutorService tclExecutorService = null;
+    // Keeping a handle on the SoarTclInterface and also a lease on one of the model's
+    // interpreter threads because the SoarTclInterface can only be disposed by the 
+    // thread that created it. Working copies use the primary's lease.
+    private TclInterpreterThreads.Lease tclThread = null;
     private Agent jsoarAgent;
+    private TclInterpreterTemplate interpreterTemplate;
+    
+    /**
+     * The resource and marker attributes of the error from the last Tcl 
+     * preprocessing run, if any. Kept so the marker can be recreated when the
+     * project's markers are cleared but this agent isn't rerun.
+     */
+    private IResource tclErrorResource;
+    private Map<String, Comparable<?>> tclErrorAttributes;
     
     public SoarAgent(SoarProject soarProject, IFile file)
             throws SoarModelException
     {
         super(soarProject);
         
-        preloadClasses();
-        this.tclExecutorService = Executors.newSingleThreadScheduledExecutor();
-        
         this.file = file;
         this.datamap.setAgent(this);
         
         // Create a new jsoar agent
         jsoarAgent = new Agent(soarProject.getProject().getName() + "-agent");
+        interpreterTemplate = new TclInterpreterTemplate(jsoarAgent, this);
 
         // Doing this in a helper function because the associated TCL interpreter
         // needs to be created and deleted in the same thread
@@ -172,8 +206,6 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         super((SoarProject) primary.getParent());
 
-        this.tclExecutorService = primary.tclExecutorService;
-
         this.primary = primary;
         this.file = primary.file;
         this.name = primary.name;
@@ -192,19 +224,54 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     ExpandedProductionInfo getExpandedProductionBody(String name)
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             return interpreter != null ? interpreter.getExpandedProductionBody(name) : null;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
+    }
+    
+    /**
+     * Retrieve the expansion information for a named production, but only if
+     * it was captured from the given file. Since later productions replace
+     * earlier ones with the same name, this keeps a production in one file
+     * from picking up the body of its namesake in another.
+     * 
+     * @param name The name of the production to retrieve
+     * @param file The file the production is in
+     * @return The expansion info, or null if not found or from another file
+     */
+    ExpandedProductionInfo getExpandedProductionBody(String name, IFile file)
+    {
+        ExpandedProductionInfo info = getExpandedProductionBody(name);
+        if(info == null || info.file == null)
+        {
+            return info;
+        }
+        IPath location = file != null ? file.getLocation() : null;
+        if(location != null && !location.equals(Path.fromOSString(info.file)))
+        {
+            return null;
+        }
+        return info;
     }
     
     // TODO: I don't see this being used anywhere?
     boolean fileWasVisited(IFile file)
     {
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             return interpreter != null ? interpreter.fileWasVisited(file.getLocation()) : false;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /**
@@ -323,80 +390,214 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     void performTclPreprocessing(final IProgressMonitor monitor)
             throws SoarModelException
     {
-        
-        //create the tcl interpreter in a special thread that will
-        //be reused to dispose the interpreter as well.
-        //
-        //the JTCL library enforces creating/disposing from the same thread
-        synchronized(getLock())
-        {
-            // We need a new tcl interpreter here
-            createAndRegisterInterpInIsolatedThread();
-            initCommands(this.jsoarAgent.getInterpreter());
-            
-            if (startFile != null)
+        getLock().acquireWrite();
+        try
+        {
+            finishTclPreprocessing(beginTclPreprocessing(), monitor);
+        }
+        finally
+        {
+            getLock().releaseWrite();
+        }
+    }
+    
+    /**
+     * Starts Tcl preprocessing for this agent on its isolated interpreter 
+     * thread and returns immediately. The interpreter is created, initialized
+     * and run entirely on that thread (the JTCL library enforces creating and
+     * disposing from the same thread), so several agents may be preprocessed
+     * concurrently. Nothing run on the interpreter thread acquires the model 
+     * lock, so it is safe to call this while holding it.
+     * 
+     * <p>The result must be passed to {@link #finishTclPreprocessing(Future, IProgressMonitor)}.
+     * 
+     * <p>Productions are only parsed, not compiled into the JSoar rete. See
+     * {@link #compileProductions(IProgressMonitor)}.
+     * 
+     * @return Future result of the Tcl processing. Its value is null on 
+     *      success, or the error if Tcl processing failed.
+     */
+    Future<TclExpansionError> beginTclPreprocessing()
+    {
+        return beginTclPreprocessing(false);
+    }
+    
+    /**
+     * Starts Tcl preprocessing for this agent on its isolated interpreter 
+     * thread. See {@link #beginTclPreprocessing()}.
+     * 
+     * @param compileProductions If true, productions are compiled into the 
+     *      JSoar rete so that reorderer errors are reported. The productions 
+     *      are excised again once processing completes.
+     * @return Future result of the Tcl processing
+     */
+    Future<TclExpansionError> beginTclPreprocessing(final boolean compileProductions)
+    {
+        final IFile start = startFile;
+        return getTclThread().submit(new Callable<TclExpansionError>() {
+
+            @Override
+            public TclExpansionError call()
             {
-                System.out.println(name + ": Processing Tcl from start file '"
-                        + startFile.getFullPath());
-                monitor.subTask(name + ": Processing Tcl from start file '"
-                        + startFile.getFullPath());
-                IPath location = startFile.getLocation();
+                // Start a new generation of expanded source
+                pendingExpandedSource = new ExpandedSourceCapture();
+                pendingSourceIndex = SourceMembershipIndex.EMPTY;
+                
+                // We need a fresh tcl interpreter here
+                createAndRegisterInterp(compileProductions);
+                
+                if(start == null)
+                {
+                    return null;
+                }
+                
+                IPath location = start.getLocation();
+                final long startTime = SoarMetrics.start();
                 try
                 {
-                    long start = System.currentTimeMillis();
-                    TclExpansionError error = interpreter.evaluate(location.toFile(), 
-                                                                   new SubProgressMonitor(monitor, 1));
-                    System.out.println(name + ": Ran Tcl processing on "
-                            + location.toPortableString() + " in "
-                            + (System.currentTimeMillis() - start) + " ms");
-                    if (error != null)
+                    return interpreter.evaluate(location.toFile(), new NullProgressMonitor());
+                }
+                finally
+                {
+                    SoarMetrics.stop(BuildPhase.TCL_SOURCING, SoarMetrics.AGENT, name, startTime);
+                    if(compileProductions)
                     {
-                        createTclPreprocessorErrorMarker(error);
-                        System.out.println("### " + name + ": ERROR: " + error);
+                        exciseAllProductions();
                     }
+                    
+                    // Canonicalize the sourced paths once for the whole pass
+                    final long indexStart = SoarMetrics.start();
+                    pendingSourceIndex = SourceMembershipIndex.build(interpreter.getSourcedFiles());
+                    SoarMetrics.stop("Source membership index", indexStart);
                 }
-                catch (RelocatableTclInterpreter.InterruptedException | SoarModelException e)
+            }
+            
+        });
+    }
+    
+    /**
+     * Waits for Tcl preprocessing started with {@link #beginTclPreprocessing()}
+     * to complete and then reports any errors into the model. This must be 
+     * called with the lock held. 
+     * 
+     * @param result The result returned by beginTclPreprocessing()
+     * @param monitor progress monitor. If it is canceled while waiting, the
+     *      Tcl processing is cancelled as well.
+     * @throws SoarModelException
+     */
+    void finishTclPreprocessing(Future<TclExpansionError> result, IProgressMonitor monitor)
+            throws SoarModelException
+    {
+        monitor = SoarModelTools.getSafeMonitor(monitor);
+        try
+        {
+            if(startFile != null)
+            {
+                monitor.beginTask(name + ": Processing Tcl from start file '"
+                        + startFile.getFullPath(), 1);
+            }
+            
+            tclErrorResource = null;
+            tclErrorAttributes = null;
+            
+            // Wait for the interpreter thread, checking for cancellation 
+            // periodically.
+            TclExpansionError error = null;
+            for(;;)
+            {
+                if(monitor.isCanceled())
+                {
+                    result.cancel(true);
+                    return;
+                }
+                try
                 {
-                    // TODO: I don't think there's really anything to do here, but
-                    // think about it.
-                    System.out.println("### " + name + ": Tcl processing cancelled by user ###");
+                    error = result.get(100, TimeUnit.MILLISECONDS);
+                    break;
                 }
+                catch (TimeoutException e)
+                {
+                    // Still running
+                }
+            }
+            
+            publishExpandedSource();
+            
+            if (error != null)
+            {
+                createTclPreprocessorErrorMarker(error);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        catch (CancellationException e)
+        {
+            // Cancelled by the user. Nothing to report.
+        }
+        catch (ExecutionException e)
+        {
+            // An interrupted interpreter was cancelled; nothing to report.
+            if(!(e.getCause() instanceof RelocatableTclInterpreter.InterruptedException))
+            {
+                throw new SoarModelException(e);
             }
         }
+        finally
+        {
+            monitor.done();
+        }
     }
     
-    private void initCommands(SoarCommandInterpreter jsoarInterp)
-    {
-        // Adding some stubs proc's to the JSoar TCL interp to avoid errors
-        // for commands that are in CSoar but not JSoar
-
-        String prefs = Platform.getPreferencesService().getString("com.soartech.soar.ide.ui", "keywords", "", null);
-        System.out.println("SoarAgent.initCommands: prefs: " + prefs);
-        String[] prefsArr = prefs.split(";");
-        for (int i = 0; i < prefsArr.length; ++i)
-        {
-			try {
-				System.out.println("PROC CREATED FOR: " + prefsArr[i]);
-				//The list will be empty if the user hasn't added any custom commands, so we avoid creating
-				//an error with the proc call
-				if (prefsArr[i] != "")
-				    jsoarInterp.eval("proc " + prefsArr[i] + " { args } { }");
-			} catch (SoarException e) {
-				System.out.println(e.getMessage());
-			}
-        }
+    /**
+     * Replace the expanded source and sourced files from the previous Tcl
+     * preprocessing run with those of the run that just completed.
+     */
+    private void publishExpandedSource()
+    {
+        sourceIndex = pendingSourceIndex;
+        pendingSourceIndex = SourceMembershipIndex.EMPTY;
         
-        // some commands should be ignored, because they aren't important for Soar IDE's functionality but can fail in this environment
-        // which causes problems
-        // FIXME: this should be rolled into a more general command-ignoring capability, as most commands probably should be ignored
-        try {
-        	jsoarInterp.eval("proc script { args } { }");
-        } catch (SoarException e) {
-        	System.out.println(e.getMessage());
-        }
+        ExpandedSourceCapture capture = pendingExpandedSource;
+        pendingExpandedSource = new ExpandedSourceCapture();
         
-        //add the command for spInternal
-        jsoarInterp.addCommand("sp", new SpInternalCommand(this.jsoarAgent, this));
+        capture.freeze(expandedSource);
+        expandedSource = capture;
+        if(SoarMetrics.isEnabled())
+        {
+            SoarMetrics.record("Expanded source retained (chars)", capture.getRetainedChars());
+        }
+    }
+    
+    /**
+     * Removes all productions from the JSoar rete. This must only be called
+     * on the agent's isolated interpreter thread.
+     */
+    private void exciseAllProductions()
+    {
+        ProductionManager productions = jsoarAgent.getProductions();
+        for(Production p : new ArrayList<Production>(productions.getProductions(null)))
+        {
+            productions.exciseProduction(p, false);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.ISoarAgent#compileProductions(org.eclipse.core.runtime.IProgressMonitor)
+     */
+    public void compileProductions(IProgressMonitor monitor) throws SoarModelException
+    {
+        getLock().acquireWrite();
+        try
+        {
+            finishTclPreprocessing(beginTclPreprocessing(true), monitor);
+        }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     SoarModelTclInterpreter getInterpreter()
@@ -404,6 +605,38 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         return interpreter;
     }
     
+    /**
+     * @return The workspace files sourced during the last completed Tcl 
+     *      preprocessing run
+     */
+    public Set<IFile> getSourcedFiles()
+    {
+        return sourceIndex.getSourcedFiles();
+    }
+    
+    /**
+     * @param file A workspace file
+     * @return True if the file was sourced during the last completed Tcl
+     *      preprocessing run
+     */
+    public boolean wasSourced(IFile file)
+    {
+        return sourceIndex.wasSourced(file);
+    }
+    
+    /**
+     * Tell the project that this agent's resource selection changed so that
+     * it drops its membership index. Working copies aren't in the index.
+     */
+    private void membershipChanged()
+    {
+        SoarProject project = (SoarProject) getSoarProject();
+        if(project != null && !isWorkingCopy())
+        {
+            project.membershipChanged();
+        }
+    }
+    
     public Agent getJsoarAgent() 
     {
         return jsoarAgent;
@@ -411,38 +644,106 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
 
     void addElements(List<ISoarElement> elements)
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             for(ISoarElement e : elements)
             {
                 if(e instanceof ISoarProduction)
                 {
-                    productions.add((ISoarProduction) e);
+                    ISoarProduction p = (ISoarProduction) e;
+                    if(productions.add(p))
+                    {
+                        addToIndex(productionsByName, p.getProductionName(), p);
+                    }
                 }
                 else if(e instanceof ITclProcedure)
                 {
-                    procedures.add((ITclProcedure) e);
+                    ITclProcedure p = (ITclProcedure) e;
+                    if(procedures.add(p))
+                    {
+                        addToIndex(proceduresByName, p.getProcedureName(), p);
+                        addToIndex(proceduresByUnqualifiedName, getUnqualifiedName(p.getProcedureName()), p);
+                    }
                 }
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     void removeElements(List<ISoarElement> elements)
     {
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             for(ISoarElement e : elements)
             {
                 if(e instanceof ISoarProduction)
                 {
-                    productions.remove((ISoarProduction) e);
+                    ISoarProduction p = (ISoarProduction) e;
+                    if(productions.remove(p))
+                    {
+                        removeFromIndex(productionsByName, p.getProductionName(), p);
+                    }
                 }
                 else if(e instanceof ITclProcedure)
                 {
-                    procedures.remove((ITclProcedure) e);
+                    ITclProcedure p = (ITclProcedure) e;
+                    if(procedures.remove(p))
+                    {
+                        removeFromIndex(proceduresByName, p.getProcedureName(), p);
+                        removeFromIndex(proceduresByUnqualifiedName, getUnqualifiedName(p.getProcedureName()), p);
+                    }
                 }
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
+    }
+    
+    private static <T> void addToIndex(Map<String, List<T>> index, String name, T element)
+    {
+        List<T> list = index.get(name);
+        if(list == null)
+        {
+            list = new ArrayList<T>(1);
+            index.put(name, list);
+        }
+        list.add(element);
+    }
+    
+    private static <T> void removeFromIndex(Map<String, List<T>> index, String name, T element)
+    {
+        List<T> list = index.get(name);
+        if(list != null)
+        {
+            list.remove(element);
+            if(list.isEmpty())
+            {
+                index.remove(name);
+            }
+        }
+    }
+    
+    private static <T> T getFirst(Map<String, List<T>> index, String name)
+    {
+        List<T> list = index.get(name);
+        return list != null ? list.get(0) : null;
+    }
+    
+    /**
+     * @param procName A procedure name, e.g. ::foo_namespace::proc_name
+     * @return The name with any namespace qualifier removed, e.g. proc_name
+     */
+    private static String getUnqualifiedName(String procName)
+    {
+        int index = procName.lastIndexOf("::");
+        return index != -1 ? procName.substring(index + 2) : procName;
     }
     
     private void enforceWorkingCopy()
@@ -473,12 +774,20 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         return (ISoarFile) file.getAdapter(ISoarFile.class);
     }
     
-    public Map<String, String> getExpandedSourceMap() {
-        return expandedSourceMap;
+    /**
+     * @return The expanded source captured by the last completed Tcl 
+     *      preprocessing run. It is frozen and safe to read from any thread.
+     */
+    public ExpandedSourceCapture getExpandedSource() {
+        return expandedSource;
     }
     
-    public Map<String, List<String>> getFileSourceMap() {
-        return fileSourceMap;
+    /**
+     * @return The capture for the Tcl preprocessing run in progress. This 
+     *      must only be used on the agent's interpreter thread.
+     */
+    ExpandedSourceCapture getPendingExpandedSource() {
+        return pendingExpandedSource;
     }
     
     public Map<String, SoarDatamap> getFileDatamapMap() {
@@ -503,14 +812,6 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         return fileDatamapMap.get(key);
     }
     
-    public String getPreviousExpandedSourceKey() {
-        return previousExpandedSourceKey;
-    }
-
-    public void setPreviousExpandedSourceKey(String previousExpandedSourceKey) {
-        this.previousExpandedSourceKey = previousExpandedSourceKey;
-    }
-
     private void notifyStartFileChanged(IFile oldStartFile)
     {
         if(oldStartFile == startFile ||
@@ -560,6 +861,7 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         startFile = null;
         if (members != null)
             members.clear();
+        membershipChanged();
 
         if (file != null)
         {
@@ -750,17 +1052,33 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             resource = this.file;
         }
         
+        tclErrorResource = resource;
+        tclErrorAttributes = attributes;
+        reportTclPreprocessingError();
+    }
+    
+    /**
+     * Creates the error marker for the error from the last Tcl preprocessing
+     * run, if there was one. This is used when the agent's markers have been
+     * cleared, but the agent itself doesn't need to be processed again.
+     * 
+     * @throws SoarModelException
+     */
+    void reportTclPreprocessingError() throws SoarModelException
+    {
+        if(tclErrorResource == null || !tclErrorResource.exists())
+        {
+            return;
+        }
         try
         {
-            IMarker marker = resource.createMarker(SoarCorePlugin.TCL_PREPROCESSOR_PROBLEM_MARKER_ID);
-            marker.setAttributes(attributes);
+            IMarker marker = tclErrorResource.createMarker(SoarCorePlugin.TCL_PREPROCESSOR_PROBLEM_MARKER_ID);
+            marker.setAttributes(tclErrorAttributes);
         }
         catch (CoreException e)
         {
             throw new SoarModelException(e);
         }
-        
-        
     }
 
     /*
@@ -769,7 +1087,7 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      * @see com.soartech.soar.ide.core.model.impl.AbstractSoarElement#getLock()
      */
     @Override
-    public Object getLock()
+    public SoarModelLock getLock()
     {
         // TODO: We really need to document the approach to locking here, there
         // clearly is one but why it exists is unclear. I'm having trouble believing
@@ -796,8 +1114,13 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         
         productions.clear();
         procedures.clear();
+        productionsByName.clear();
+        proceduresByName.clear();
+        proceduresByUnqualifiedName.clear();
         datamap.clear();
         members.clear();
+        expandedSource = new ExpandedSourceCapture();
+        sourceIndex = SourceMembershipIndex.EMPTY;
 
         SoarAgent.super.detach();
                 
@@ -811,10 +1134,15 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     public Set<IResource> getMembers()
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             return new LinkedHashSet<IResource>(members);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /*
@@ -826,7 +1154,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         enforceWorkingCopy();
 
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             if (contains(file))
             {
@@ -837,6 +1166,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
 
             System.out.println("[SoarAgent] File '" + file.getFullPath() + "' added to agent " + name);
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /*
@@ -848,7 +1181,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         enforceWorkingCopy();
 
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             if (contains(folder))
             {
@@ -874,6 +1208,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
 
             System.out.println("Folder '" + folder.getFullPath() + "' added to agent " + name);
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /*
@@ -887,7 +1225,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         {
             return false;
         }
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             if (members.contains(resource))
             {
@@ -900,6 +1239,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
                 return members.contains(resource.getParent());
             }
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
         return false;
     }
 
@@ -912,7 +1255,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         {
             return false;
         }
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             try
             {
@@ -947,6 +1291,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             }
             return true;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -958,7 +1306,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         {
             return false;
         }
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             try
             {
@@ -984,6 +1333,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             }
             return false;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /*
@@ -993,7 +1346,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     public void discardWorkingCopy()
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             if (!isWorkingCopy())
             {
@@ -1009,6 +1363,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             System.out.println("Removed working copy from '" + primary.getPath()
                     + "', count=" + primary.workingCopyCount);
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
 
     }
 
@@ -1051,7 +1409,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         {
             return primary.getWorkingCopy();
         }
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             if (workingCopy == null)
             {
@@ -1061,6 +1420,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
 
             return workingCopy;
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /*
@@ -1089,8 +1452,6 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     public void makeConsistent(IProgressMonitor monitor)
             throws SoarModelException
     {
-        System.out.println("[SoarAgent] makeConsistent() : " + name);
-        
         monitor = SoarModelTools.getSafeMonitor(monitor);
         try
         {
@@ -1104,6 +1465,7 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             {
                 monitor.beginTask("Reading agent from '" + file.getFullPath() + "'", 1);
                 readFromFile();
+                membershipChanged();
                 fireEvent(SoarModelEvent.createChanged(this));
             }
             monitor.worked(1);
@@ -1130,7 +1492,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         enforceWorkingCopy();
 
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             // If the file is already in there individually, then there's
             // nothing
@@ -1168,6 +1531,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
                 throw new SoarModelException(e);
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /*
@@ -1179,7 +1546,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         enforceWorkingCopy();
 
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             members.remove(folder);
 
@@ -1197,6 +1565,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
                 }
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /*
@@ -1208,7 +1580,8 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         enforceWorkingCopy();
 
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             if(!isWorkingCopyChanged())
             {
@@ -1246,6 +1619,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
                 throw new SoarModelException(e);
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
         return true;
     }
 
@@ -1348,9 +1725,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     public IExpandedTclCode expandTclString(String namespace, String input,
             int offset)
     {
-        System.out.println("[SoarAgent] expandTclString()");
+        SoarMetrics.increment("Tcl string expansions");
         
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {            
             if (interpreter == null)
             {
@@ -1361,6 +1739,10 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             }
             return interpreter.expand(namespace, input, offset);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -1376,10 +1758,15 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     public List<ITclProcedure> getAllProcedures()
     {
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             return new ArrayList<ITclProcedure>(procedures);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -1387,10 +1774,15 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     public List<ISoarProduction> getAllProductions()
     {
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             return new ArrayList<ISoarProduction>(productions);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -1398,26 +1790,17 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     public ITclProcedure getProcedure(String name)
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
-            for(ITclProcedure proc : procedures)
-            {
-                if(name.equals(proc.getProcedureName()))
-                {
-                    return proc;
-                }
-
-                //check for namespaced procs
-                //::foo_namespace::proc_name
-                String procName = proc.getProcedureName();
-                int index = proc.getProcedureName().lastIndexOf("::");
-                procName = procName.substring(index + 2);
-                if(name.equals(procName))
-                {
-                    return proc;
-                }
-            }
-            return null;
+            // Prefer an exact match, then check for namespaced procs, i.e.
+            // proc_name finds ::foo_namespace::proc_name
+            ITclProcedure proc = getFirst(proceduresByName, name);
+            return proc != null ? proc : getFirst(proceduresByUnqualifiedName, name);
+        }
+        finally
+        {
+            getLock().releaseRead();
         }
     }
 
@@ -1426,16 +1809,14 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
      */
     public ISoarProduction getProduction(String name)
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
-            for(ISoarProduction prod : productions)
-            {
-                if(name.equals(prod.getProductionName()))
-                {
-                    return prod;
-                }
-            }
-            return null;
+            return getFirst(productionsByName, name);
+        }
+        finally
+        {
+            getLock().releaseRead();
         }
     }
 
@@ -1548,19 +1929,35 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     }
     
     /**
-     * HACK
+     * Returns this agent's lease on an interpreter thread, leasing one from
+     * the model if the agent doesn't have one yet.
      * 
-     * This function helps avoid class loader problems in other threads by
-     * exercising the creation classes on a temporary agent.
+     * @return The lease
      */
-    private void preloadClasses()
+    private synchronized TclInterpreterThreads.Lease getTclThread()
     {
-        Agent tempAgent = new Agent(null, true);
-        SoarTclInterfaceFactory fac = new SoarTclInterfaceFactory();
-        SoarCommandInterpreter sti = fac.create(tempAgent);
-        tempAgent.setInterpreter(sti);
-        tempAgent.setInterpreter(null);
-        new SoarModelTclInterpreter(tempAgent.getInterpreter());
+        if(primary != null)
+        {
+            return primary.getTclThread();
+        }
+        if(tclThread == null)
+        {
+            tclThread = getInternalSoarModel().getTclThreads().lease();
+        }
+        return tclThread;
+    }
+    
+    /**
+     * Gives this agent's interpreter thread back to the model. This must only
+     * be called once the interpreter has been disposed.
+     */
+    private synchronized void releaseTclThread()
+    {
+        if(tclThread != null)
+        {
+            tclThread.release();
+            tclThread = null;
+        }
     }
 
     /**
@@ -1574,20 +1971,12 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
     {
         try
         {
-            this.tclExecutorService.submit(new Runnable() {
+            getTclThread().submit(new Runnable() {
 
                 @Override
                 public void run()
                 {
-                    // This will cause the previous one to be disposed in JSoar
-                    jsoarAgent.setInterpreter(null);
-
-                    // Create a TCL command interpreter for the agent
-                    SoarTclInterfaceFactory factory = new SoarTclInterfaceFactory();
-                    SoarCommandInterpreter scInterp = factory.create(jsoarAgent);                    
-                    jsoarAgent.setInterpreter(scInterp);
-
-                    SoarAgent.this.interpreter = new SoarModelTclInterpreter(jsoarAgent.getInterpreter());
+                    createAndRegisterInterp(false);
                 }
                 
             }).get();
@@ -1599,6 +1988,21 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
         }
     }
     
+    /**
+     * Registers a TCL interpreter in its initial state with the agent. The 
+     * interpreter comes from the agent's template, so it is usually reset 
+     * rather than created. This must only be called on the agent's isolated 
+     * interpreter thread.
+     * 
+     * @param compileProductions If true, productions are compiled into the 
+     *      JSoar rete.
+     */
+    private void createAndRegisterInterp(boolean compileProductions)
+    {
+        SoarCommandInterpreter scInterp = interpreterTemplate.acquire(compileProductions);
+        this.interpreter = new SoarModelTclInterpreter(scInterp);
+    }
+    
     /**
      * This method handles cleaning up the TCL interpreter in the same thread that 
      * created it earlier.
@@ -1612,12 +2016,12 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             // The "get" at the end should mean that this method won't
             // return until the dispose has been called and completed
             // so this should be essentially "running in this thread"
-            this.tclExecutorService.submit(new Runnable() {
+            getTclThread().submit(new Runnable() {
 
                 @Override
                 public void run()
                 {
-                    SoarAgent.this.jsoarAgent.setInterpreter(null);
+                    SoarAgent.this.interpreterTemplate.dispose();
                 }
                 
             }).get();
@@ -1627,5 +2031,9 @@ public class SoarAgent extends AbstractSoarElement implements ISoarAgent
             // Logging that it was interrupted, this shouldn't really ever happen
             SoarCorePlugin.log(e);
         }
+        
+        // The interpreter is gone, so the next one may be created on any
+        // thread.
+        releaseTclThread();
     }
 }
@@ -19,6 +19,7 @@
  */
 package com.soartech.soar.ide.core.model.impl;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,13 +34,41 @@ import com.soartech.soar.ide.core.model.SoarBufferChangedEvent;
 import com.soartech.soar.ide.core.model.SoarModelException;
 
 /**
+ * Gap buffer implementation of ISoarBuffer. The contents are stored in a 
+ * single array with a gap at the last edit position, so a sequence of edits
+ * near each other (i.e. typing) only moves the characters between edits 
+ * rather than copying the whole buffer.
+ * 
+ * <p>{@link #getCharSequence()} returns a read-only view directly over the 
+ * gap array, shared by all readers until the next edit. The array is only 
+ * copied if such a view is still reachable when the next edit happens, so 
+ * edits with no reader in between never copy the whole buffer.
+ * 
  * @author ray
  */
 public class SoarBuffer implements ISoarBuffer
 {
+    /**
+     * Minimum extra space to leave in the gap when the array has to grow
+     */
+    private static final int MIN_GAP = 256;
+    
     private IFile file;
     private ISoarOpenable owner;
+    
+    /**
+     * The buffer contents, with a gap in [gapStart, gapEnd)
+     */
     private char[] contents;
+    private int gapStart;
+    private int gapEnd;
+    
+    /**
+     * The view most recently handed out by {@link #getCharSequence()}. While
+     * it is reachable, contents must not be modified in place.
+     */
+    private WeakReference<View> view;
+    
     private List<ISoarBufferChangedListener> listeners = new ArrayList<ISoarBufferChangedListener>();
     private boolean closed = false;
     private Object lock = new Object();
@@ -84,6 +113,7 @@ public class SoarBuffer implements ISoarBuffer
                 return;
             }
             this.contents = null;
+            this.view = null;
             this.closed = true;
         }
         for(ISoarBufferChangedListener listener : getListeners())
@@ -103,9 +133,24 @@ public class SoarBuffer implements ISoarBuffer
     {
         synchronized(lock)
         {
-            char[] newContents = new char[contents.length];
-            System.arraycopy(contents, 0, newContents, 0, contents.length);
-            return newContents;
+            return compact();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.ISoarBuffer#getCharSequence()
+     */
+    public CharSequence getCharSequence()
+    {
+        synchronized(lock)
+        {
+            View v = view != null ? view.get() : null;
+            if(v == null)
+            {
+                v = new View(contents, gapStart, gapEnd);
+                view = new WeakReference<View>(v);
+            }
+            return v;
         }
     }
 
@@ -114,7 +159,10 @@ public class SoarBuffer implements ISoarBuffer
      */
     public String getContents()
     {
-        return new String(getCharacters());
+        synchronized(lock)
+        {
+            return new String(compact());
+        }
     }
 
     /* (non-Javadoc)
@@ -124,7 +172,7 @@ public class SoarBuffer implements ISoarBuffer
     {
         synchronized (lock)
         {
-            return contents.length;
+            return contents.length - (gapEnd - gapStart);
         }
     }
 
@@ -143,8 +191,19 @@ public class SoarBuffer implements ISoarBuffer
     {
         synchronized (lock)
         {
-            StringBuilder buffer = new StringBuilder();
-            buffer.append(contents, offset, length);
+            checkRange(offset, length);
+            if(offset + length <= gapStart)
+            {
+                return new String(contents, offset, length);
+            }
+            final int gapLength = gapEnd - gapStart;
+            if(offset >= gapStart)
+            {
+                return new String(contents, offset + gapLength, length);
+            }
+            StringBuilder buffer = new StringBuilder(length);
+            buffer.append(contents, offset, gapStart - offset);
+            buffer.append(contents, gapEnd, offset + length - gapStart);
             return buffer.toString();
         }
     }
@@ -172,22 +231,16 @@ public class SoarBuffer implements ISoarBuffer
     {
         synchronized(lock)
         {
-            int delta = text.length - (length - position + 1);
-            int newLength = contents.length + delta;
-            
-            char[] newContents = new char[newLength];
-            // Copy old contents up to insertion point
-            System.arraycopy(contents, 0, newContents, 0, position);
-            
-            // Copy new text
-            System.arraycopy(text, 0, newContents, position, text.length);
+            checkRange(position, length);
+            detachView();
+            moveGap(position);
             
-            // Copy remaining old contents to end of buffer
-            System.arraycopy(contents, position + length, 
-                             newContents, position + text.length, 
-                             newLength - (position + text.length + 1));
+            // Deleted characters just become part of the gap
+            gapEnd += length;
             
-            contents = newContents;
+            ensureGap(text.length);
+            System.arraycopy(text, 0, contents, gapStart, text.length);
+            gapStart += text.length;
         }
         fireChangedEvent(position, length, new String(text));
     }
@@ -216,10 +269,97 @@ public class SoarBuffer implements ISoarBuffer
         synchronized(lock)
         {
             this.contents = contents;
+            this.gapStart = contents.length;
+            this.gapEnd = contents.length;
+            this.view = null;
         }
         fireChangedEvent(0, getLength(), new String(contents));
     }
 
+    /**
+     * @return A new array holding the contents of the buffer without the 
+     *      gap. Must be called with lock held.
+     */
+    private char[] compact()
+    {
+        final int afterGap = contents.length - gapEnd;
+        char[] result = new char[gapStart + afterGap];
+        System.arraycopy(contents, 0, result, 0, gapStart);
+        System.arraycopy(contents, gapEnd, result, gapStart, afterGap);
+        return result;
+    }
+    
+    /**
+     * Prepare for an in-place edit. If a view handed out since the last edit
+     * is still reachable, it keeps the current array and the buffer carries
+     * on with a copy. Must be called with lock held.
+     */
+    private void detachView()
+    {
+        if(view != null && view.get() != null)
+        {
+            contents = contents.clone();
+        }
+        view = null;
+    }
+    
+    /**
+     * Move the gap so that it starts at the given position. Must be called 
+     * with lock held.
+     * 
+     * @param position The new start of the gap
+     */
+    private void moveGap(int position)
+    {
+        if(position < gapStart)
+        {
+            final int count = gapStart - position;
+            System.arraycopy(contents, position, contents, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        }
+        else if(position > gapStart)
+        {
+            final int count = position - gapStart;
+            System.arraycopy(contents, gapEnd, contents, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+    
+    /**
+     * Make sure the gap can hold at least the given number of characters, 
+     * growing the array if necessary. Must be called with lock held.
+     * 
+     * @param required Number of characters needed
+     */
+    private void ensureGap(int required)
+    {
+        if(gapEnd - gapStart >= required)
+        {
+            return;
+        }
+        
+        final int length = contents.length - (gapEnd - gapStart);
+        final int afterGap = contents.length - gapEnd;
+        final int newCapacity = length + required + Math.max(MIN_GAP, length / 2);
+        
+        char[] newContents = new char[newCapacity];
+        System.arraycopy(contents, 0, newContents, 0, gapStart);
+        System.arraycopy(contents, gapEnd, newContents, newCapacity - afterGap, afterGap);
+        
+        contents = newContents;
+        gapEnd = newCapacity - afterGap;
+    }
+    
+    private void checkRange(int offset, int length)
+    {
+        if(offset < 0 || length < 0 || offset + length > contents.length - (gapEnd - gapStart))
+        {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+    }
+    
     private List<ISoarBufferChangedListener> getListeners()
     {
         return new ArrayList<ISoarBufferChangedListener>(listeners);
@@ -234,4 +374,75 @@ public class SoarBuffer implements ISoarBuffer
             listener.onBufferChanged(e);
         }
     }
+    
+    /**
+     * Read-only view over a gap array. The buffer never modifies an array 
+     * while a view over it is reachable, so the view is stable.
+     */
+    private static class View implements CharSequence
+    {
+        private final char[] contents;
+        private final int gapStart;
+        private final int gapLength;
+        private final int length;
+        
+        View(char[] contents, int gapStart, int gapEnd)
+        {
+            this.contents = contents;
+            this.gapStart = gapStart;
+            this.gapLength = gapEnd - gapStart;
+            this.length = contents.length - gapLength;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.CharSequence#charAt(int)
+         */
+        public char charAt(int index)
+        {
+            if(index < 0 || index >= length)
+            {
+                throw new IndexOutOfBoundsException("index: " + index);
+            }
+            return contents[index < gapStart ? index : index + gapLength];
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.CharSequence#length()
+         */
+        public int length()
+        {
+            return length;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.CharSequence#subSequence(int, int)
+         */
+        public CharSequence subSequence(int start, int end)
+        {
+            if(start < 0 || end > length || start > end)
+            {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end);
+            }
+            if(end <= gapStart)
+            {
+                return new String(contents, start, end - start);
+            }
+            if(start >= gapStart)
+            {
+                return new String(contents, start + gapLength, end - start);
+            }
+            StringBuilder buffer = new StringBuilder(end - start);
+            buffer.append(contents, start, gapStart - start);
+            buffer.append(contents, gapStart + gapLength, end - gapStart);
+            return buffer.toString();
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        public String toString()
+        {
+            return subSequence(0, length).toString();
+        }
+    }
 }
@@ -27,6 +27,8 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.BasicSoarSourceRange;
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.ISoarBuffer;
@@ -83,6 +85,18 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
      */
     private TclAstNode root;
     
+    /**
+     * For working copies, the contents that root was parsed from so that the
+     * next parse can be incremental. Null otherwise.
+     */
+    private CharSequence rootContents;
+    
+    /**
+     * Contents read by {@link #prepare()}, used by {@link #openBuffer(IProgressMonitor)}
+     * instead of reading the file again. Only set during makeConsistent().
+     */
+    private char[] preparedContents;
+    
     private boolean errors;
     private boolean warnings;
     
@@ -129,7 +143,8 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
     @Override
     protected void detach()
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             System.out.println("SoarFile detached from file " + file.getFullPath());
             // If we have an active working copy we have to detach it as well to 
@@ -143,6 +158,10 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
             
             super.detach();
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /* (non-Javadoc)
@@ -167,9 +186,9 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
      * @see com.soartech.soar.ide.core.model.impl.AbstractSoarElement#createMemento()
      */
     @Override
-    public ElementMemento createMemento()
+    public FileMemento createMemento()
     {
-        return saveState(new FileMemento());
+        return (FileMemento) saveState(new FileMemento());
     }
 
     /* (non-Javadoc)
@@ -207,7 +226,8 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
      */
     public ISoarFileAgentProxy getPrimaryAgentProxy() throws SoarModelException
     {
-        synchronized (getLock())
+        getLock().acquireRead();
+        try
         {
             if(!hasChildren())
             {
@@ -216,6 +236,10 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
             
             return (ISoarFileAgentProxy) getChildren().get(0);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -224,13 +248,18 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
     public List<ISoarFileAgentProxy> getAgentProxies() throws SoarModelException
     {
         List<ISoarFileAgentProxy> proxies = new ArrayList<ISoarFileAgentProxy>();
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             for(ISoarElement child : getChildren())
             {
                 proxies.add((ISoarFileAgentProxy) child);
             }
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
         return proxies;
     }
 
@@ -277,6 +306,55 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
      * @see com.soartech.soar.ide.core.model.ISoarFile#makeConsistent(org.eclipse.core.runtime.IProgressMonitor, com.soartech.soar.ide.core.model.ISoarProblemReporter)
      */
     public void makeConsistent(IProgressMonitor monitor, ISoarProblemReporter reporter) throws SoarModelException
+    {
+        makeConsistent(monitor, reporter, null);
+    }
+    
+    /**
+     * Make the file consistent using contents that were already read and 
+     * parsed by {@link #prepare()}.
+     * 
+     * @param monitor The progress monitor
+     * @param prepared The value returned by prepare(). If null, the file is
+     *      read and parsed as usual.
+     * @throws SoarModelException
+     */
+    public void makeConsistent(IProgressMonitor monitor, PreparedContents prepared) throws SoarModelException
+    {
+        makeConsistent(monitor, new SoarResourceProblemReporter(file), prepared);
+    }
+    
+    /**
+     * Read and parse the file without holding the model lock. This is the
+     * part of makeConsistent() that doesn't touch the model, so the builder
+     * can prepare many files in parallel and then pass the results to 
+     * {@link #makeConsistent(IProgressMonitor, PreparedContents)} one at a
+     * time.
+     * 
+     * @return The parsed contents, or null for working copies, which are
+     *      always parsed from their buffer.
+     * @throws SoarModelException if the file can't be read
+     */
+    public PreparedContents prepare() throws SoarModelException
+    {
+        final IFile file = this.file;
+        if(file == null || isWorkingCopy())
+        {
+            return null;
+        }
+        
+        char[] contents = SoarModelTools.readFileAsCharArray(file);
+        TclParser parser = new TclParser();
+        parser.setInput(contents, 0, contents.length);
+        final long parseStart = SoarMetrics.start();
+        TclAstNode root = parser.parse();
+        SoarMetrics.stop(BuildPhase.TCL_PARSING, SoarMetrics.FILE, file.getFullPath(), parseStart);
+        SoarMetrics.record("File size (chars)", contents.length);
+        
+        return new PreparedContents(contents, root, parser.getErrors());
+    }
+    
+    private void makeConsistent(IProgressMonitor monitor, ISoarProblemReporter reporter, PreparedContents prepared) throws SoarModelException
     {
         monitor = SoarModelTools.getSafeMonitor(monitor);
         
@@ -284,7 +362,8 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
 
         reporter.clear();
         
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             // Ignore detached files.
             if ( file == null ) 
@@ -311,18 +390,41 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
             }
             
             monitor.subTask("Processing: " + file.getFullPath());
-            System.out.println("Parsing: " + file.getFullPath() + 
-                                (isWorkingCopy() ? " (working copy)" : ""));
-            
-            // Get the contents of the file
-            ISoarBuffer buffer = getBuffer();
+            SoarMetrics.increment(isWorkingCopy() ? "Working copy parses" : "File parses");
             
-            // Parse the file as raw tcl with nothing expanded
-            TclParser parser = new TclParser();
-            parser.setInput(buffer.getCharacters(), 0, buffer.getLength());
-            this.root = parser.parse();
-            
-            processParseErrors(reporter, parser);
+            if(prepared != null && !isWorkingCopy())
+            {
+                // Fill the buffer with the contents that were already read
+                // and use the tree they were parsed into.
+                preparedContents = prepared.contents;
+                try
+                {
+                    getBuffer();
+                }
+                finally
+                {
+                    preparedContents = null;
+                }
+                this.root = prepared.root;
+                this.rootContents = null;
+                processParseErrors(reporter, prepared.errors);
+            }
+            else
+            {
+                // Get the contents of the file
+                ISoarBuffer buffer = getBuffer();
+                
+                // Parse the file as raw tcl with nothing expanded
+                CharSequence contents = buffer.getCharSequence();
+                TclParser parser = new TclParser();
+                parser.setInput(contents, 0, contents.length());
+                final long parseStart = SoarMetrics.start();
+                this.root = parse(parser, contents);
+                SoarMetrics.stop(BuildPhase.TCL_PARSING, SoarMetrics.FILE, file.getFullPath(), parseStart);
+                SoarMetrics.record("File size (chars)", contents.length());
+                
+                processParseErrors(reporter, parser.getErrors());
+            }
             
             // Now process the file in the context of each agent this file is
             // part of.
@@ -335,9 +437,53 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
             
             updateChildProblems(reporter);
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
         monitor.worked(1);    
     }
 
+    /**
+     * Parse the file's contents. Working copies are reparsed incrementally,
+     * e.g. on every keystroke, so only the region of the file that changed 
+     * since the last parse is reparsed. The changed region is found by 
+     * comparing the contents with those of the last parse, which is much 
+     * cheaper than reparsing and doesn't depend on buffer events arriving
+     * before the reconciler runs.
+     * 
+     * @param parser The parser, with input set to contents
+     * @param contents The contents of the file
+     * @return The new parse tree
+     */
+    private TclAstNode parse(TclParser parser, CharSequence contents)
+    {
+        final CharSequence oldContents = rootContents;
+        rootContents = isWorkingCopy() ? contents : null;
+        if(oldContents == null || root == null)
+        {
+            return parser.parse();
+        }
+        
+        final int oldLength = oldContents.length();
+        final int newLength = contents.length();
+        final int maxCommon = Math.min(oldLength, newLength);
+        
+        int prefix = 0;
+        while(prefix < maxCommon && oldContents.charAt(prefix) == contents.charAt(prefix))
+        {
+            ++prefix;
+        }
+        int suffix = 0;
+        while(suffix < maxCommon - prefix && 
+              oldContents.charAt(oldLength - suffix - 1) == contents.charAt(newLength - suffix - 1))
+        {
+            ++suffix;
+        }
+        
+        return parser.parse(root, prefix, oldLength - prefix - suffix, newLength - prefix - suffix);
+    }
+    
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.ISoarOpenable#makeConsistent(org.eclipse.core.runtime.IProgressMonitor)
      */
@@ -372,7 +518,8 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
         // copy owner that created it.
         if(!isWorkingCopy())
         {
-            buffer.setContents(SoarModelTools.readFileAsCharArray(file));
+            buffer.setContents(preparedContents != null ? preparedContents : 
+                                                          SoarModelTools.readFileAsCharArray(file));
             
             // Working copy buffers are not managed by the manager. Since 
             // they're being edited we want them to always remain in memory.
@@ -443,9 +590,9 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
         return "SoarFile " + file;
     }
 
-    private void processParseErrors(ISoarProblemReporter reporter, TclParser parser) throws SoarModelException
+    private void processParseErrors(ISoarProblemReporter reporter, List<TclParserError> parseErrors) throws SoarModelException
     {
-        for(TclParserError e : parser.getErrors())
+        for(TclParserError e : parseErrors)
         {
             System.err.println(file.getFullPath() + ": " + e);
             reporter.report(SoarProblem.createError(e.getMessage(), e.getStart(), e.getLength()));
@@ -457,7 +604,8 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
      */
     public ISoarFile createWorkingCopy(ISoarWorkingCopyOwner owner) throws SoarModelException
     {
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             if(workingCopy != null)
             {
@@ -472,6 +620,10 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
             
             return workingCopy;
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /* (non-Javadoc)
@@ -479,14 +631,16 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
      */
     public void discardWorkingCopy()
     {
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             if(!isWorkingCopy())
             {
                 return;
             }
             
-            synchronized (primary.getLock())
+            primary.getLock().acquireWrite();
+            try
             {
                 --primary.workingCopyCount;
                 if(primary.workingCopyCount == 0)
@@ -495,6 +649,14 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
                 }
                 System.out.println("Removed working copy from '" + primary.getPath() + "', count=" + primary.workingCopyCount);
             }
+            finally
+            {
+                primary.getLock().releaseWrite();
+            }
+        }
+        finally
+        {
+            getLock().releaseWrite();
         }
     }
 
@@ -563,13 +725,10 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
         List newProxies = new ArrayList<SoarFileAgentProxy>();
         
         // First get the new set of proxies for this file
-        for(ISoarAgent agent : getSoarProject().getAgents())
+        for(SoarAgent agent : ((SoarProject) getSoarProject()).getAgentsContaining(file))
         {
-            if(agent.contains(file))
-            {
-                SoarFileAgentProxy proxy = getOrCreateAgentProxy((SoarAgent) agent);
-                newProxies.add(proxy);
-            }
+            SoarFileAgentProxy proxy = getOrCreateAgentProxy(agent);
+            newProxies.add(proxy);
         }
         
         // Now calculate proxies that are no longer in the file and remove them
@@ -588,4 +747,31 @@ public class SoarFile extends AbstractSoarOpenable implements ISoarFile
         
         return newProxies;
     }
+    
+    /**
+     * The contents of a file and its raw Tcl parse tree as produced by
+     * {@link SoarFile#prepare()}. Instances aren't attached to the model, so
+     * they may be created on any thread.
+     */
+    public static class PreparedContents
+    {
+        private final char[] contents;
+        private final TclAstNode root;
+        private final List<TclParserError> errors;
+        
+        private PreparedContents(char[] contents, TclAstNode root, List<TclParserError> errors)
+        {
+            this.contents = contents;
+            this.root = root;
+            this.errors = new ArrayList<TclParserError>(errors);
+        }
+        
+        /**
+         * @return The contents of the file. The array must not be modified.
+         */
+        public char[] getContents()
+        {
+            return contents;
+        }
+    }
 }
@@ -19,12 +19,11 @@
  */
 package com.soartech.soar.ide.core.model.impl;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.core.resources.IFile;
@@ -34,6 +33,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.QualifiedName;
 
 import com.soartech.soar.ide.core.SoarCorePlugin;
 import com.soartech.soar.ide.core.model.ISoarAgent;
@@ -65,12 +65,32 @@ import edu.umich.soar.editor.editors.datamap.ValidateDatamapAction;
  */
 public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFileAgentProxy
 {
+    // Session property of a file recording what its datamap problem markers
+    // were computed from. It's on the file since every proxy of the file, 
+    // working copy or not and in any agent, replaces the same markers.
+    private static final QualifiedName VALIDATION_KEY = new QualifiedName(SoarCorePlugin.PLUGIN_ID, "datamapValidation");
+    
     private SoarFile file;
     private SoarAgent agent;
     private TclAstNode root;
     private boolean errors;
     private boolean warnings;
     
+    // Productions from the previous parse that may hand their agent datamap
+    // support over to the new parse, by datamap body. Only set during 
+    // makeConsistent().
+    private Map<String, List<SoarProduction>> previousProductions;
+    
+    // Expanded productions in the file datamap, by expanded text, and the 
+    // file datamap they were added to. Productions whose text is unchanged
+    // on the next parse stay in the datamap.
+    private Map<String, List<SoarProduction2>> expandedProductions = new HashMap<String, List<SoarProduction2>>();
+    private SoarDatamap fileDatamap;
+    
+    // Index over the children's source ranges. Built on demand and dropped
+    // whenever the children change.
+    private volatile SourceRangeIndex rangeIndex;
+    
     public SoarFileAgentProxy(SoarFile file, SoarAgent agent)
     {
         super(file);
@@ -195,7 +215,8 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
      */
     public List<ITclProcedure> getProcedures()
     {
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             List<ITclProcedure> procedures = new ArrayList<ITclProcedure>();
             
@@ -215,6 +236,69 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
             }
             return procedures;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.ISoarFileAgentProxy#getElementAt(int)
+     */
+    public ISoarElement getElementAt(int offset) throws SoarModelException
+    {
+        getLock().acquireRead();
+        try
+        {
+            return getRangeIndex().getElementAt(offset);
+        }
+        finally
+        {
+            getLock().releaseRead();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.ISoarFileAgentProxy#getElementsOverlapping(int, int)
+     */
+    public List<ISoarElement> getElementsOverlapping(int offset, int length) throws SoarModelException
+    {
+        getLock().acquireRead();
+        try
+        {
+            return getRangeIndex().getElementsOverlapping(offset, length);
+        }
+        finally
+        {
+            getLock().releaseRead();
+        }
+    }
+    
+    /**
+     * Must be called with the read lock held. Concurrent readers may both
+     * build the index, but they'll build the same one.
+     * 
+     * @return The index over this proxy's children
+     * @throws SoarModelException
+     */
+    private SourceRangeIndex getRangeIndex() throws SoarModelException
+    {
+        SourceRangeIndex index = rangeIndex;
+        if(index == null)
+        {
+            index = new SourceRangeIndex(getChildren());
+            rangeIndex = index;
+        }
+        return index;
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.AbstractSoarElement#childrenChanged()
+     */
+    @Override
+    protected void childrenChanged()
+    {
+        rangeIndex = null;
     }
 
     /* (non-Javadoc)
@@ -222,7 +306,8 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
      */
     public List<ISoarProduction> getProductions()
     {
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             List<ISoarProduction> productions = new ArrayList<ISoarProduction>();
             
@@ -243,6 +328,10 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
             
             return productions;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
     
     /* (non-Javadoc)
@@ -254,42 +343,33 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
         
         SoarModelTools.checkForCancellation(monitor);
 
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             if(!isWorkingCopy())
             {
-                agent.removeElements(getChildren());
-            }
-            clearChildren();
-            
-            this.root = root;
-            
-            // TODO: Null pointer exception below!!!!
-            //get the list of this agent's sourced files from jsoar
-            //these should always have a "/" as the path separator
-            Collection<String> sourcedFiles = agent.getInterpreter().getSourcedFiles();
-            
-            // TODO: Get sourced paths should probably by absolute/canonical
-            HashSet<String> sourcedPaths = new HashSet<String>();
-            for ( String spath : sourcedFiles )
-            {
-                File file = new File(spath);
-                try
-                {
-                    sourcedPaths.add(file.getCanonicalPath());
-                }
-                catch (IOException e)
+                List<ISoarElement> children = getChildren();
+                previousProductions = new HashMap<String, List<SoarProduction>>();
+                for(ISoarElement child : children)
                 {
-                    // There isn't much we can do here except log it
-                    SoarCorePlugin.log(e);
+                    if(child instanceof SoarProduction)
+                    {
+                        SoarProduction p = (SoarProduction) child;
+                        if(p.getDatamapBody() != null)
+                        {
+                            putProduction(previousProductions, p.getDatamapBody(), p);
+                        }
+                    }
                 }
+                agent.removeElements(children);
             }
+            clearChildren();
             
-            //get the current filename and format it's path to use backslashes since that's what jsoar is giving us
-            String filename = getFile().getFile().getLocation().makeAbsolute().toOSString();
+            this.root = root;
             
+            // The agent canonicalizes its sourced paths once per Tcl pass.
             // Only report this warning if a start file has actually be specified.
-            if(agent.getStartFile() != null && !sourcedPaths.contains(filename))
+            if(agent.getStartFile() != null && !agent.wasSourced(getFile().getFile()))
             {
                 // Here were taking advantage of the fact that the reporter ignores
                 // duplicate problems.
@@ -302,9 +382,95 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
             
             updateChildProblems(reporter);
         }
+        finally
+        {
+            releasePreviousProductions(agent.getDatamap());
+            getLock().releaseWrite();
+        }
         monitor.worked(1);    
     }
     
+    /**
+     * @param p A production
+     * @return True if p is from the previous parse and its datamap support
+     *  may still be taken over by the new parse
+     */
+    boolean isPreviousProduction(SoarProduction p)
+    {
+        if(previousProductions == null || p.getDatamapBody() == null)
+        {
+            return false;
+        }
+        List<SoarProduction> candidates = previousProductions.get(p.getDatamapBody());
+        return candidates != null && candidates.contains(p);
+    }
+    
+    /**
+     * Take a production from the previous parse whose datamap body is the
+     * same as the given one.
+     * 
+     * @param body The datamap body of a new production
+     * @return The previous production, or null if there is none
+     */
+    SoarProduction takePreviousProduction(String body)
+    {
+        return previousProductions != null ? takeProduction(previousProductions, body) : null;
+    }
+    
+    /**
+     * Remove whatever previous productions weren't taken over from the
+     * datamap, and stop tracking them.
+     */
+    private void releasePreviousProductions(ISoarDatamap datamap)
+    {
+        if(previousProductions == null)
+        {
+            return;
+        }
+        datamap.beginModification();
+        try
+        {
+            for(List<SoarProduction> unmatched : previousProductions.values())
+            {
+                for(SoarProduction p : unmatched)
+                {
+                    datamap.removeProduction(p);
+                }
+            }
+        }
+        finally
+        {
+            previousProductions = null;
+            datamap.endModification();
+        }
+    }
+    
+    private static <T> void putProduction(Map<String, List<T>> productions, String key, T p)
+    {
+        List<T> list = productions.get(key);
+        if(list == null)
+        {
+            list = new ArrayList<T>(1);
+            productions.put(key, list);
+        }
+        list.add(p);
+    }
+    
+    private static <T> T takeProduction(Map<String, List<T>> productions, String key)
+    {
+        List<T> list = productions.get(key);
+        if(list == null)
+        {
+            return null;
+        }
+        T p = list.remove(list.size() - 1);
+        if(list.isEmpty())
+        {
+            productions.remove(key);
+        }
+        return p;
+    }
+    
     boolean isWorkingCopy()
     {
         return file != null && file.isWorkingCopy();
@@ -318,8 +484,6 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
     @SuppressWarnings("unchecked")
     private void processParseResult(IProgressMonitor monitor, ISoarProblemReporter reporter, ISoarDatamap datamap) throws SoarModelException
     {
-        System.out.println("[SoarFileAgentProxy] processParseResult() for " + file.getFile().getName());
-        
         try
         {
             datamap.beginModification();
@@ -343,7 +507,7 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
             ISoarSourceRange elemSourceRange;
             
             //construct a string buffer of the expanded elements
-            String expandedSource = "";
+            StringBuilder expandedSource = new StringBuilder();
             
             List<GenericCommand> expandedGenericCommands = new ArrayList<GenericCommand>();
             
@@ -353,8 +517,7 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
                 {
 //                    productions.add((ISoarProduction) e);
                     SoarProduction sp = (SoarProduction) elem;
-                    expandedSource += sp.getExpandedSource();
-                    expandedSource += "\n";
+                    expandedSource.append(sp.getExpandedSource()).append('\n');
                 }
                 else if(elem instanceof ITclProcedure)
                 {
@@ -372,26 +535,50 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
                 }
             }
             
-            //get the datamap for this file
-            SoarDatamap dm = agent.getOrCreateDatamapForFile(file.getFile(), true);
-            
-            //add the expanded source for the sp's to the file datamap
-            addSourceToFileDatamap(expandedSource, null, dm, monitor, reporter, elements);
+            //get the datamap for this file. If it's the one we built last
+            //time, only the expanded productions that changed are updated.
+            //Otherwise (first parse, or a working copy of the file replaced
+            //it) it's rebuilt from scratch.
+            SoarDatamap dm = agent.getOrCreateDatamapForFile(file.getFile(), false);
+            Map<String, List<SoarProduction2>> previousExpanded = expandedProductions;
+            boolean datamapChanged = false;
+            if(dm != fileDatamap)
+            {
+                dm = agent.getOrCreateDatamapForFile(file.getFile(), true);
+                previousExpanded = new HashMap<String, List<SoarProduction2>>();
+                datamapChanged = true;
+            }
+            fileDatamap = dm;
+            expandedProductions = new HashMap<String, List<SoarProduction2>>();
             
-            //add the expanded source for the generic commands to the file datamap
-            for(GenericCommand gc : expandedGenericCommands)
+            dm.beginModification();
+            try
             {
-                addSourceToFileDatamap(gc.getExpandedSource(), gc.getSourceRange(), dm, monitor, reporter, elements);
+                //add the expanded source for the sp's to the file datamap
+                datamapChanged |= addSourceToFileDatamap(expandedSource.toString(), null, dm, monitor, reporter, elements, previousExpanded);
+                
+                //add the expanded source for the generic commands to the file datamap
+                for(GenericCommand gc : expandedGenericCommands)
+                {
+                    datamapChanged |= addSourceToFileDatamap(gc.getExpandedSource(), gc.getSourceRange(), dm, monitor, reporter, elements, previousExpanded);
+                }
             }
-
-            //delete any datamap problem markers
-            try {
-                SoarModelTools.deleteMarkers(file.getFile(), SoarCorePlugin.DATAMAP_PROBLEM_MARKER_ID);
-            } catch (CoreException e) {
-                e.printStackTrace();
+            finally
+            {
+                //drop expanded productions that are gone from the file
+                for(List<SoarProduction2> unmatched : previousExpanded.values())
+                {
+                    for(SoarProduction2 p : unmatched)
+                    {
+                        dm.removeProduction(p);
+                        datamapChanged = true;
+                    }
+                }
+                dm.endModification();
             }
-            
-            //validate against the dynamic file datamap we just created
+
+            //find the static datamaps to validate against
+            Map<IFile, Long> datamapFiles = new HashMap<IFile, Long>();
             Set<IResource> agentFiles = agent.getMembers();
             for(IResource res : agentFiles)
             {
@@ -399,19 +586,40 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
                 {
                     IFile f = (IFile) res;
                     
-                    System.out.println("[SoarReconcilingStrategy] checking member file " + f.getName());
-                    
-                    String extension = f.getFileExtension();
-                    if(extension.equals("dm"))
+                    if("dm".equals(f.getFileExtension()))
                     {
-                        Datamap staticDatamap = Datamap.read(f);
-                        
-                        ValidateDatamapAction validateDatamap = new ValidateDatamapAction(staticDatamap, agent.getOrCreateDatamapForFile(file.getFile(), false), file.getSource());
-                        validateDatamap.run();
+                        datamapFiles.put(f, f.getModificationStamp());
                     }
                 }
             }
             
+            //the markers from the last validation are still right unless the
+            //file datamap, the static datamaps or the marker positions changed
+            String source = file.getSource();
+            List<Object> validationKey = Arrays.asList(dm, source, datamapFiles);
+            if(datamapChanged || !validationKey.equals(getValidationKey()))
+            {
+                forgetDatamapValidation(file.getFile());
+                
+                //delete any datamap problem markers
+                try {
+                    SoarModelTools.deleteMarkers(file.getFile(), SoarCorePlugin.DATAMAP_PROBLEM_MARKER_ID);
+                } catch (CoreException e) {
+                    e.printStackTrace();
+                }
+                
+                //validate against the dynamic file datamap we just created
+                for(IFile f : datamapFiles.keySet())
+                {
+                    Datamap staticDatamap = Datamap.read(f);
+                    
+                    ValidateDatamapAction validateDatamap = new ValidateDatamapAction(staticDatamap, dm, source);
+                    validateDatamap.run();
+                }
+                
+                setValidationKey(validationKey);
+            }
+            
             
             //tell the agent about new productions and stuff
             //"elements" is the array of unexpanded code
@@ -429,19 +637,63 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
         
     }
     
-    private void addSourceToFileDatamap(String expandedSource, ISoarSourceRange tclSourceRange, SoarDatamap dm, IProgressMonitor monitor, ISoarProblemReporter reporter, List<AbstractSoarElement> elements) throws SoarModelException
+    /**
+     * Forget what the datamap problem markers of a file were computed from,
+     * so the next reparse validates it again. Call this after replacing the
+     * markers some other way.
+     * 
+     * @param file The file
+     */
+    public static void forgetDatamapValidation(IFile file)
     {
+        try
+        {
+            file.setSessionProperty(VALIDATION_KEY, null);
+        }
+        catch (CoreException e)
+        {
+            // The file is gone, so there are no markers to keep either
+        }
+    }
+    
+    private Object getValidationKey()
+    {
+        try
+        {
+            return file.getFile().getSessionProperty(VALIDATION_KEY);
+        }
+        catch (CoreException e)
+        {
+            return null;
+        }
+    }
+    
+    private void setValidationKey(Object key)
+    {
+        try
+        {
+            file.getFile().setSessionProperty(VALIDATION_KEY, key);
+        }
+        catch (CoreException e)
+        {
+            // The file is gone
+        }
+    }
+    
+    /**
+     * @return true if any production was added to the datamap
+     */
+    private boolean addSourceToFileDatamap(String expandedSource, ISoarSourceRange tclSourceRange, SoarDatamap dm, IProgressMonitor monitor, ISoarProblemReporter reporter, List<AbstractSoarElement> elements, Map<String, List<SoarProduction2>> previousExpanded) throws SoarModelException
+    {
+        boolean added = false;
         if(expandedSource == null)
         {
-            return;
+            return added;
         }
         
-        // Get the contents of the source
-        char[] contents = expandedSource.toCharArray();
-        
         // re-parse the tcl commands, this time with their expanded values
         TclParser parser = new TclParser();
-        parser.setInput(contents, 0, contents.length);
+        parser.setInput(expandedSource, 0, expandedSource.length());
         TclAstNode expandedRoot = parser.parse();
 
         //get the commands in the expanded tcl graph and make a datamap out of them
@@ -454,28 +706,43 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
                 List<TclAstNode> words = child.getWordChildren();
                 if(words.isEmpty())
                 {
-                    return;
+                    return added;
                 }
                 TclAstNode nameWord = words.get(0);
                 
-                String name = "";
-                for(int i = nameWord.getStart(); i < nameWord.getStart() + nameWord.getLength(); i++)
-                {
-                    name += contents[i];
-                }
+                String name = expandedSource.substring(nameWord.getStart(), 
+                                                       nameWord.getStart() + nameWord.getLength());
                 
                 //evaluate every sp we find
                 if(name.equals("sp"))
                 {
+                    //an sp with the same expanded text as last time is
+                    //already in the datamap
+                    String text = expandedSource.substring(child.getStart(), child.getStart() + child.getLength());
+                    SoarProduction2 p = takeProduction(previousExpanded, text);
+                    if(p != null)
+                    {
+                        p.rebase(tclSourceRange, elements);
+                        putProduction(expandedProductions, text, p);
+                        continue;
+                    }
+                    
                     //create a SoarProduction object from the TclAstNode
-                    ISoarProduction p = new SoarProduction2(this, tclSourceRange, reporter, child, expandedSource, elements);
+                    ProblemCountingReporter counter = new ProblemCountingReporter(reporter);
+                    p = new SoarProduction2(this, tclSourceRange, counter, child, expandedSource, elements);
                     
                     //add this SoarProduction to the datamap 
                     SoarDatamapAdditionResult result = dm.addProduction(p);
+                    added = true;
+                    
+                    //productions with problems are rebuilt every time so
+                    //their problems are reported again. They're filed under
+                    //null, which never matches, so they're still removed.
+                    putProduction(expandedProductions, counter.count == 0 ? text : null, p);
                 }
             }
         }
-        
+        return added;
     }
     
     private void processTclCommand(TclAstNode commandNode, 
@@ -611,4 +878,39 @@ public class SoarFileAgentProxy extends AbstractSoarElement implements ISoarFile
         }
     }
 
+    /**
+     * Forwards problems to another reporter and counts them.
+     */
+    private static class ProblemCountingReporter implements ISoarProblemReporter
+    {
+        private final ISoarProblemReporter delegate;
+        int count = 0;
+        
+        ProblemCountingReporter(ISoarProblemReporter delegate)
+        {
+            this.delegate = delegate;
+        }
+        
+        public void clear() throws SoarModelException
+        {
+            delegate.clear();
+        }
+        
+        public void report(SoarProblem problem) throws SoarModelException
+        {
+            ++count;
+            delegate.report(problem);
+        }
+        
+        public void apply() throws SoarModelException
+        {
+            delegate.apply();
+        }
+        
+        public List<SoarProblem> getProblems() throws SoarModelException
+        {
+            return delegate.getProblems();
+        }
+    }
+
 }
@@ -22,6 +22,7 @@ package com.soartech.soar.ide.core.model.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -46,6 +47,7 @@ import com.soartech.soar.ide.core.model.ISoarProject;
 import com.soartech.soar.ide.core.model.ITclHelpModel;
 import com.soartech.soar.ide.core.model.SoarModelEvent;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.SoarModelTools;
 
 /**
@@ -56,8 +58,12 @@ import com.soartech.soar.ide.core.model.SoarModelTools;
  */
 public class SoarModel extends AbstractSoarOpenable implements ISoarModel
 {
-    private List<ISoarModelListener> listeners = new ArrayList<ISoarModelListener>();
+    private final SoarModelLock lock = SoarModelLock.createModelLock();
+    private final CopyOnWriteArrayList<ISoarModelListener> listeners = new CopyOnWriteArrayList<ISoarModelListener>();
+    private final CopyOnWriteArrayList<SoarModelEventDispatcher.Registration> asyncListeners = new CopyOnWriteArrayList<SoarModelEventDispatcher.Registration>();
+    private final SoarModelEventDispatcher eventDispatcher = new SoarModelEventDispatcher(this);
     private SoarBufferManager bufferManager = new SoarBufferManager();
+    private TclInterpreterThreads tclThreads = new TclInterpreterThreads();
     
     private ProjectOpenListener projectOpenListener = new ProjectOpenListener();
     
@@ -82,6 +88,17 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
                 IResourceChangeEvent.POST_CHANGE);
     }
     
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.AbstractSoarElement#getLock()
+     */
+    @Override
+    public SoarModelLock getLock()
+    {
+        // The model's lock only guards the list of projects. Each project has
+        // its own lock.
+        return lock;
+    }
+    
     /**
      * @return The buffer manager for the model
      */
@@ -90,6 +107,24 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
         return bufferManager;
     }
     
+    /**
+     * @return The threads that agents' Tcl interpreters run on
+     */
+    public TclInterpreterThreads getTclThreads()
+    {
+        return tclThreads;
+    }
+    
+    /**
+     * Release resources held by the model. Called when the plugin is stopped.
+     */
+    public void dispose()
+    {
+        getWorkspace().removeResourceChangeListener(projectOpenListener);
+        tclThreads.shutdown();
+        eventDispatcher.dispose();
+    }
+    
     /**
      * Construct an ISoarProject object for the given Eclipse project. If the
      * project already exists, it is simply returned. Otherwise, a new one is
@@ -107,19 +142,36 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
             return null;
         }
         
-        synchronized(getLock())
+        openWhenClosed(null);
+        
+        // Queue the added event so it isn't fired while the model lock is 
+        // held. Listeners are free to lock projects.
+        beginModification();
+        try
         {
-            ISoarProject existing = getProject(project.getName());
-            if(existing != null)
+            getLock().acquireWrite();
+            try
             {
-                assert existing.getProject() == project;
-                return (SoarProject) existing;
+                ISoarProject existing = getProject(project.getName());
+                if(existing != null)
+                {
+                    assert existing.getProject() == project;
+                    return (SoarProject) existing;
+                }
+                
+                SoarProject soarProject = new SoarProject(this, project);
+                addChild(soarProject);
+                
+                return soarProject;
+            }
+            finally
+            {
+                getLock().releaseWrite();
             }
-            
-            SoarProject soarProject = new SoarProject(this, project);
-            addChild(soarProject);
-            
-            return soarProject;
+        }
+        finally
+        {
+            endModification();
         }
     }
     
@@ -132,7 +184,15 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
     public void removeSoarProject(ISoarProject project) throws SoarModelException
     {
         SoarProject soarProject = (SoarProject) project;
-        removeChild(soarProject);
+        beginModification();
+        try
+        {
+            removeChild(soarProject);
+        }
+        finally
+        {
+            endModification();
+        }
     }
     
     /**
@@ -144,20 +204,25 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
     {
         synchronized(queuedEvents)
         {
-            if(queuedEventsDepth == 0)
-            {
-                List<ISoarModelListener> safeListeners = new ArrayList<ISoarModelListener>(listeners);
-                for(ISoarModelListener listener : safeListeners)
-                {
-                    listener.onEvent(event);
-                }
-            }
-            else
+            if(queuedEventsDepth != 0)
             {
                 queuedEvents.add(event);
                 queuedTypedEvents[event.getType()] += event.getElements().length;
+                return;
             }
         }
+        
+        // Notify listeners without holding the queue lock. Listeners may lock
+        // projects which, in another thread, may be firing events. The 
+        // listener lists are copy-on-write, so iteration needs no lock.
+        for(ISoarModelListener listener : listeners)
+        {
+            listener.onEvent(event);
+        }
+        for(SoarModelEventDispatcher.Registration registration : asyncListeners)
+        {
+            registration.post(event);
+        }
     }
     
     public void beginModification()
@@ -170,6 +235,7 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
     
     public void endModification()
     {
+        SoarModelEvent[] events = null;
         synchronized (queuedEvents)
         {
             --queuedEventsDepth;
@@ -180,7 +246,7 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
             else if(queuedEventsDepth == 0)
             {
                 // Create initial composite events for each type of event, indexed by type
-                SoarModelEvent[] events = new SoarModelEvent[SoarModelEvent.MAX_ELEMENT_TYPE];
+                events = new SoarModelEvent[SoarModelEvent.MAX_ELEMENT_TYPE];
                 for(int i = 0; i < SoarModelEvent.MAX_ELEMENT_TYPE; ++i)
                 {
                     int count = queuedTypedEvents[i];
@@ -211,12 +277,15 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
                 // Reset queued event state 
                 queuedEvents.clear();
                 Arrays.fill(queuedTypedEvents, 0);
-                
-                // Fire composite events.
-                for(SoarModelEvent event : events)
-                {
-                    fireEvent(event);
-                }
+            }
+        }
+        
+        // Fire composite events.
+        if(events != null)
+        {
+            for(SoarModelEvent event : events)
+            {
+                fireEvent(event);
             }
         }
     }
@@ -226,9 +295,24 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
      */
     public void addListener(ISoarModelListener listener)
     {
-        if(!listeners.contains(listener))
+        listeners.addIfAbsent(listener);
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.ISoarModel#addListener(com.soartech.soar.ide.core.model.ISoarModelListener, long)
+     */
+    public void addListener(ISoarModelListener listener, long minIntervalMillis)
+    {
+        synchronized(asyncListeners)
         {
-            listeners.add(listener);
+            for(SoarModelEventDispatcher.Registration registration : asyncListeners)
+            {
+                if(registration.getListener() == listener)
+                {
+                    return;
+                }
+            }
+            asyncListeners.add(eventDispatcher.register(listener, minIntervalMillis));
         }
     }
 
@@ -240,27 +324,38 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
     {
         monitor = SoarModelTools.getSafeMonitor(monitor);
         
-        synchronized(getLock())
+        beginModification();
+        try
         {
-            beginModification();
+            getLock().acquireWrite();
             try
             {
-                super.open(monitor);
-                
-                for(IProject project : getWorkspace().getRoot().getProjects())
+                if(isOpen())
                 {
-                    if(project.isOpen() && SoarProject.hasNature(project))
-                    {
-                        SoarProject sp = createSoarProject(project);
-                        sp.open(monitor);
-                    }
+                    return;
                 }
+                super.open(monitor);
             }
             finally
             {
-                endModification();
+                getLock().releaseWrite();
+            }
+            
+            // Projects are opened without holding the model lock. See 
+            // SoarModelLock for lock ordering.
+            for(IProject project : getWorkspace().getRoot().getProjects())
+            {
+                if(project.isOpen() && SoarProject.hasNature(project))
+                {
+                    SoarProject sp = createSoarProject(project);
+                    sp.open(monitor);
+                }
             }
         }
+        finally
+        {
+            endModification();
+        }
     }
 
     /* (non-Javadoc)
@@ -268,7 +363,9 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
      */
     public ISoarProject getProject(String name) throws SoarModelException
     {
-        synchronized(getLock())
+        openWhenClosed(null);
+        getLock().acquireRead();
+        try
         {
             for(ISoarElement element : getChildren())
             {
@@ -283,6 +380,10 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
             }
             return null;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /* (non-Javadoc)
@@ -290,7 +391,9 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
      */
     public List<ISoarProject> getProjects() throws SoarModelException
     {
-        synchronized(getLock())
+        openWhenClosed(null);
+        getLock().acquireRead();
+        try
         {
             List<ISoarProject> projects = new ArrayList<ISoarProject>();
             for(ISoarElement element : getChildren())
@@ -302,6 +405,10 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
             }
             return projects;
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
 
@@ -319,6 +426,18 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
     public void removeListener(ISoarModelListener listener)
     {
         listeners.remove(listener);
+        synchronized(asyncListeners)
+        {
+            for(SoarModelEventDispatcher.Registration registration : asyncListeners)
+            {
+                if(registration.getListener() == listener)
+                {
+                    asyncListeners.remove(registration);
+                    registration.dispose();
+                    break;
+                }
+            }
+        }
     }
 
     /* (non-Javadoc)
@@ -352,12 +471,12 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
     public void makeConsistent(IProgressMonitor monitor) throws SoarModelException
     {
         monitor = SoarModelTools.getSafeMonitor(monitor);
-        synchronized (getLock())
+        
+        // getProjects() returns a copy, so each project is made consistent
+        // under its own lock without holding the model lock.
+        for(ISoarProject project : getProjects())
         {
-            for(ISoarProject project : getProjects())
-            {
-                project.makeConsistent(monitor);
-            }
+            project.makeConsistent(monitor);
         }
     }
 
@@ -372,17 +491,13 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
         }
         IProject project = file.getProject();
         
-        synchronized (getLock())
+        SoarProject soarProject = createSoarProject(project);
+        if(soarProject == null)
         {
-            SoarProject soarProject = createSoarProject(project);
-            if(soarProject == null)
-            {
-                return null;
-            }
-            
-            return soarProject.getOrCreateSoarFile(file);            
+            return null;
         }
-
+        
+        return soarProject.getOrCreateSoarFile(file);            
     }
 
     /* (non-Javadoc)
@@ -400,16 +515,13 @@ public class SoarModel extends AbstractSoarOpenable implements ISoarModel
             return null;
         }
         
-        synchronized (getLock())
+        SoarProject soarProject = createSoarProject(project);
+        if(soarProject == null)
         {
-            SoarProject soarProject = createSoarProject(project);
-            if(soarProject == null)
-            {
-                return null;
-            }
-            
-            return soarProject.getOrCreateSoarAgent(file);            
+            return null;
         }
+        
+        return soarProject.getOrCreateSoarAgent(file);            
     }
 
     /* (non-Javadoc)
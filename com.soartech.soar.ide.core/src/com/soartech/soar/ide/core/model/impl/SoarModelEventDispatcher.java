@@ -0,0 +1,339 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.model.ISoarElement;
+import com.soartech.soar.ide.core.model.ISoarModel;
+import com.soartech.soar.ide.core.model.ISoarModelListener;
+import com.soartech.soar.ide.core.model.ISoarProject;
+import com.soartech.soar.ide.core.model.SoarModelEvent;
+
+/**
+ * Delivers model events to listeners registered with 
+ * {@link ISoarModel#addListener(ISoarModelListener, long)}.
+ * 
+ * <p>Each listener has its own table of pending element changes. Events that
+ * arrive before the listener's next delivery are merged into the table, one
+ * entry per element, so a build that touches the same elements many times 
+ * reaches the listener as a few composite events. The table is bounded; when
+ * it overflows, pending elements are collapsed into CHANGED events on their
+ * projects.
+ * 
+ * <p>All deliveries run on a single daemon thread.
+ * 
+ * @author ray
+ */
+class SoarModelEventDispatcher
+{
+    /**
+     * Maximum number of pending elements per listener before they are 
+     * collapsed into their projects
+     */
+    static final int MAX_PENDING_ELEMENTS = 10000;
+    
+    private final ISoarModel model;
+    private final ScheduledExecutorService executor = 
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "Soar Model Events");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    
+    SoarModelEventDispatcher(ISoarModel model)
+    {
+        this.model = model;
+    }
+    
+    /**
+     * Create a registration for a listener. Events are delivered once they
+     * are posted to the returned registration.
+     * 
+     * @param listener The listener
+     * @param minIntervalMillis Minimum time between deliveries to the 
+     *      listener, in milliseconds
+     * @return The registration
+     */
+    Registration register(ISoarModelListener listener, long minIntervalMillis)
+    {
+        return new Registration(listener, minIntervalMillis);
+    }
+    
+    /**
+     * Stop the dispatch thread. Pending events are dropped.
+     */
+    void dispose()
+    {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * A listener along with its pending events
+     */
+    class Registration implements Runnable
+    {
+        private final ISoarModelListener listener;
+        private final long minIntervalMillis;
+        
+        // Guarded by this
+        private Map<ISoarElement, Integer> pending = new LinkedHashMap<ISoarElement, Integer>();
+        private boolean scheduled = false;
+        private boolean disposed = false;
+        private long lastDelivery = 0;
+        
+        private Registration(ISoarModelListener listener, long minIntervalMillis)
+        {
+            this.listener = listener;
+            this.minIntervalMillis = Math.max(0, minIntervalMillis);
+        }
+        
+        /**
+         * @return The registered listener
+         */
+        ISoarModelListener getListener()
+        {
+            return listener;
+        }
+        
+        /**
+         * Merge an event into this listener's pending events and schedule
+         * a delivery if one isn't already scheduled.
+         * 
+         * @param event The event
+         */
+        void post(SoarModelEvent event)
+        {
+            final ISoarElement[] elements = event.getElements();
+            if(elements.length == 0)
+            {
+                return;
+            }
+            
+            long delay;
+            synchronized(this)
+            {
+                if(disposed)
+                {
+                    return;
+                }
+                for(ISoarElement element : elements)
+                {
+                    merge(pending, element, event.getType());
+                }
+                if(pending.size() > MAX_PENDING_ELEMENTS)
+                {
+                    collapse();
+                }
+                delay = getScheduleDelay();
+            }
+            schedule(delay);
+        }
+        
+        /**
+         * Drop pending events and stop further deliveries.
+         */
+        synchronized void dispose()
+        {
+            disposed = true;
+            pending.clear();
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run()
+        {
+            Map<ISoarElement, Integer> events;
+            synchronized(this)
+            {
+                if(disposed)
+                {
+                    return;
+                }
+                events = pending;
+                pending = new LinkedHashMap<ISoarElement, Integer>();
+            }
+            
+            // Bin elements by type, in the same order endModification() 
+            // fires composite events.
+            List<List<ISoarElement>> byType = new ArrayList<List<ISoarElement>>();
+            for(int i = 0; i < SoarModelEvent.MAX_ELEMENT_TYPE; ++i)
+            {
+                byType.add(new ArrayList<ISoarElement>());
+            }
+            for(Map.Entry<ISoarElement, Integer> entry : events.entrySet())
+            {
+                byType.get(entry.getValue()).add(entry.getKey());
+            }
+            
+            for(int i = 0; i < SoarModelEvent.MAX_ELEMENT_TYPE; ++i)
+            {
+                List<ISoarElement> elements = byType.get(i);
+                if(elements.isEmpty())
+                {
+                    continue;
+                }
+                try
+                {
+                    listener.onEvent(new SoarModelEvent(elements.toArray(new ISoarElement[elements.size()]), i));
+                }
+                catch (RuntimeException e)
+                {
+                    SoarCorePlugin.log(e);
+                }
+            }
+            
+            long delay;
+            synchronized(this)
+            {
+                lastDelivery = System.currentTimeMillis();
+                scheduled = false;
+                delay = getScheduleDelay();
+            }
+            schedule(delay);
+        }
+        
+        /**
+         * Must be called while holding this registration's lock.
+         * 
+         * @return Delay until the next delivery should run, or -1 if no
+         *      delivery needs to be scheduled
+         */
+        private long getScheduleDelay()
+        {
+            if(scheduled || disposed || pending.isEmpty())
+            {
+                return -1;
+            }
+            scheduled = true;
+            return Math.max(0, lastDelivery + minIntervalMillis - System.currentTimeMillis());
+        }
+        
+        private void schedule(long delay)
+        {
+            if(delay < 0)
+            {
+                return;
+            }
+            try
+            {
+                executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // The dispatcher has been disposed
+            }
+        }
+        
+        /**
+         * Replace pending elements with CHANGED events on their projects. If
+         * that's still too many, replace everything with a single CHANGED
+         * event on the model. Must be called while holding this 
+         * registration's lock.
+         */
+        private void collapse()
+        {
+            Map<ISoarElement, Integer> collapsed = new LinkedHashMap<ISoarElement, Integer>();
+            for(Map.Entry<ISoarElement, Integer> entry : pending.entrySet())
+            {
+                ISoarElement element = entry.getKey();
+                ISoarProject project = element.getSoarProject();
+                if(project == null || project == element)
+                {
+                    merge(collapsed, element, entry.getValue());
+                }
+                else
+                {
+                    merge(collapsed, project, SoarModelEvent.ELEMENTS_CHANGED);
+                }
+            }
+            
+            if(collapsed.size() > MAX_PENDING_ELEMENTS)
+            {
+                collapsed.clear();
+                collapsed.put(model, SoarModelEvent.ELEMENTS_CHANGED);
+            }
+            pending = collapsed;
+        }
+    }
+    
+    /**
+     * Merge a change to an element into a table of pending changes. The
+     * table keeps a single net change per element:
+     * 
+     * <ul>
+     * <li>ADDED then REMOVED cancel out
+     * <li>REMOVED then ADDED becomes CHANGED
+     * <li>ADDED then CHANGED stays ADDED
+     * <li>CHANGED then REMOVED becomes REMOVED
+     * </ul>
+     * 
+     * @param pending The pending changes
+     * @param element The element
+     * @param type The event type
+     */
+    private static void merge(Map<ISoarElement, Integer> pending, ISoarElement element, int type)
+    {
+        Integer previous = pending.get(element);
+        if(previous == null)
+        {
+            pending.put(element, type);
+            return;
+        }
+        
+        switch(previous)
+        {
+        case SoarModelEvent.ELEMENTS_ADDED:
+            if(type == SoarModelEvent.ELEMENTS_REMOVED)
+            {
+                pending.remove(element);
+            }
+            break;
+        case SoarModelEvent.ELEMENTS_REMOVED:
+            if(type == SoarModelEvent.ELEMENTS_ADDED)
+            {
+                pending.put(element, SoarModelEvent.ELEMENTS_CHANGED);
+            }
+            break;
+        default:
+            if(type == SoarModelEvent.ELEMENTS_REMOVED)
+            {
+                pending.put(element, SoarModelEvent.ELEMENTS_REMOVED);
+            }
+            break;
+        }
+    }
+}
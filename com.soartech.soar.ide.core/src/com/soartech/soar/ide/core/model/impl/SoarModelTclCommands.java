@@ -19,6 +19,9 @@
  */
 package com.soartech.soar.ide.core.model.impl;
 
+import org.jsoar.kernel.SoarException;
+import org.jsoar.util.commands.SoarCommandInterpreter;
+
 import tcl.lang.Command;
 import tcl.lang.Interp;
 import tcl.lang.RelocatableTclInterpreter;
@@ -123,5 +126,25 @@ public class SoarModelTclCommands
         }
         interp.createCommand("winfo", WINFO_NULL_COMMAND);
     }
+    
+    /**
+     * Installs the null commands in the given JSoar interpreter. Since many of
+     * them are implemented by JSoar, only commands the interpreter doesn't
+     * already have are installed.
+     * 
+     * @param interp The interpreter
+     * @throws SoarException
+     */
+    public static void installNullCommands(SoarCommandInterpreter interp) throws SoarException
+    {
+        StringBuilder names = new StringBuilder();
+        for(String s : NOTHING_COMMANDS)
+        {
+            names.append(s).append(' ');
+        }
+        interp.eval("foreach c {" + names + "} {\n" +
+                    "    if {[llength [info commands ::$c]] == 0} { proc ::$c { args } { } }\n" +
+                    "}");
+    }
    
 }
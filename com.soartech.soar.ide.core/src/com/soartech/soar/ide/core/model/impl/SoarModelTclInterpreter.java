@@ -184,6 +184,21 @@ public class SoarModelTclInterpreter
         }
     }
     
+    /**
+     * Record the expanded body of a production as it is encountered while 
+     * sourcing. If a production with the same name has already been recorded
+     * it is replaced, just as Soar would replace the production.
+     * 
+     * @param info The expanded production info
+     */
+    void addExpandedProductionBody(ExpandedProductionInfo info)
+    {
+        synchronized(lock)
+        {
+            productionMap.put(info.name, info);
+        }
+    }
+    
 	/**
 	 * @return The map of expanded production info
 	 */
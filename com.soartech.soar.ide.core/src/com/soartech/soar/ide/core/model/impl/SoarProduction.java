@@ -22,6 +22,8 @@ package com.soartech.soar.ide.core.model.impl;
 import java.io.StringReader;
 import java.util.List;
 
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.BasicSoarSourceRange;
 import com.soartech.soar.ide.core.model.IExpandableElement;
 import com.soartech.soar.ide.core.model.IExpandedTclCode;
@@ -72,6 +74,12 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
     private String name = "";
     private SoarProductionAst ast;
     
+    // The body this production added to the agent datamap, and the result of
+    // adding it. Lets a reparse of the file hand the datamap support over to
+    // an identical production instead of rebuilding it.
+    private String datamapBody;
+    private SoarDatamapAdditionResult datamapResult;
+    
     public SoarProduction(SoarFileAgentProxy parent, ISoarProblemReporter reporter, TclAstNode astNode, String expandedSource) throws SoarModelException
     {
         super(parent, astNode, expandedSource);
@@ -146,7 +154,9 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
         if(!getSoarFile().isWorkingCopy())
         {
             ISoarAgent agent = getAgent();
-            if(agent != null)
+            // Productions kept for reuse by a reparse of the file are removed
+            // by the file afterwards if nothing takes them over
+            if(agent != null && !getSoarFile().isPreviousProduction(this))
             {
                 ISoarDatamap datamap = agent.getDatamap();
                 datamap.removeProduction(this);
@@ -186,7 +196,7 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
      */
     public String getExpandedSource() throws SoarModelException
     {
-        System.out.println("[SoarProduction] getExpandedSource() for " + name);
+        SoarMetrics.increment("Expanded production source requests");
         
         if(bodyInBraces)
         {
@@ -195,7 +205,7 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
         }
         
         SoarAgent agent = getAgent();
-        ExpandedProductionInfo info = agent.getExpandedProductionBody(name);
+        ExpandedProductionInfo info = agent.getExpandedProductionBody(name, getSoarFile().getFile().getFile());
         String namespace = info != null ? info.namespace : "::";
         if(!getSoarFile().isWorkingCopy())
         {
@@ -289,6 +299,15 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
         return true;
     }
     
+    /**
+     * @return The body this production added to the agent datamap, or null
+     *  if it hasn't added one
+     */
+    String getDatamapBody()
+    {
+        return datamapBody;
+    }
+    
     private SoarAgent getAgent()
     {
         return (SoarAgent) getSoarFile().getAgent();
@@ -301,19 +320,35 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
      * 
      * @throws SoarModelException
      */
-    private void addToDatamap(ISoarProblemReporter reporter) throws SoarModelException
+    private void addToDatamap(ISoarProblemReporter reporter, String bodySource) throws SoarModelException
     {
         ISoarDatamap datamap = null;
+        SoarDatamapAdditionResult result = null;
         if(!getSoarFile().isWorkingCopy())
         {
             datamap = getAgent().getDatamap();
+            
+            // If the file's previous parse had a production with this exact
+            // body, its datamap support is still right. Just take it over.
+            SoarProduction previous = getSoarFile().takePreviousProduction(bodySource);
+            if(previous != null)
+            {
+                datamap.replaceProduction(previous, this);
+                result = previous.datamapResult;
+            }
         }
         else
         {
             datamap = new SoarDatamap(); // temporary datamap
         }
         
-        SoarDatamapAdditionResult result = datamap.addProduction(this);
+        if(result == null)
+        {
+            result = datamap.addProduction(this);
+        }
+        datamapBody = bodySource;
+        datamapResult = result;
+        
         if(result.disconnectedVariables.isEmpty() && 
            result.unboundRhsFunctionVariables.isEmpty())
         {
@@ -376,9 +411,11 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
         
         try
         {
+            final long parseStart = SoarMetrics.start();
             ast = parser.soarProduction();
+            SoarMetrics.stop(BuildPhase.PRODUCTION_PARSING, parseStart);
             checkForPositiveConditions(reporter);
-            addToDatamap(reporter);
+            addToDatamap(reporter, bodySource);
             validateFunctionCalls(reporter);
         }
         catch (ParseException e)
@@ -453,7 +490,7 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
             // If the body's in braces, we can just parse it directly. Yay.
             if(isBodyInBraces())
             {
-                return bodyNode.getInternalText(buffer.getCharacters());
+                return bodyNode.getInternalText(buffer.getCharSequence());
             }
         }
         
@@ -461,7 +498,7 @@ public class SoarProduction extends TclCommand implements ISoarProduction, IExpa
         
         // If this isn't a working copy, maybe the expanded body was already 
         // stored in the agent during the last full Tcl processing pass
-        ExpandedProductionInfo info = agent.getExpandedProductionBody(name);
+        ExpandedProductionInfo info = agent.getExpandedProductionBody(name, getSoarFile().getFile().getFile());
         String namespace = info != null ? info.namespace : "::";
         if(!getSoarFile().isWorkingCopy())
         {
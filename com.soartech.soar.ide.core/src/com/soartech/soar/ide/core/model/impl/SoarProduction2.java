@@ -21,8 +21,11 @@ package com.soartech.soar.ide.core.model.impl;
 
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.BasicSoarSourceRange;
 import com.soartech.soar.ide.core.model.IExpandableElement;
 import com.soartech.soar.ide.core.model.IExpandedTclCode;
@@ -163,6 +166,28 @@ public class SoarProduction2 extends TclCommand implements ISoarProduction, IExp
         return tclSourceRange;
     }
 
+    /**
+     * @return the unexpanded elements of the file this production was
+     *  expanded from. Their source ranges are in file coordinates.
+     */
+    public List<AbstractSoarElement> getFileElements() {
+        return Collections.unmodifiableList(elements);
+    }
+
+    /**
+     * Point this production at a new parse of its file. Used when the file
+     * is reparsed and the production's expanded text hasn't changed, so it
+     * can stay in the file datamap as is.
+     * 
+     * @param tclSourceRange The range of the tcl macro it now comes from
+     * @param elements The unexpanded elements of the new parse
+     */
+    void rebase(ISoarSourceRange tclSourceRange, List<AbstractSoarElement> elements) {
+        this.tclSourceRange = tclSourceRange;
+        this.elements.clear();
+        this.elements.addAll(elements);
+    }
+
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.impl.AbstractSoarElement#detach()
      */
@@ -221,7 +246,7 @@ public class SoarProduction2 extends TclCommand implements ISoarProduction, IExp
         }
         
         SoarAgent agent = getAgent();
-        ExpandedProductionInfo info = agent.getExpandedProductionBody(name);
+        ExpandedProductionInfo info = agent.getExpandedProductionBody(name, getSoarFile().getFile().getFile());
         String namespace = info != null ? info.namespace : "::";
         if(!getSoarFile().isWorkingCopy())
         {
@@ -400,7 +425,9 @@ public class SoarProduction2 extends TclCommand implements ISoarProduction, IExp
         
         try
         {
+            final long parseStart = SoarMetrics.start();
             ast = parser.soarProduction();
+            SoarMetrics.stop(BuildPhase.PRODUCTION_PARSING, parseStart);
 //            checkForPositiveConditions(reporter);
 //            addToDatamap(reporter);
 //            validateFunctionCalls(reporter);
@@ -477,7 +504,7 @@ public class SoarProduction2 extends TclCommand implements ISoarProduction, IExp
             // If the body's in braces, we can just parse it directly. Yay.
             if(isBodyInBraces())
             {
-                return bodyNode.getInternalText(buffer.getCharacters());
+                return bodyNode.getInternalText(buffer.getCharSequence());
             }
         }
         
@@ -485,7 +512,7 @@ public class SoarProduction2 extends TclCommand implements ISoarProduction, IExp
         
         // If this isn't a working copy, maybe the expanded body was already 
         // stored in the agent during the last full Tcl processing pass
-        ExpandedProductionInfo info = agent.getExpandedProductionBody(name);
+        ExpandedProductionInfo info = agent.getExpandedProductionBody(name, getSoarFile().getFile().getFile());
         String namespace = info != null ? info.namespace : "::";
         if(!getSoarFile().isWorkingCopy())
         {
@@ -20,6 +20,7 @@
 package com.soartech.soar.ide.core.model.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -27,6 +28,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -54,7 +57,9 @@ import com.soartech.soar.ide.core.model.ISoarFile;
 import com.soartech.soar.ide.core.model.ISoarProject;
 import com.soartech.soar.ide.core.model.SoarModelEvent;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.SoarModelTools;
+import com.soartech.soar.ide.core.model.TclExpansionError;
 import com.soartech.soar.ide.core.model.impl.datamap.SoarDatamap;
 
 /**
@@ -67,7 +72,16 @@ public class SoarProject extends AbstractSoarOpenable
     public static final String AGENT_PRIORITIES = "agentPriorities";
     
     private IProject project;
+    private final SoarModelLock lock;
     private List<SoarAgent> agents = new ArrayList<SoarAgent>();
+    
+    /**
+     * The agents selecting each resource, in priority order. Built when first
+     * needed and dropped whenever the agents, their priorities or their 
+     * resource selections change.
+     */
+    private volatile Map<IResource, List<SoarAgent>> membershipIndex;
+    private final AtomicInteger membershipVersion = new AtomicInteger();
     private List<IFile> agentPriorities = new ArrayList<IFile>();
     private boolean needsFullRebuild = false;
     
@@ -83,6 +97,7 @@ public class SoarProject extends AbstractSoarOpenable
     {
         super(model);
         this.project = project;
+        this.lock = SoarModelLock.createProjectLock(project.getName());
         
         // Register for close and delete events so we can clean ourselves up.
         this.project.getWorkspace().addResourceChangeListener(projectCloseListener , 
@@ -114,6 +129,15 @@ public class SoarProject extends AbstractSoarOpenable
         }
     }
     
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.impl.AbstractSoarElement#getLock()
+     */
+    @Override
+    public SoarModelLock getLock()
+    {
+        return lock;
+    }
+    
     /**
      * Method called by the builder to clean a project out for rebuilding. No
      * one but SoarBuilder should call this! 
@@ -121,7 +145,8 @@ public class SoarProject extends AbstractSoarOpenable
      */
     public void clean() throws SoarModelException
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             System.out.println("Detaching Soar project from project " + project.getName());
             
@@ -130,10 +155,15 @@ public class SoarProject extends AbstractSoarOpenable
                 agent.detach();
             }
             agents.clear();
+            membershipChanged();
             
             soarFileMap.clear();
             clearChildren();
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     /**
@@ -146,7 +176,8 @@ public class SoarProject extends AbstractSoarOpenable
 
     protected void detach()
     {
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             System.out.println("Detaching Soar project from project " + project.getName());
             soarFileMap.clear();
@@ -156,11 +187,16 @@ public class SoarProject extends AbstractSoarOpenable
                 agent.detach();
             }
             agents.clear();
+            membershipChanged();
             
             // Don't need events any more
             project.getWorkspace().removeResourceChangeListener(projectCloseListener);
             super.detach();
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     private void readPreferences()
@@ -201,11 +237,16 @@ public class SoarProject extends AbstractSoarOpenable
             return;
         }
         
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             needsFullRebuild = true;
             storeAgentPriorities(prefs);
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
         try
         {
             prefs.flush();
@@ -238,7 +279,8 @@ public class SoarProject extends AbstractSoarOpenable
     
     public SoarAgent getOrCreateSoarAgent(IFile file) throws SoarModelException
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             ISoarAgent agent = getAgent(file);
             if(agent != null)
@@ -256,21 +298,32 @@ public class SoarProject extends AbstractSoarOpenable
             fireEvent(SoarModelEvent.createAdded(newAgent));
             return newAgent;
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     public void removeSoarAgent(SoarAgent agent)
     {
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             agents.remove(agent);
             agentPriorities.remove(agent.getFile());
+            membershipChanged();
             fireEvent(SoarModelEvent.createRemoved(agent));
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     public SoarFile getOrCreateSoarFile(IFile file) throws SoarModelException
     {
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             ISoarFile soarFile = getSoarFile(file);
             if(soarFile != null)
@@ -283,23 +336,53 @@ public class SoarProject extends AbstractSoarOpenable
             addChild(newSoarFile);
             return newSoarFile;
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     public ISoarFile getSoarFile(IFile file) throws SoarModelException
     {
-        synchronized(getLock())
+        getLock().acquireRead();
+        try
         {
             return soarFileMap.get(file);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
+    }
+    
+    /**
+     * @return All Soar files currently in the project
+     */
+    public List<SoarFile> getSoarFiles()
+    {
+        getLock().acquireRead();
+        try
+        {
+            return new ArrayList<SoarFile>(soarFileMap.values());
+        }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
     
     public void removeSoarFile(SoarFile soarFile) throws SoarModelException
     {
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
             soarFileMap.remove(soarFile.getFile());
             removeChild(soarFile);
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
         
     private List<IFile> getFiles() throws SoarModelException
@@ -351,6 +434,110 @@ public class SoarProject extends AbstractSoarOpenable
     private void sortAgents()
     {
         Collections.sort(agents, new AgentPriorityComparator());
+        membershipChanged();
+    }
+    
+    /**
+     * Drop the membership index. Called when the agents, their priorities
+     * or their resource selections change.
+     */
+    void membershipChanged()
+    {
+        membershipVersion.incrementAndGet();
+        membershipIndex = null;
+    }
+    
+    /**
+     * Find the agents that include a file in their resource selection. This
+     * is equivalent to asking every agent {@link SoarAgent#contains(IResource)},
+     * but only looks up the file and its folder in an index.
+     * 
+     * @param file The file
+     * @return The agents containing the file, in priority order
+     */
+    public List<SoarAgent> getAgentsContaining(IFile file)
+    {
+        Map<IResource, List<SoarAgent>> index = getMembershipIndex();
+        List<SoarAgent> direct = index.get(file);
+        List<SoarAgent> inFolder = file.getParent() != null ? index.get(file.getParent()) : null;
+        if(inFolder == null)
+        {
+            return direct != null ? direct : Collections.<SoarAgent>emptyList();
+        }
+        if(direct == null)
+        {
+            return inFolder;
+        }
+        
+        // Selected both ways by different agents. Merge back into priority
+        // order.
+        List<SoarAgent> result = new ArrayList<SoarAgent>();
+        getLock().acquireRead();
+        try
+        {
+            int i = 0, j = 0;
+            while(i < direct.size() || j < inFolder.size())
+            {
+                if(j == inFolder.size() || (i < direct.size() && 
+                   agents.indexOf(direct.get(i)) < agents.indexOf(inFolder.get(j))))
+                {
+                    result.add(direct.get(i++));
+                }
+                else
+                {
+                    result.add(inFolder.get(j++));
+                }
+            }
+        }
+        finally
+        {
+            getLock().releaseRead();
+        }
+        return result;
+    }
+    
+    private Map<IResource, List<SoarAgent>> getMembershipIndex()
+    {
+        Map<IResource, List<SoarAgent>> index = membershipIndex;
+        if(index != null)
+        {
+            return index;
+        }
+        
+        getLock().acquireRead();
+        try
+        {
+            final int version = membershipVersion.get();
+            index = new HashMap<IResource, List<SoarAgent>>();
+            for(SoarAgent agent : agents)
+            {
+                for(IResource member : agent.getMembers())
+                {
+                    List<SoarAgent> containing = index.get(member);
+                    if(containing == null)
+                    {
+                        containing = new ArrayList<SoarAgent>(1);
+                        index.put(member, containing);
+                    }
+                    containing.add(agent);
+                }
+            }
+            for(Map.Entry<IResource, List<SoarAgent>> e : index.entrySet())
+            {
+                e.setValue(Collections.unmodifiableList(e.getValue()));
+            }
+            
+            // Don't keep the index if a selection changed while it was built
+            if(version == membershipVersion.get())
+            {
+                membershipIndex = index;
+            }
+            return index;
+        }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
     /**
@@ -390,14 +577,12 @@ public class SoarProject extends AbstractSoarOpenable
      */
     public ISoarAgent getAgent(IFile file) throws SoarModelException
     {
-        synchronized (getLock())
+        // getAgents() returns a copy so no further locking is needed
+        for(ISoarAgent agent : getAgents())
         {
-            for(ISoarAgent agent : getAgents())
+            if(agent.getCorrespondingResource().equals(file))
             {
-                if(agent.getCorrespondingResource().equals(file))
-                {
-                    return agent;
-                }
+                return agent;
             }
         }
         return null;
@@ -408,11 +593,16 @@ public class SoarProject extends AbstractSoarOpenable
      */
     public List<ISoarAgent> getAgents() throws SoarModelException
     {
-        synchronized(getLock())
+        openWhenClosed(new NullProgressMonitor());
+        getLock().acquireRead();
+        try
         {
-            openWhenClosed(new NullProgressMonitor());
             return new ArrayList<ISoarAgent>(agents);
         }
+        finally
+        {
+            getLock().releaseRead();
+        }
     }
 
 
@@ -421,17 +611,9 @@ public class SoarProject extends AbstractSoarOpenable
      */
     public ISoarAgent getPreferredAgent(ISoarFile soarFile) throws SoarModelException
     {
-        synchronized(getLock())
-        {
-            for(ISoarAgent agent : getAgents())
-            {
-                if(agent.contains(soarFile.getFile()))
-                {
-                    return agent;
-                }
-            }
-        }
-        return null;
+        openWhenClosed(new NullProgressMonitor());
+        List<SoarAgent> containing = getAgentsContaining(soarFile.getFile());
+        return containing.isEmpty() ? null : containing.get(0);
     }
 
     /* (non-Javadoc)
@@ -439,9 +621,10 @@ public class SoarProject extends AbstractSoarOpenable
      */
     public void setAgentPriorities(List<ISoarAgent> newAgentPriorities) throws SoarModelException
     {
-        synchronized (getLock())
+        openWhenClosed(new NullProgressMonitor());
+        getLock().acquireWrite();
+        try
         {
-            openWhenClosed(new NullProgressMonitor());
             if(newAgentPriorities.equals(agents))
             {
                 System.out.println(getPath() + ": agent priorities unchanged. Ignoring.");
@@ -454,6 +637,10 @@ public class SoarProject extends AbstractSoarOpenable
             }
             sortAgents();
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
         
         // Saving project preferences causes a project build IN ANOTHER THREAD
         // so we have to make sure not to call this while holding the lock.
@@ -490,9 +677,26 @@ public class SoarProject extends AbstractSoarOpenable
      * @see com.soartech.soar.ide.core.model.ISoarOpenable#makeConsistent(org.eclipse.core.runtime.IProgressMonitor)
      */
     public void makeConsistent(IProgressMonitor monitor) throws SoarModelException
+    {
+        makeConsistent(monitor, null);
+    }
+    
+    /**
+     * Make the project consistent, only running Tcl preprocessing for some
+     * of its agents. The other agents keep the results of their previous
+     * preprocessing. This is used by incremental builds when a change can't
+     * affect every agent.
+     * 
+     * @param monitor The progress monitor
+     * @param agentsToProcess The agents to run Tcl preprocessing for, or 
+     *      null for all agents
+     * @throws SoarModelException
+     */
+    public void makeConsistent(IProgressMonitor monitor, Collection<SoarAgent> agentsToProcess) throws SoarModelException
     {
         monitor = SoarModelTools.getSafeMonitor(monitor);
-        synchronized(getLock())
+        getLock().acquireWrite();
+        try
         {
             try
             {
@@ -501,10 +705,46 @@ public class SoarProject extends AbstractSoarOpenable
                 updateProjectMarkers();
                 SoarModelTools.checkForCancellation(monitor);
                 
+                // Start Tcl processing for every agent at once. Each agent runs
+                // its own interpreter on its own thread so they proceed in 
+                // parallel. The results are then collected in agent priority
+                // order so that the model is updated deterministically.
+                List<Future<TclExpansionError>> results = new ArrayList<Future<TclExpansionError>>(agents.size());
                 for(SoarAgent agent : agents)
                 {
-                    agent.performTclPreprocessing(new SubProgressMonitor(monitor, 1));
-                    SoarModelTools.checkForCancellation(monitor);
+                    results.add(agentsToProcess == null || agentsToProcess.contains(agent) ? 
+                                    agent.beginTclPreprocessing() : null);
+                }
+                
+                try
+                {
+                    for(int i = 0; i < agents.size(); ++i)
+                    {
+                        if(results.get(i) != null)
+                        {
+                            agents.get(i).finishTclPreprocessing(results.get(i), 
+                                                                 new SubProgressMonitor(monitor, 1));
+                        }
+                        else
+                        {
+                            // The markers were all deleted above, so put back
+                            // the ones for agents that aren't being rerun.
+                            agents.get(i).reportTclPreprocessingError();
+                            monitor.worked(1);
+                        }
+                        SoarModelTools.checkForCancellation(monitor);
+                    }
+                }
+                finally
+                {
+                    // Don't leave interpreters running if we bailed out early
+                    for(Future<TclExpansionError> result : results)
+                    {
+                        if(result != null)
+                        {
+                            result.cancel(true);
+                        }
+                    }
                 }
             }
             finally
@@ -512,6 +752,10 @@ public class SoarProject extends AbstractSoarOpenable
                 monitor.done();
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
 
     /* (non-Javadoc)
@@ -526,8 +770,14 @@ public class SoarProject extends AbstractSoarOpenable
         }
         
         boolean rebuild = false;
-        synchronized (getLock())
+        getLock().acquireWrite();
+        try
         {
+            // Another thread may have opened the project while we waited
+            if(isOpen())
+            {
+                return;
+            }
             monitor = SoarModelTools.getSafeMonitor(monitor);
             try
             {
@@ -539,6 +789,10 @@ public class SoarProject extends AbstractSoarOpenable
                 monitor.done();
             }
         }
+        finally
+        {
+            getLock().releaseWrite();
+        }
         
         if(rebuild)
         {
@@ -686,7 +940,8 @@ public class SoarProject extends AbstractSoarOpenable
      */
     public void finishBuild(boolean incremental, IProgressMonitor monitor) throws SoarModelException 
     {
-    	synchronized( getLock() ) 
+        getLock().acquireWrite();
+        try
         {
             try
             {
@@ -708,7 +963,11 @@ public class SoarProject extends AbstractSoarOpenable
             {
                 monitor.done();
             }
-    	}
+        }
+        finally
+        {
+            getLock().releaseWrite();
+        }
     }
     
     private void makeSecondaryFilesConsistent(IProgressMonitor monitor) throws SoarModelException
@@ -29,6 +29,8 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 
 import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.ISoarProblemReporter;
 import com.soartech.soar.ide.core.model.SoarModelException;
 import com.soartech.soar.ide.core.model.SoarModelTools;
@@ -112,12 +114,14 @@ public class SoarResourceProblemReporter implements ISoarProblemReporter
      */
     public void apply() throws SoarModelException
     {
+        final long start = SoarMetrics.start();
         for(ProblemAction action : actions)
         {
             action.run();
         }
         actions.clear();
         problemsToAdd.clear();
+        SoarMetrics.stop(BuildPhase.MARKER_WRITING, SoarMetrics.FILE, resource.getFullPath(), start);
     }
 
     /* (non-Javadoc)
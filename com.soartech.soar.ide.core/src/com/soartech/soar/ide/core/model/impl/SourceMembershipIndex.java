@@ -0,0 +1,140 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Path;
+
+import com.soartech.soar.ide.core.SoarCorePlugin;
+
+/**
+ * Index of the files sourced by an agent during one Tcl preprocessing pass.
+ * Each path reported by the interpreter is canonicalized once, when the 
+ * index is built, and mapped to its workspace file if there is one. After 
+ * that, asking whether a file was sourced doesn't touch the file system.
+ * 
+ * <p>Instances are immutable.
+ */
+class SourceMembershipIndex
+{
+    static final SourceMembershipIndex EMPTY = new SourceMembershipIndex(
+            Collections.<String, IFile>emptyMap(), Collections.<IFile>emptySet());
+    
+    private final Map<String, IFile> filesByCanonicalPath;
+    private final Set<IFile> sourcedFiles;
+    
+    /**
+     * Build an index from the paths sourced by an interpreter
+     * 
+     * @param sourcedPaths The sourced paths, as reported by the interpreter
+     * @return The new index
+     */
+    static SourceMembershipIndex build(Collection<String> sourcedPaths)
+    {
+        if(sourcedPaths.isEmpty())
+        {
+            return EMPTY;
+        }
+        
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        Map<String, IFile> filesByCanonicalPath = new HashMap<String, IFile>();
+        Set<IFile> sourcedFiles = new LinkedHashSet<IFile>();
+        for(String path : new LinkedHashSet<String>(sourcedPaths))
+        {
+            String canonical;
+            try
+            {
+                canonical = new File(path).getCanonicalPath();
+            }
+            catch (IOException e)
+            {
+                // There isn't much we can do here except log it
+                SoarCorePlugin.log(e);
+                continue;
+            }
+            if(filesByCanonicalPath.containsKey(canonical))
+            {
+                continue;
+            }
+            
+            IFile file = root.getFileForLocation(new Path(canonical));
+            filesByCanonicalPath.put(canonical, file);
+            if(file != null)
+            {
+                sourcedFiles.add(file);
+            }
+        }
+        return new SourceMembershipIndex(filesByCanonicalPath, sourcedFiles);
+    }
+    
+    private SourceMembershipIndex(Map<String, IFile> filesByCanonicalPath, Set<IFile> sourcedFiles)
+    {
+        this.filesByCanonicalPath = filesByCanonicalPath;
+        this.sourcedFiles = Collections.unmodifiableSet(sourcedFiles);
+    }
+    
+    /**
+     * @param file A workspace file
+     * @return True if the file was sourced during the pass
+     */
+    boolean wasSourced(IFile file)
+    {
+        return sourcedFiles.contains(file);
+    }
+    
+    /**
+     * @param canonicalPath A canonical file system path
+     * @return True if the path was sourced during the pass
+     */
+    boolean wasSourced(String canonicalPath)
+    {
+        return filesByCanonicalPath.containsKey(canonicalPath);
+    }
+    
+    /**
+     * @param canonicalPath A canonical file system path
+     * @return The workspace file for a sourced path, or null if the path
+     *      wasn't sourced or is outside the workspace
+     */
+    IFile getFile(String canonicalPath)
+    {
+        return filesByCanonicalPath.get(canonicalPath);
+    }
+    
+    /**
+     * @return The workspace files sourced during the pass, in the order they
+     *      were first sourced
+     */
+    Set<IFile> getSourcedFiles()
+    {
+        return sourcedFiles;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.soartech.soar.ide.core.model.ISoarElement;
+import com.soartech.soar.ide.core.model.ISoarSourceRange;
+import com.soartech.soar.ide.core.model.ISoarSourceReference;
+import com.soartech.soar.ide.core.model.SoarModelException;
+
+/**
+ * Index over the source ranges of a list of elements, used to find the
+ * elements at an offset or in a range of a file without checking every 
+ * element.
+ * 
+ * <p>Ranges are sorted by offset and treated as an implicit balanced binary
+ * tree: the middle of each slice of the sorted arrays is the root of that 
+ * slice, and maxEnds holds the largest end offset in the subtree rooted 
+ * there. Queries skip subtrees that end before the range of interest or 
+ * start after it, so they cost O(log n) plus the number of matches.
+ * 
+ * <p>An index is immutable. {@link SoarFileAgentProxy} builds one the first
+ * time it's queried after its children change.
+ * 
+ * @author ray
+ */
+class SourceRangeIndex
+{
+    private final ISoarElement[] elements;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    
+    /**
+     * @param children Elements to index. Elements that aren't source 
+     *      references are left out.
+     * @throws SoarModelException
+     */
+    SourceRangeIndex(List<ISoarElement> children) throws SoarModelException
+    {
+        List<Entry> entries = new ArrayList<Entry>(children.size());
+        for(ISoarElement child : children)
+        {
+            if(child instanceof ISoarSourceReference)
+            {
+                ISoarSourceRange range = ((ISoarSourceReference) child).getSourceRange();
+                if(range != null)
+                {
+                    entries.add(new Entry(child, range.getOffset(), range.getEnd()));
+                }
+            }
+        }
+        
+        // Stable, so elements with the same offset stay in child order
+        Collections.sort(entries, new Comparator<Entry>() {
+
+            public int compare(Entry a, Entry b)
+            {
+                return a.start < b.start ? -1 : (a.start == b.start ? 0 : 1);
+            }});
+        
+        final int n = entries.size();
+        elements = new ISoarElement[n];
+        starts = new int[n];
+        ends = new int[n];
+        maxEnds = new int[n];
+        for(int i = 0; i < n; ++i)
+        {
+            Entry e = entries.get(i);
+            elements[i] = e.element;
+            starts[i] = e.start;
+            ends[i] = e.end;
+        }
+        computeMaxEnds(0, n);
+    }
+    
+    private int computeMaxEnds(int lo, int hi)
+    {
+        if(lo >= hi)
+        {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        int max = Math.max(ends[mid], Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+        maxEnds[mid] = max;
+        return max;
+    }
+    
+    /**
+     * Find the innermost element containing an offset. If several elements
+     * have the same, smallest range, the first one in the file is returned.
+     * 
+     * @param offset The offset
+     * @return The element, or null if no element contains the offset
+     */
+    ISoarElement getElementAt(int offset)
+    {
+        List<Integer> matches = new ArrayList<Integer>();
+        collect(0, elements.length, offset, offset + 1, matches);
+        
+        int best = -1;
+        for(int i : matches)
+        {
+            if(best == -1 || ends[i] - starts[i] < ends[best] - starts[best])
+            {
+                best = i;
+            }
+        }
+        return best != -1 ? elements[best] : null;
+    }
+    
+    /**
+     * Find the elements whose source ranges overlap a range.
+     * 
+     * @param offset Start of the range
+     * @param length Length of the range
+     * @return The elements, ordered by offset
+     */
+    List<ISoarElement> getElementsOverlapping(int offset, int length)
+    {
+        List<Integer> matches = new ArrayList<Integer>();
+        collect(0, elements.length, offset, offset + length, matches);
+        
+        List<ISoarElement> result = new ArrayList<ISoarElement>(matches.size());
+        for(int i : matches)
+        {
+            result.add(elements[i]);
+        }
+        return result;
+    }
+    
+    /**
+     * Collect, in order, the indexes in [lo, hi) of ranges that overlap
+     * [start, end).
+     */
+    private void collect(int lo, int hi, int start, int end, List<Integer> matches)
+    {
+        if(lo >= hi)
+        {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if(maxEnds[mid] <= start)
+        {
+            // Everything in this subtree ends before the range
+            return;
+        }
+        collect(lo, mid, start, end, matches);
+        if(starts[mid] >= end)
+        {
+            // This and everything to the right starts after the range
+            return;
+        }
+        if(ends[mid] > start)
+        {
+            matches.add(mid);
+        }
+        collect(mid + 1, hi, start, end, matches);
+    }
+    
+    private static class Entry
+    {
+        final ISoarElement element;
+        final int start;
+        final int end;
+        
+        Entry(ISoarElement element, int start, int end)
+        {
+            this.element = element;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
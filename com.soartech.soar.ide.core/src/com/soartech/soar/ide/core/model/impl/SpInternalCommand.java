@@ -1,9 +1,8 @@
 package com.soartech.soar.ide.core.model.impl;
 
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.StringReader;
+import java.util.Arrays;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IWorkspace;
@@ -13,24 +12,57 @@ import org.eclipse.core.runtime.Path;
 import org.jsoar.kernel.Agent;
 import org.jsoar.kernel.SoarException;
 import org.jsoar.kernel.commands.SpCommand;
+import org.jsoar.kernel.parser.ParserContext;
+import org.jsoar.kernel.parser.ParserException;
+import org.jsoar.util.SourceLocation;
+import org.jsoar.util.adaptables.Adaptables;
 import org.jsoar.util.commands.SoarCommand;
 import org.jsoar.util.commands.SoarCommandContext;
 
+/**
+ * Replacement for jsoar's sp command used while Tcl preprocessing an agent.
+ * Captures expanded production source and then either parses the production
+ * (the default, "IDE mode") or fully compiles it into the jsoar agent's rete.
+ * Parsing reports the same syntax errors as compiling without the time and
+ * heap cost of building rete nodes for every production on every build.
+ */
 public class SpInternalCommand implements SoarCommand {
 
     private final Agent agent;
     private SoarAgent soarAgent;
     
     private SpCommand command;
+    private boolean compileProductions;
 
     public SpInternalCommand(Agent agent, SoarAgent soarAgent)
+    {
+        this(agent, soarAgent, false);
+    }
+    
+    /**
+     * @param agent The jsoar agent
+     * @param soarAgent The agent being preprocessed
+     * @param compileProductions If true, productions are compiled into the 
+     *      jsoar agent's rete. Otherwise, they are only parsed.
+     */
+    public SpInternalCommand(Agent agent, SoarAgent soarAgent, boolean compileProductions)
     {
         this.agent = agent;
         this.soarAgent = soarAgent;
+        this.compileProductions = compileProductions;
         
         this.command = new SpCommand(agent);
     }
 
+    /**
+     * @param compileProductions If true, productions are compiled into the 
+     *      jsoar agent's rete. Otherwise, they are only parsed.
+     */
+    public void setCompileProductions(boolean compileProductions)
+    {
+        this.compileProductions = compileProductions;
+    }
+
     @Override
     public String execute(SoarCommandContext commandContext, String[] args) throws SoarException
     {
@@ -57,35 +89,122 @@ public class SpInternalCommand implements SoarCommand {
 	             String procKey = procNameAndArgs.replace("\"", "").replace("{", "").replace("}", "") + "__" + ifile.getFullPath().toOSString();
 //	             System.out.println("**** SpInternalCommand Adding key: " + procKey);
 	             
-	             String expSource = "";
-	             if(soarAgent.getExpandedSourceMap().containsKey(procKey) && 
-	                procKey.equals(soarAgent.getPreviousExpandedSourceKey()))
-	             {
-	                 //concat to the existing source if we're still adding to the same source key
-	                 expSource = soarAgent.getExpandedSourceMap().get(procKey) + "\n"; 
-	             }
-	             
-	             //save the expanded source for this production
-	             soarAgent.getExpandedSourceMap().put(procKey, expSource + args[0] + " \"" + args[1] + "\"");
-	             soarAgent.setPreviousExpandedSourceKey(procKey);
+	             //save the expanded source for this production. It is appended 
+	             //to the existing source if we're still adding to the same key
+	             ExpandedSourceCapture capture = soarAgent.getPendingExpandedSource();
+	             capture.append(procKey, args[0], args[1]);
 	             
 	             //save each procedure according to its file
-	             Map<String, List<String>> fileSourceMap = soarAgent.getFileSourceMap();
-	             if(!fileSourceMap.containsKey(filename))
-	             {
-	                 fileSourceMap.put(filename, new ArrayList<String>());
-	             }
-	             fileSourceMap.get(filename).add(procKey);
-             } else {
-            	 System.out.println("SpInternalCommand ignoring null IFile for: " + location);
+	             capture.addFileKey(filename, procKey);
              }
         }
         else
         {
-            soarAgent.setPreviousExpandedSourceKey("");
+            soarAgent.getPendingExpandedSource().endSequence();
+        }
+        
+        //save the fully expanded body so it doesn't have to be expanded again later
+        if(args.length >= 2)
+        {
+            captureExpandedBody(commandContext, args[1], Integer.parseInt(procLevel) > 0);
         }
         
-        return command.execute(commandContext, args);
+        if(compileProductions)
+        {
+            return command.execute(commandContext, args);
+        }
+        return parseProduction(commandContext, args);
+    }
+    
+    /**
+     * Parse and validate a production with jsoar's parser, but don't add it
+     * to the rete. Errors are reported exactly as jsoar's sp command would.
+     * 
+     * @param commandContext The command context
+     * @param args The sp command arguments
+     * @return The command result
+     * @throws SoarException if the production can't be parsed
+     */
+    private String parseProduction(final SoarCommandContext commandContext, String[] args) throws SoarException
+    {
+        if(args.length != 2)
+        {
+            throw new SoarException(String.format("%s: Expected %s body, got %s", 
+                    commandContext.getSourceLocation(), args[0], Arrays.asList(args)));
+        }
+        
+        ParserContext context = new ParserContext() {
+            
+            @Override
+            public Object getAdapter(Class<?> klass)
+            {
+                if(klass.equals(SourceLocation.class))
+                {
+                    return commandContext.getSourceLocation();
+                }
+                return Adaptables.adapt(agent, klass);
+            }
+        };
+        
+        try
+        {
+            agent.getProductions().getParser().parseProduction(context, new StringReader(args[1]));
+        }
+        catch (ParserException e)
+        {
+            throw new SoarException(commandContext.getSourceLocation() + ": " + e.getMessage());
+        }
+        return "";
+    }
+    
+    /**
+     * Record the expanded body of a production in the agent's interpreter so 
+     * that production parsing, hover and the expanded source viewer can use 
+     * it directly rather than re-expanding the production.
+     * 
+     * @param commandContext The command context
+     * @param body The expanded production body
+     * @param inProc True if the sp command was called from within a proc
+     * @throws SoarException
+     */
+    private void captureExpandedBody(SoarCommandContext commandContext, String body, boolean inProc) throws SoarException
+    {
+        SoarModelTclInterpreter interpreter = soarAgent.getInterpreter();
+        String name = getProductionName(body);
+        if(interpreter == null || name == null)
+        {
+            return;
+        }
+        
+        ExpandedProductionInfo info = new ExpandedProductionInfo();
+        info.name = name;
+        // At the top level we're always in the global namespace, so only ask
+        // the interpreter when we're inside a proc or namespace eval.
+        info.namespace = inProc ? agent.getInterpreter().eval("namespace current") : "::";
+        info.file = commandContext.getSourceLocation() != null ? commandContext.getSourceLocation().getFile() : null;
+        info.expandedBody = body;
+        
+        interpreter.addExpandedProductionBody(info);
+    }
+    
+    /**
+     * @param body The production body
+     * @return The name of the production, i.e. the first word of the body, or
+     *      null if the body is empty
+     */
+    private static String getProductionName(String body)
+    {
+        int start = 0;
+        while(start < body.length() && Character.isWhitespace(body.charAt(start)))
+        {
+            ++start;
+        }
+        int end = start;
+        while(end < body.length() && !Character.isWhitespace(body.charAt(end)))
+        {
+            ++end;
+        }
+        return start != end ? body.substring(start, end) : null;
     }
 
 }
@@ -65,7 +65,7 @@ public class TclCommand extends AbstractSourceReferenceElement implements ITclCo
         TclAstNode commentNode = astNode.getPrevious();
         if(commentNode != null && commentNode.getType() == TclAstNode.COMMENT)
         {
-            String text = commentNode.getInternalText(parent.getBuffer().getCharacters());
+            String text = commentNode.getInternalText(parent.getBuffer().getCharSequence());
             if(!text.startsWith(ISoarModelConstants.REGION_START) &&
                !text.startsWith(ISoarModelConstants.REGION_END) &&
                !text.contains(ISoarModelConstants.SOARDOC_FILE))
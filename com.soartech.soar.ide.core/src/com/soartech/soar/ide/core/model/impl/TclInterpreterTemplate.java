@@ -0,0 +1,333 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl;
+
+import org.eclipse.core.runtime.Platform;
+import org.jsoar.kernel.Agent;
+import org.jsoar.kernel.SoarException;
+import org.jsoar.tcl.SoarTclInterfaceFactory;
+import org.jsoar.util.commands.SoarCommandInterpreter;
+
+import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
+
+/**
+ * A pre-initialized Tcl interpreter that an agent's Tcl preprocessing starts
+ * from on every build.
+ * 
+ * <p>The interpreter is created once with the keyword stub procs from the 
+ * preferences, the {@link SoarModelTclCommands#NOTHING_COMMANDS} and the 
+ * {@link SpInternalCommand} hook. A snapshot of the commands, procs, 
+ * variables and arrays in all of its namespaces is then taken. For each 
+ * build the interpreter is reset to that snapshot by deleting everything the
+ * previous build defined and restoring everything it changed, which is much
+ * cheaper than building a new interpreter. If the previous build changed the
+ * interpreter in a way that can't be undone (renamed or redefined a built in
+ * command, left a directory pushed, etc.), or the keyword preferences 
+ * changed, a new interpreter is created instead.
+ * 
+ * <p>JTcl requires an interpreter to be created, used and disposed on the 
+ * same thread, so all methods must be called on the agent's interpreter 
+ * thread.
+ */
+public class TclInterpreterTemplate
+{
+    private static final String NAMESPACE = "::soar_ide_template";
+    
+    /**
+     * Records the interpreter's initial state and defines the reset proc. 
+     * Every namespace is snapshotted: its commands, its procs with their 
+     * arguments and bodies, and its variables with their values, including
+     * the contents of arrays. The reset proc returns 0 if the state can't be
+     * restored.
+     */
+    private static final String SNAPSHOT_SCRIPT = 
+        "namespace eval " + NAMESPACE + " {\n" +
+        "    variable commands\n" +
+        "    variable procs\n" +
+        "    variable namespaces\n" +
+        "    variable vars\n" +
+        "    variable scalars\n" +
+        "    variable arrays\n" +
+        "    proc walk {{ns ::}} {\n" +
+        "        set result [list $ns]\n" +
+        "        foreach child [namespace children $ns] {\n" +
+        "            if {![string equal $child " + NAMESPACE + "]} {\n" +
+        "                set result [concat $result [walk $child]]\n" +
+        "            }\n" +
+        "        }\n" +
+        "        return $result\n" +
+        "    }\n" +
+        "    proc names {kind ns} {\n" +
+        "        set prefix [string trimright $ns :]::\n" +
+        "        if {[string equal $kind procs]} {\n" +
+        "            set found [namespace eval $ns {info procs}]\n" +
+        "        } else {\n" +
+        "            set found [info $kind ${prefix}*]\n" +
+        "        }\n" +
+        "        set result {}\n" +
+        "        foreach n $found { lappend result $prefix[namespace tail $n] }\n" +
+        "        return $result\n" +
+        "    }\n" +
+        "    proc definition {p} {\n" +
+        "        set spec {}\n" +
+        "        foreach a [info args $p] {\n" +
+        "            if {[info default $p $a d]} { lappend spec [list $a $d] } else { lappend spec $a }\n" +
+        "        }\n" +
+        "        return [list $spec [info body $p]]\n" +
+        "    }\n" +
+        "    proc same {v contents} {\n" +
+        "        if {![array exists $v] || [array size $v] != [llength $contents] / 2} { return 0 }\n" +
+        "        foreach {k value} $contents {\n" +
+        "            if {![info exists ${v}($k)] || ![string equal [set ${v}($k)] $value]} { return 0 }\n" +
+        "        }\n" +
+        "        return 1\n" +
+        "    }\n" +
+        "    proc snapshot {} {\n" +
+        "        variable commands\n" +
+        "        variable procs\n" +
+        "        variable namespaces\n" +
+        "        variable vars\n" +
+        "        variable scalars\n" +
+        "        variable arrays\n" +
+        "        foreach ns [walk] {\n" +
+        "            set namespaces($ns) 1\n" +
+        "            foreach c [names commands $ns] { set commands($c) 1 }\n" +
+        "            foreach p [names procs $ns] { set procs($p) [definition $p] }\n" +
+        "            foreach v [names vars $ns] {\n" +
+        "                set vars($v) 1\n" +
+        "                if {[array exists $v]} {\n" +
+        "                    set arrays($v) [array get $v]\n" +
+        "                } else {\n" +
+        "                    catch { set scalars($v) [set $v] }\n" +
+        "                }\n" +
+        "            }\n" +
+        "        }\n" +
+        "    }\n" +
+        "    proc reset {} {\n" +
+        "        variable commands\n" +
+        "        variable procs\n" +
+        "        variable namespaces\n" +
+        "        variable vars\n" +
+        "        variable scalars\n" +
+        "        variable arrays\n" +
+        "        if {![catch {popd}]} { return 0 }\n" +
+        "        foreach c [array names commands] {\n" +
+        "            if {[llength [info commands $c]] == 0 && ![info exists procs($c)]} { return 0 }\n" +
+        "        }\n" +
+        "        foreach ns [walk] {\n" +
+        "            foreach p [names procs $ns] {\n" +
+        "                if {![info exists procs($p)] && [info exists commands($p)]} { return 0 }\n" +
+        "            }\n" +
+        "        }\n" +
+        "        foreach ns [walk] {\n" +
+        "            if {![info exists namespaces($ns)]} {\n" +
+        "                catch { namespace delete $ns }\n" +
+        "                continue\n" +
+        "            }\n" +
+        "            foreach c [names commands $ns] {\n" +
+        "                if {![info exists commands($c)]} { rename $c {} }\n" +
+        "            }\n" +
+        "            foreach v [names vars $ns] {\n" +
+        "                if {![info exists vars($v)]} { catch { unset $v } }\n" +
+        "            }\n" +
+        "        }\n" +
+        "        foreach ns [array names namespaces] { namespace eval $ns {} }\n" +
+        "        foreach p [array names procs] {\n" +
+        "            if {[catch {definition $p} d] || ![string equal $d $procs($p)]} {\n" +
+        "                proc $p [lindex $procs($p) 0] [lindex $procs($p) 1]\n" +
+        "            }\n" +
+        "        }\n" +
+        "        foreach v [array names scalars] {\n" +
+        "            if {[array exists $v]} { catch { unset $v } }\n" +
+        "            catch { set $v $scalars($v) }\n" +
+        "        }\n" +
+        "        foreach v [array names arrays] {\n" +
+        "            if {![same $v $arrays($v)]} {\n" +
+        "                catch { unset $v }\n" +
+        "                catch { array set $v $arrays($v) }\n" +
+        "            }\n" +
+        "        }\n" +
+        "        return 1\n" +
+        "    }\n" +
+        "    snapshot\n" +
+        "}";
+    
+    private final Agent agent;
+    private final SpInternalCommand spCommand;
+    
+    private SoarCommandInterpreter interp;
+    private String keywords;
+    private String workingDirectory;
+    
+    /**
+     * @param agent The jsoar agent the interpreter is created for
+     * @param soarAgent The agent being preprocessed
+     */
+    public TclInterpreterTemplate(Agent agent, SoarAgent soarAgent)
+    {
+        this.agent = agent;
+        this.spCommand = new SpInternalCommand(agent, soarAgent);
+    }
+    
+    /**
+     * Returns the interpreter, in its initial state, for a new build. The 
+     * interpreter is registered with the jsoar agent.
+     * 
+     * @param compileProductions If true, productions are compiled into the 
+     *      jsoar agent's rete. Otherwise they are only parsed.
+     * @return The interpreter
+     */
+    public SoarCommandInterpreter acquire(boolean compileProductions)
+    {
+        String keywords = Platform.getPreferencesService().getString("com.soartech.soar.ide.ui", "keywords", "", null);
+        if(interp == null || !keywords.equals(this.keywords) || !reset())
+        {
+            create(keywords);
+        }
+        spCommand.setCompileProductions(compileProductions);
+        
+        return interp;
+    }
+    
+    /**
+     * Dispose the interpreter. The next call to {@link #acquire(boolean)} 
+     * will create a new one.
+     */
+    public void dispose()
+    {
+        // This will cause the interpreter to be disposed in JSoar
+        agent.setInterpreter(null);
+        interp = null;
+    }
+    
+    private void create(String keywords)
+    {
+        final long start = SoarMetrics.start();
+        
+        // This will cause the previous one to be disposed in JSoar
+        agent.setInterpreter(null);
+        
+        // Create a TCL command interpreter for the agent
+        SoarTclInterfaceFactory factory = new SoarTclInterfaceFactory();
+        interp = factory.create(agent);
+        agent.setInterpreter(interp);
+        
+        installStubs(keywords);
+        
+        //add the command for spInternal
+        interp.addCommand("sp", spCommand);
+        
+        try
+        {
+            interp.eval(SNAPSHOT_SCRIPT);
+        }
+        catch (SoarException e)
+        {
+            // Without the snapshot, reset() fails and a new interpreter is 
+            // created for each build, just as if there were no template.
+            SoarCorePlugin.log(e);
+        }
+        
+        this.keywords = keywords;
+        this.workingDirectory = interp.getWorkingDirectory();
+        
+        SoarMetrics.stop("Tcl interpreter creation", start);
+    }
+    
+    /**
+     * Adds stub procs to the interpreter to avoid errors for commands that 
+     * are in CSoar but not JSoar
+     * 
+     * @param keywords The keywords from the preferences, separated by ';'
+     */
+    private void installStubs(String keywords)
+    {
+        for(String keyword : keywords.split(";"))
+        {
+            //The list will be empty if the user hasn't added any custom commands, so we avoid creating
+            //an error with the proc call
+            if(keyword.length() == 0)
+            {
+                continue;
+            }
+            try
+            {
+                interp.eval("proc " + keyword + " { args } { }");
+            }
+            catch (SoarException e)
+            {
+                SoarCorePlugin.log(e);
+            }
+        }
+        
+        // some commands should be ignored, because they aren't important for Soar IDE's functionality but can fail in this environment
+        // which causes problems
+        // FIXME: this should be rolled into a more general command-ignoring capability, as most commands probably should be ignored
+        try
+        {
+            interp.eval("proc script { args } { }");
+            SoarModelTclCommands.installNullCommands(interp);
+        }
+        catch (SoarException e)
+        {
+            SoarCorePlugin.log(e);
+        }
+    }
+    
+    /**
+     * Reset the interpreter to the snapshot taken when it was created.
+     * 
+     * @return true if the interpreter was reset, false if a new one must be
+     *      created
+     */
+    private boolean reset()
+    {
+        final long start = SoarMetrics.start();
+        try
+        {
+            // The working directory alone misses a pushd that was undone 
+            // with cd, so the reset proc also checks the directory stack is
+            // empty.
+            if(!workingDirectory.equals(interp.getWorkingDirectory()))
+            {
+                return false;
+            }
+            if(!"1".equals(interp.eval(NAMESPACE + "::reset")))
+            {
+                return false;
+            }
+            
+            // The agent's files are determined from this list, so files 
+            // sourced by previous builds must not show up in it.
+            interp.getSourcedFiles().clear();
+            return true;
+        }
+        catch (SoarException | UnsupportedOperationException e)
+        {
+            SoarCorePlugin.log(e);
+            return false;
+        }
+        finally
+        {
+            SoarMetrics.stop("Tcl interpreter reset", start);
+        }
+    }
+}
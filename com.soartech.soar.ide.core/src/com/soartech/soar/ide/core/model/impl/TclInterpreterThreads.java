@@ -0,0 +1,217 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jsoar.kernel.Agent;
+import org.jsoar.tcl.SoarTclInterfaceFactory;
+import org.jsoar.util.commands.SoarCommandInterpreter;
+
+/**
+ * A bounded, model-wide set of threads that Tcl interpreters are created,
+ * evaluated and disposed on. JTcl requires an interpreter to be used and 
+ * disposed from the thread that created it, so each thread is a single 
+ * thread executor and an agent keeps the same thread, through a 
+ * {@link Lease}, for as long as its interpreter is alive. Agents sharing a
+ * thread are simply processed one after the other.
+ * 
+ * <p>Threads are created lazily, up to the number of available processors,
+ * and new leases go to the thread with the fewest leases.
+ */
+public class TclInterpreterThreads
+{
+    private static final int MAX_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    
+    private static boolean classesPreloaded = false;
+    
+    private final List<Lane> lanes = new ArrayList<Lane>();
+    private boolean shutdown = false;
+    
+    /**
+     * Lease a thread for the create/evaluate/dispose cycle of an interpreter.
+     * The lease must be released with {@link Lease#release()} once the 
+     * interpreter has been disposed.
+     * 
+     * @return A new lease
+     */
+    public Lease lease()
+    {
+        preloadClasses();
+        
+        synchronized(lanes)
+        {
+            if(shutdown)
+            {
+                throw new IllegalStateException("Tcl interpreter threads have been shut down");
+            }
+            
+            Lane best = null;
+            for(Lane lane : lanes)
+            {
+                if(best == null || lane.leases < best.leases)
+                {
+                    best = lane;
+                }
+            }
+            if(best == null || (best.leases > 0 && lanes.size() < MAX_THREADS))
+            {
+                best = new Lane(lanes.size() + 1);
+                lanes.add(best);
+            }
+            best.leases++;
+            return new Lease(best);
+        }
+    }
+    
+    /**
+     * Stop all threads. Outstanding leases may no longer be used.
+     */
+    public void shutdown()
+    {
+        synchronized(lanes)
+        {
+            shutdown = true;
+            for(Lane lane : lanes)
+            {
+                lane.executor.shutdownNow();
+            }
+            lanes.clear();
+        }
+    }
+    
+    /**
+     * HACK
+     * 
+     * This function helps avoid class loader problems in other threads by
+     * exercising the creation classes on a temporary agent. It only has to 
+     * be done once per JVM.
+     */
+    private static synchronized void preloadClasses()
+    {
+        if(classesPreloaded)
+        {
+            return;
+        }
+        
+        Agent tempAgent = new Agent(null, true);
+        SoarTclInterfaceFactory fac = new SoarTclInterfaceFactory();
+        SoarCommandInterpreter sti = fac.create(tempAgent);
+        tempAgent.setInterpreter(sti);
+        tempAgent.setInterpreter(null);
+        new SoarModelTclInterpreter(tempAgent.getInterpreter());
+        
+        classesPreloaded = true;
+    }
+    
+    /**
+     * A single interpreter thread and the number of leases on it. Guarded
+     * by the lanes list.
+     */
+    private static class Lane
+    {
+        final ExecutorService executor;
+        int leases = 0;
+        
+        Lane(final int index)
+        {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "Soar Tcl Interpreter " + index);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+    
+    /**
+     * A lease on one interpreter thread. Everything submitted through the 
+     * same lease runs on the same thread, in order.
+     */
+    public class Lease
+    {
+        private Lane lane;
+        
+        private Lease(Lane lane)
+        {
+            this.lane = lane;
+        }
+        
+        /**
+         * Run a task on the leased thread
+         * 
+         * @param task The task
+         * @return Future result of the task
+         */
+        public <T> Future<T> submit(Callable<T> task)
+        {
+            return getLane().executor.submit(task);
+        }
+        
+        /**
+         * Run a task on the leased thread
+         * 
+         * @param task The task
+         * @return Future that completes with the task
+         */
+        public Future<?> submit(Runnable task)
+        {
+            return getLane().executor.submit(task);
+        }
+        
+        /**
+         * Give the thread back. The lease may not be used afterwards. 
+         * Releasing more than once is a noop.
+         */
+        public void release()
+        {
+            synchronized(lanes)
+            {
+                if(lane != null)
+                {
+                    lane.leases--;
+                    lane = null;
+                }
+            }
+        }
+        
+        private Lane getLane()
+        {
+            synchronized(lanes)
+            {
+                if(lane == null)
+                {
+                    throw new IllegalStateException("Tcl interpreter thread lease has been released");
+                }
+                return lane;
+            }
+        }
+    }
+}
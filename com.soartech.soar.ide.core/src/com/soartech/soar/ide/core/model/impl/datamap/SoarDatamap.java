@@ -24,11 +24,12 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.ISoarProduction;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
@@ -55,8 +56,20 @@ public class SoarDatamap implements ISoarDatamap
     private int modificationLevel = 0;
     private SoarDatamapEvent modificationEvent;
     private Set<SoarDatamapAttribute> attributes = new HashSet<SoarDatamapAttribute>();
+    
+    // Reverse index from each production to the attributes it supports, so
+    // removeProduction() doesn't have to visit every attribute.
+    private Map<ISoarProduction, Set<SoarDatamapAttribute>> productionAttributes = new HashMap<ISoarProduction, Set<SoarDatamapAttribute>>();
     private Object lock = new Object();
     
+    // Published at the end of each modification, for lock-free readers.
+    // changedNodes holds the nodes changed since it was last published.
+    // Changes made outside a modification only mark the snapshot stale; the
+    // next getSnapshot() publishes them all at once.
+    private volatile SoarDatamapSnapshot snapshot;
+    private volatile boolean snapshotStale = false;
+    private Set<SoarDatamapNode> changedNodes = new HashSet<SoarDatamapNode>();
+    
     private ISoarAgent agent = null;
     
     /**
@@ -65,6 +78,7 @@ public class SoarDatamap implements ISoarDatamap
     public SoarDatamap()
     {
         this.state = new SoarDatamapNode(this, 'S');
+        this.snapshot = new SoarDatamapSnapshot(this, state, null, changedNodes);
     }
     
     /**
@@ -164,6 +178,10 @@ public class SoarDatamap implements ISoarDatamap
             
             state = new SoarDatamapNode(this, 'S');
             attributes.clear();
+            productionAttributes.clear();
+            changedNodes.clear();
+            snapshotStale = false;
+            snapshot = new SoarDatamapSnapshot(this, state, null, changedNodes);
             
             fireEvent(e);
         }
@@ -225,6 +243,73 @@ public class SoarDatamap implements ISoarDatamap
         }
     }
     
+    /**
+     * Called when a node's attributes or values change, or when the support
+     * of one of its attributes changes. Outside of a modification the 
+     * snapshot is marked stale and published when it's next asked for, so
+     * a run of changes costs one snapshot rather than one per change.
+     * 
+     * @param node The changed node
+     */
+    void onNodeChanged(SoarDatamapNode node)
+    {
+        changedNodes.add(node);
+        if(!isInModification())
+        {
+            snapshotStale = true;
+        }
+    }
+    
+    private void publishSnapshot()
+    {
+        synchronized(getLock())
+        {
+            snapshotStale = false;
+            if(modificationLevel > 0 || changedNodes.isEmpty())
+            {
+                return;
+            }
+            snapshot = new SoarDatamapSnapshot(this, state, snapshot, changedNodes);
+            changedNodes.clear();
+        }
+    }
+    
+    /**
+     * Called when a production starts supporting an attribute.
+     * 
+     * @param p The production
+     * @param e The attribute
+     */
+    void onSupportAdded(ISoarProduction p, SoarDatamapAttribute e)
+    {
+        Set<SoarDatamapAttribute> supported = productionAttributes.get(p);
+        if(supported == null)
+        {
+            supported = new HashSet<SoarDatamapAttribute>();
+            productionAttributes.put(p, supported);
+        }
+        supported.add(e);
+    }
+    
+    /**
+     * Called when a production stops supporting an attribute.
+     * 
+     * @param p The production
+     * @param e The attribute
+     */
+    void onSupportRemoved(ISoarProduction p, SoarDatamapAttribute e)
+    {
+        Set<SoarDatamapAttribute> supported = productionAttributes.get(p);
+        if(supported != null)
+        {
+            supported.remove(e);
+            if(supported.isEmpty())
+            {
+                productionAttributes.remove(p);
+            }
+        }
+    }
+    
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getLock()
      */
@@ -233,6 +318,18 @@ public class SoarDatamap implements ISoarDatamap
         return lock;
     }
 
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getSnapshot()
+     */
+    public ISoarDatamap getSnapshot()
+    {
+        if(snapshotStale)
+        {
+            publishSnapshot();
+        }
+        return snapshot;
+    }
+
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getState()
      */
@@ -241,6 +338,20 @@ public class SoarDatamap implements ISoarDatamap
         return state;
     }
 
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getAttribute(com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute)
+     */
+    public ISoarDatamapAttribute getAttribute(ISoarDatamapAttribute attribute)
+    {
+        SoarDatamapAttribute key = SoarDatamapSnapshot.getKey(attribute);
+        if(key == null || key.getDatamap() != this)
+        {
+            return null;
+        }
+        // Removed attributes are dropped from their source node
+        return key.getSource().getAttribute(key.getName()) == key ? key : null;
+    }
+
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#addListener(com.soartech.soar.ide.core.model.datamap.ISoarDatamapListener)
      */
@@ -272,10 +383,25 @@ public class SoarDatamap implements ISoarDatamap
      */
     public SoarDatamapAdditionResult addProduction(ISoarProduction p)
     {
+        final long start = SoarMetrics.start();
         synchronized(getLock())
         {
-            DatamapBuilder builder = new DatamapBuilder();
-            return builder.addProduction(this, p);
+            try
+            {
+                DatamapBuilder builder = new DatamapBuilder();
+                return builder.addProduction(this, p);
+            }
+            finally
+            {
+                if(agent != null)
+                {
+                    SoarMetrics.stop(BuildPhase.DATAMAP_BUILDING, SoarMetrics.AGENT, agent.getName(), start);
+                }
+                else
+                {
+                    SoarMetrics.stop(BuildPhase.DATAMAP_BUILDING, start);
+                }
+            }
         }
     }
     
@@ -286,20 +412,27 @@ public class SoarDatamap implements ISoarDatamap
     {
         synchronized(getLock())
         {
+            // Only the attributes the production supports need to change.
+            // Values the production added live on their targets, and are
+            // removed along with the support.
+            Set<SoarDatamapAttribute> supported = productionAttributes.remove(p);
+            if(supported == null)
+            {
+                return;
+            }
+            
             beginModification();
             try
             {
-                Iterator<SoarDatamapAttribute> it = attributes.iterator();
-                while(it.hasNext())
+                for(SoarDatamapAttribute a : supported)
                 {
-                    SoarDatamapAttribute a = it.next();
-                    // Remove the production from the attribute, disabling notification
-                    // to avoid concurrent modification of the set we're iterating
-                    // over.
+                    // Remove the production from the attribute, disabling 
+                    // notification so the removal is batched into the
+                    // modification event.
                     if(a.removeSupportingProduction(p, false))
                     {
                         modificationEvent.removed.add(a);
-                        it.remove(); 
+                        attributes.remove(a);
                     }
                 }
             }
@@ -310,12 +443,54 @@ public class SoarDatamap implements ISoarDatamap
         }
     }
 
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#replaceProduction(com.soartech.soar.ide.core.model.ISoarProduction, com.soartech.soar.ide.core.model.ISoarProduction)
+     */
+    public void replaceProduction(ISoarProduction oldProduction, ISoarProduction newProduction)
+    {
+        synchronized(getLock())
+        {
+            Set<SoarDatamapAttribute> supported = productionAttributes.remove(oldProduction);
+            if(supported == null)
+            {
+                return;
+            }
+            
+            beginModification();
+            try
+            {
+                for(SoarDatamapAttribute a : supported)
+                {
+                    a.replaceSupportingProduction(oldProduction, newProduction);
+                    modificationEvent.modified.add(a);
+                }
+                
+                Set<SoarDatamapAttribute> existing = productionAttributes.get(newProduction);
+                if(existing != null)
+                {
+                    existing.addAll(supported);
+                }
+                else
+                {
+                    productionAttributes.put(newProduction, supported);
+                }
+            }
+            finally
+            {
+                endModification();
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#beginModification()
      */
     public void beginModification()
     {
         ++modificationLevel;
+        // Earlier changes are published with this modification, so readers
+        // don't wait on the lock for them in the meantime.
+        snapshotStale = false;
         if(modificationEvent == null)
         {
             assert modificationLevel == 1;
@@ -349,6 +524,7 @@ public class SoarDatamap implements ISoarDatamap
         if(modificationLevel == 0)
         {
             assert modificationEvent != null;
+            publishSnapshot();
             fireEvent(modificationEvent);
             modificationEvent = null;
         }
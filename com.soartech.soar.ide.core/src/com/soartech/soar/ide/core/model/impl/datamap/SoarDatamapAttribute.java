@@ -101,6 +101,7 @@ public class SoarDatamapAttribute implements ISoarDatamapAttribute
                     ProductionInfo info = new ProductionInfo();
                     info.usage = pr.getUsage();
                     productions.put(p, info);
+                    datamap.onSupportAdded(p, this);
                 }
                 else
                 {
@@ -146,6 +147,13 @@ public class SoarDatamapAttribute implements ISoarDatamapAttribute
     private void remove(boolean notify)
     {
         source.removeAttribute(this);
+        if(productions != null)
+        {
+            for(ISoarProduction p : productions.keySet())
+            {
+                datamap.onSupportRemoved(p, this);
+            }
+        }
         if(notify)
         {
             datamap.onAttributeRemoved(this);
@@ -267,7 +275,9 @@ public class SoarDatamapAttribute implements ISoarDatamapAttribute
                 info = new ProductionInfo();
                 info.usage = usage;
                 productions.put(p, info);
+                datamap.onSupportAdded(p, this);
             }
+            datamap.onNodeChanged(source);
         }
     }
     
@@ -306,6 +316,8 @@ public class SoarDatamapAttribute implements ISoarDatamapAttribute
             {
                 return false;
             }
+            datamap.onSupportRemoved(p, this);
+            datamap.onNodeChanged(source);
             
             if(!isPersistent() && productions.isEmpty())
             {
@@ -316,6 +328,61 @@ public class SoarDatamapAttribute implements ISoarDatamapAttribute
         return false;
     }
 
+    /**
+     * Move the support of one production, and the values it added to the 
+     * target node, over to another production. Only called by
+     * SoarDatamap.replaceProduction, which keeps the production index up to
+     * date itself.
+     * 
+     * @param oldProduction The production to replace
+     * @param newProduction The replacement
+     */
+    void replaceSupportingProduction(ISoarProduction oldProduction, ISoarProduction newProduction)
+    {
+        synchronized(datamap.getLock())
+        {
+            target.replaceValueProduction(oldProduction, newProduction);
+            
+            if(productions == null)
+            {
+                return;
+            }
+            ProductionInfo info = productions.remove(oldProduction);
+            if(info == null)
+            {
+                return;
+            }
+            ProductionInfo existing = productions.get(newProduction);
+            if(existing != null)
+            {
+                existing.usage |= info.usage;
+            }
+            else
+            {
+                productions.put(newProduction, info);
+            }
+            datamap.onNodeChanged(source);
+        }
+    }
+
+    /**
+     * @return The current contents of this attribute, for a datamap snapshot
+     */
+    SoarDatamapSnapshot.AttributeData createSnapshotData()
+    {
+        Map<ISoarProduction, Integer> usage = Collections.emptyMap();
+        if(productions != null && !productions.isEmpty())
+        {
+            usage = new HashMap<ISoarProduction, Integer>();
+            for(Map.Entry<ISoarProduction, ProductionInfo> e : productions.entrySet())
+            {
+                usage.put(e.getKey(), e.getValue().usage);
+            }
+            usage = Collections.unmodifiableMap(usage);
+        }
+        return new SoarDatamapSnapshot.AttributeData(this, name, source, target, persistent, usage);
+    }
+
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute#isPersistent()
      */
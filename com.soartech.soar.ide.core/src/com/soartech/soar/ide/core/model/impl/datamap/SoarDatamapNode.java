@@ -132,6 +132,7 @@ public class SoarDatamapNode implements ISoarDatamapNode
             attributes = new HashMap<String, ISoarDatamapAttribute>();
         }
         attributes.put(attr.getName(), attr);
+        datamap.onNodeChanged(this);
     }
     
     void removeAttribute(ISoarDatamapAttribute attr)
@@ -142,6 +143,11 @@ public class SoarDatamapNode implements ISoarDatamapNode
         }
         ISoarDatamapAttribute removed = attributes.remove(attr.getName());
         assert removed == attr;
+        if(attributes.isEmpty())
+        {
+            attributes = null;
+        }
+        datamap.onNodeChanged(this);
     }
     
     void addValue(ISoarProduction production, String value)
@@ -157,6 +163,7 @@ public class SoarDatamapNode implements ISoarDatamapNode
             values.put(value, v);
         }
         v.addProduction(production);
+        datamap.onNodeChanged(this);
     }
     
     void removeValue(ISoarProduction production)
@@ -165,15 +172,73 @@ public class SoarDatamapNode implements ISoarDatamapNode
         {
             return;
         }
+        boolean changed = false;
         Iterator<ISoarDatamapValue> it = values.values().iterator();
         while(it.hasNext())
         {
             SoarDatamapValue v = (SoarDatamapValue) it.next();
+            changed |= v.getSupportingProductions().contains(production);
             if(!v.removeProduction(production))
             {
                 it.remove();
             }
         }
+        if(values.isEmpty())
+        {
+            values = null;
+        }
+        if(changed)
+        {
+            datamap.onNodeChanged(this);
+        }
+    }
+
+    void replaceValueProduction(ISoarProduction oldProduction, ISoarProduction newProduction)
+    {
+        if(values == null)
+        {
+            return;
+        }
+        boolean changed = false;
+        for(ISoarDatamapValue v : values.values())
+        {
+            changed |= ((SoarDatamapValue) v).replaceProduction(oldProduction, newProduction);
+        }
+        if(changed)
+        {
+            datamap.onNodeChanged(this);
+        }
+    }
+    
+    /**
+     * @return The current contents of this node, for a datamap snapshot
+     */
+    SoarDatamapSnapshot.NodeData createSnapshotData()
+    {
+        Map<String, SoarDatamapSnapshot.AttributeData> attrs = Collections.emptyMap();
+        if(attributes != null && !attributes.isEmpty())
+        {
+            attrs = new HashMap<String, SoarDatamapSnapshot.AttributeData>();
+            for(Map.Entry<String, ISoarDatamapAttribute> e : attributes.entrySet())
+            {
+                attrs.put(e.getKey(), ((SoarDatamapAttribute) e.getValue()).createSnapshotData());
+            }
+            attrs = Collections.unmodifiableMap(attrs);
+        }
+        
+        Set<ISoarDatamapValue> vals = Collections.emptySet();
+        if(values != null && !values.isEmpty())
+        {
+            vals = new HashSet<ISoarDatamapValue>();
+            for(ISoarDatamapValue v : values.values())
+            {
+                Set<ISoarProduction> productions = new HashSet<ISoarProduction>(v.getSupportingProductions());
+                vals.add(new SoarDatamapSnapshot.Value(v.toString(), Collections.unmodifiableSet(productions)));
+            }
+            vals = Collections.unmodifiableSet(vals);
+        }
+        
+        return new SoarDatamapSnapshot.NodeData(idChar, attrs, vals);
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,574 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl.datamap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.soartech.soar.ide.core.model.ISoarAgent;
+import com.soartech.soar.ide.core.model.ISoarProduction;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapListener;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapNode;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapValue;
+import com.soartech.soar.ide.core.model.datamap.SoarDatamapAdditionResult;
+
+/**
+ * Immutable view of a {@link SoarDatamap} as of the end of a modification.
+ * Readers can walk it without taking the datamap's lock while the builder
+ * works on the next version.
+ * 
+ * <p>Each node's contents are captured in a {@link NodeData}. A new snapshot
+ * only captures the nodes that changed since the previous one and shares the
+ * rest with it. The node and attribute objects handed out are lightweight
+ * views that compare equal to the views of the same datamap element in other
+ * snapshots, so viewers can keep their state across versions.
+ * 
+ * @author ray
+ */
+public class SoarDatamapSnapshot implements ISoarDatamap
+{
+    private final SoarDatamap datamap;
+    private final SoarDatamapNode stateKey;
+    private final Map<SoarDatamapNode, NodeData> nodes;
+    private final Object lock = new Object();
+    
+    /**
+     * Capture the datamap. Called by the datamap with its lock held.
+     * 
+     * @param datamap The datamap
+     * @param state The datamap's state node
+     * @param previous The previous snapshot, or null
+     * @param changed Nodes changed since the previous snapshot
+     */
+    SoarDatamapSnapshot(SoarDatamap datamap, SoarDatamapNode state, 
+                        SoarDatamapSnapshot previous, Set<SoarDatamapNode> changed)
+    {
+        this.datamap = datamap;
+        this.stateKey = state;
+        this.nodes = new HashMap<SoarDatamapNode, NodeData>();
+        
+        // Only nodes reachable from the state are kept, so nodes orphaned by
+        // removals drop out here.
+        Deque<SoarDatamapNode> stack = new ArrayDeque<SoarDatamapNode>();
+        stack.push(state);
+        while(!stack.isEmpty())
+        {
+            SoarDatamapNode node = stack.pop();
+            if(nodes.containsKey(node))
+            {
+                continue;
+            }
+            NodeData data = null;
+            if(previous != null && !changed.contains(node))
+            {
+                data = previous.nodes.get(node);
+            }
+            if(data == null)
+            {
+                data = node.createSnapshotData();
+            }
+            nodes.put(node, data);
+            for(AttributeData a : data.attributes.values())
+            {
+                stack.push(a.target);
+            }
+        }
+    }
+    
+    private Node node(SoarDatamapNode key)
+    {
+        NodeData data = nodes.get(key);
+        return data != null ? new Node(key, data) : null;
+    }
+    
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getSnapshot()
+     */
+    public ISoarDatamap getSnapshot()
+    {
+        // The latest one, which may be newer than this
+        return datamap.getSnapshot();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getLock()
+     */
+    public Object getLock()
+    {
+        // Nothing to protect, but callers may still synchronize on it
+        return lock;
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getState()
+     */
+    public ISoarDatamapNode getState()
+    {
+        return node(stateKey);
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getAttribute(com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute)
+     */
+    public ISoarDatamapAttribute getAttribute(ISoarDatamapAttribute attribute)
+    {
+        SoarDatamapAttribute key = getKey(attribute);
+        if(key == null)
+        {
+            return null;
+        }
+        NodeData source = nodes.get(key.getSource());
+        if(source == null)
+        {
+            return null;
+        }
+        AttributeData data = source.attributes.get(key.getName());
+        return data != null && data.key == key ? new Attribute(data) : null;
+    }
+    
+    /**
+     * @param attribute A live attribute or an attribute from any snapshot
+     * @return The live attribute, or null if it's not from a Soar datamap
+     */
+    static SoarDatamapAttribute getKey(ISoarDatamapAttribute attribute)
+    {
+        if(attribute instanceof Attribute)
+        {
+            return ((Attribute) attribute).data.key;
+        }
+        if(attribute instanceof SoarDatamapAttribute)
+        {
+            return (SoarDatamapAttribute) attribute;
+        }
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getElements(java.lang.String[], boolean)
+     */
+    public Set<ISoarDatamapAttribute> getElements(String[] path, boolean includeVariablized)
+    {
+        return getState().getAttributes(path, 0, includeVariablized);
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#addListener(com.soartech.soar.ide.core.model.datamap.ISoarDatamapListener)
+     */
+    public void addListener(ISoarDatamapListener listener)
+    {
+        datamap.addListener(listener);
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#removeListener(com.soartech.soar.ide.core.model.datamap.ISoarDatamapListener)
+     */
+    public void removeListener(ISoarDatamapListener listener)
+    {
+        datamap.removeListener(listener);
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#beginModification()
+     */
+    public void beginModification()
+    {
+        throw readOnly();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#isInModification()
+     */
+    public boolean isInModification()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#endModification()
+     */
+    public void endModification()
+    {
+        throw readOnly();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#addProduction(com.soartech.soar.ide.core.model.ISoarProduction)
+     */
+    public SoarDatamapAdditionResult addProduction(ISoarProduction p)
+    {
+        throw readOnly();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#removeProduction(com.soartech.soar.ide.core.model.ISoarProduction)
+     */
+    public void removeProduction(ISoarProduction p)
+    {
+        throw readOnly();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#replaceProduction(com.soartech.soar.ide.core.model.ISoarProduction, com.soartech.soar.ide.core.model.ISoarProduction)
+     */
+    public void replaceProduction(ISoarProduction oldProduction, ISoarProduction newProduction)
+    {
+        throw readOnly();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#setAgent(com.soartech.soar.ide.core.model.ISoarAgent)
+     */
+    public void setAgent(ISoarAgent agent)
+    {
+        throw readOnly();
+    }
+
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.datamap.ISoarDatamap#getAgent()
+     */
+    public ISoarAgent getAgent()
+    {
+        return datamap.getAgent();
+    }
+    
+    private static UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException("Datamap snapshots are read-only");
+    }
+    
+    /**
+     * Captured contents of a node. Never modified once created.
+     */
+    static final class NodeData
+    {
+        final char idChar;
+        final Map<String, AttributeData> attributes;
+        final Set<ISoarDatamapValue> values;
+        
+        NodeData(char idChar, Map<String, AttributeData> attributes, Set<ISoarDatamapValue> values)
+        {
+            this.idChar = idChar;
+            this.attributes = attributes;
+            this.values = values;
+        }
+    }
+    
+    /**
+     * Captured contents of an attribute. Never modified once created.
+     */
+    static final class AttributeData
+    {
+        final SoarDatamapAttribute key;
+        final String name;
+        final SoarDatamapNode source;
+        final SoarDatamapNode target;
+        final boolean persistent;
+        final Map<ISoarProduction, Integer> usage;
+        
+        AttributeData(SoarDatamapAttribute key, String name, 
+                      SoarDatamapNode source, SoarDatamapNode target,
+                      boolean persistent, Map<ISoarProduction, Integer> usage)
+        {
+            this.key = key;
+            this.name = name;
+            this.source = source;
+            this.target = target;
+            this.persistent = persistent;
+            this.usage = usage;
+        }
+    }
+    
+    /**
+     * Captured value. Never modified once created.
+     */
+    static final class Value implements ISoarDatamapValue
+    {
+        private final String value;
+        private final Set<ISoarProduction> productions;
+        
+        Value(String value, Set<ISoarProduction> productions)
+        {
+            this.value = value;
+            this.productions = productions;
+        }
+
+        public Set<ISoarProduction> getSupportingProductions()
+        {
+            return productions;
+        }
+
+        public void addProduction(ISoarProduction p)
+        {
+            throw readOnly();
+        }
+
+        public boolean removeProduction(ISoarProduction p)
+        {
+            throw readOnly();
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return value;
+        }
+    }
+    
+    /**
+     * View of a node in this snapshot
+     */
+    private final class Node implements ISoarDatamapNode
+    {
+        private final SoarDatamapNode key;
+        private final NodeData data;
+        
+        Node(SoarDatamapNode key, NodeData data)
+        {
+            this.key = key;
+            this.data = data;
+        }
+
+        public ISoarDatamap getDatamap()
+        {
+            return SoarDatamapSnapshot.this;
+        }
+
+        public boolean isState()
+        {
+            return key == stateKey;
+        }
+
+        public boolean hasAttributes()
+        {
+            return !data.attributes.isEmpty();
+        }
+
+        public Set<ISoarDatamapAttribute> getAttributes()
+        {
+            Set<ISoarDatamapAttribute> result = new HashSet<ISoarDatamapAttribute>();
+            for(AttributeData a : data.attributes.values())
+            {
+                result.add(new Attribute(a));
+            }
+            return result;
+        }
+
+        public ISoarDatamapAttribute getAttribute(String name)
+        {
+            AttributeData a = data.attributes.get(name);
+            return a != null ? new Attribute(a) : null;
+        }
+
+        public Set<ISoarDatamapAttribute> getAttributes(String[] path, int offset, boolean includeVariablized)
+        {
+            Set<ISoarDatamapAttribute> set = new HashSet<ISoarDatamapAttribute>();
+            collect(data, path, offset, includeVariablized, set);
+            return set;
+        }
+        
+        // Same walk as SoarDatamapNode.getAttributesHelper()
+        private void collect(NodeData node, String[] path, int offset, boolean includeVariablized, Set<ISoarDatamapAttribute> set)
+        {
+            boolean atEnd = offset + 1 >= path.length;
+            
+            String part = path[offset];
+            if(part != null)
+            {
+                collectChild(node.attributes.get(part), path, offset, atEnd, includeVariablized, set);
+                if(includeVariablized)
+                {
+                    collectChild(node.attributes.get(null), path, offset, atEnd, includeVariablized, set);
+                }
+            }
+            else
+            {
+                for(AttributeData child : node.attributes.values())
+                {
+                    collectChild(child, path, offset, atEnd, includeVariablized, set);
+                }
+            }
+        }
+        
+        private void collectChild(AttributeData child, String[] path, int offset, boolean atEnd, boolean includeVariablized, Set<ISoarDatamapAttribute> set)
+        {
+            if(child == null)
+            {
+                return;
+            }
+            if(atEnd)
+            {
+                set.add(new Attribute(child));
+                return;
+            }
+            NodeData target = nodes.get(child.target);
+            if(target != null)
+            {
+                collect(target, path, offset + 1, includeVariablized, set);
+            }
+        }
+
+        public Set<ISoarDatamapValue> getValues()
+        {
+            return data.values;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Node && ((Node) obj).key == key;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(key);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return Character.toString(data.idChar);
+        }
+    }
+    
+    /**
+     * View of an attribute in this snapshot
+     */
+    private final class Attribute implements ISoarDatamapAttribute
+    {
+        private final AttributeData data;
+        
+        Attribute(AttributeData data)
+        {
+            this.data = data;
+        }
+
+        public ISoarDatamap getDatamap()
+        {
+            return SoarDatamapSnapshot.this;
+        }
+
+        public ISoarDatamapNode getSource()
+        {
+            return node(data.source);
+        }
+
+        public ISoarDatamapNode getTarget()
+        {
+            return node(data.target);
+        }
+
+        public String getName()
+        {
+            return data.name;
+        }
+
+        public boolean isVariablized()
+        {
+            return data.name == null;
+        }
+
+        public void setPersistent(boolean persistent)
+        {
+            throw readOnly();
+        }
+
+        public boolean isPersistent()
+        {
+            return data.persistent;
+        }
+
+        public int getOverallUsage()
+        {
+            int usage = 0;
+            for(Integer u : data.usage.values())
+            {
+                usage |= u;
+            }
+            return usage;
+        }
+
+        public Set<ISoarProduction> getSupportingProductions()
+        {
+            return data.usage.keySet();
+        }
+
+        public void addSupportingProduction(ISoarProduction p, int usage)
+        {
+            throw readOnly();
+        }
+
+        public void removeSupportingProduction(ISoarProduction p)
+        {
+            throw readOnly();
+        }
+
+        public int getSupportingProductionUsage(ISoarProduction p)
+        {
+            Integer usage = data.usage.get(p);
+            return usage != null ? usage : 0;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Attribute && ((Attribute) obj).data.key == data.key;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(data.key);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return "(" + getSource() + " - " + data.name + " ->" + getTarget() + ")";
+        }
+    }
+}
@@ -90,6 +90,23 @@ class SoarDatamapValue implements ISoarDatamapValue
         return !productions.isEmpty();
     }
 
+    /**
+     * Replace a supporting production with another, if it supports this value
+     * 
+     * @param oldProduction The production to replace
+     * @param newProduction The replacement
+     * @return true if oldProduction supported this value
+     */
+    public boolean replaceProduction(ISoarProduction oldProduction, ISoarProduction newProduction)
+    {
+        if(productions.remove(oldProduction))
+        {
+            productions.add(newProduction);
+            return true;
+        }
+        return false;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
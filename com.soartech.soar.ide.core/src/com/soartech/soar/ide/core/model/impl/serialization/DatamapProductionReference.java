@@ -61,6 +61,12 @@ public class DatamapProductionReference implements Serializable
     public int getUsage() { return usage; }
     public void setUsage(int usage) { this.usage = usage; }
 
+    /**
+     * Used by {@link MementoReader}
+     */
+    DatamapProductionReference()
+    {
+    }
     
     public DatamapProductionReference(ISoarProduction production, int usage)
     {
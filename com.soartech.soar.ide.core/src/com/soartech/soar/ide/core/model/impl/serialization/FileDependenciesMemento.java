@@ -0,0 +1,51 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl.serialization;
+
+import java.io.Serializable;
+
+/**
+ * Dependencies of a single Soar file: the locations it sources, the Tcl 
+ * procs it defines and the commands it calls.
+ * 
+ * @author ray
+ */
+@SuppressWarnings("serial")
+public class FileDependenciesMemento implements Serializable
+{
+    public static final FileDependenciesMemento[] EMPTY_ARRAY = {};
+    
+    private String path = "";
+    private String[] sources;
+    private String[] definedProcs;
+    private String[] calledCommands;
+    
+    public String getPath() { return path != null ? path : ""; }
+    public void setPath(String path) { this.path = path; }
+    
+    public String[] getSources() { return sources != null ? sources : DependenciesMemento.EMPTY_STRINGS; }
+    public void setSources(String[] sources) { this.sources = sources; }
+    
+    public String[] getDefinedProcs() { return definedProcs != null ? definedProcs : DependenciesMemento.EMPTY_STRINGS; }
+    public void setDefinedProcs(String[] definedProcs) { this.definedProcs = definedProcs; }
+    
+    public String[] getCalledCommands() { return calledCommands != null ? calledCommands : DependenciesMemento.EMPTY_STRINGS; }
+    public void setCalledCommands(String[] calledCommands) { this.calledCommands = calledCommands; }
+}
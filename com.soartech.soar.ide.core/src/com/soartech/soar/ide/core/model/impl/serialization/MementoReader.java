@@ -0,0 +1,412 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl.serialization;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Reads mementos written by {@link MementoWriter}. Reads directly from a 
+ * byte buffer, which may be memory mapped.
+ * 
+ * @author ray
+ */
+class MementoReader
+{
+    private final ByteBuffer buffer;
+    private String[] strings;
+    
+    /**
+     * @param buffer The buffer to read from, positioned at the start of the
+     *      header. The entire remainder of the buffer is expected to be
+     *      the memento.
+     */
+    public MementoReader(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+    
+    /**
+     * @return The file memento in the buffer
+     * @throws SoarDeserializationException if the buffer is corrupt, from a
+     *      different format version, or does not contain a file memento.
+     */
+    public FileMemento readFile() throws SoarDeserializationException
+    {
+        readHeader(Mementos.KIND_FILE);
+        try
+        {
+            ElementMemento e = readElement();
+            if(!(e instanceof FileMemento))
+            {
+                throw new SoarDeserializationException("Expected file memento, got " + e.getClass().getSimpleName());
+            }
+            return (FileMemento) e;
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new SoarDeserializationException("Truncated memento");
+        }
+    }
+    
+    /**
+     * @return The datamap memento in the buffer
+     * @throws SoarDeserializationException if the buffer is corrupt, from a
+     *      different format version, or does not contain a datamap memento.
+     */
+    public DatamapMemento readDatamap() throws SoarDeserializationException
+    {
+        readHeader(Mementos.KIND_DATAMAP);
+        try
+        {
+            return readDatamapBody();
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new SoarDeserializationException("Truncated memento");
+        }
+    }
+    
+    /**
+     * @return The dependencies memento in the buffer
+     * @throws SoarDeserializationException if the buffer is corrupt, from a
+     *      different format version, or does not contain a dependencies 
+     *      memento.
+     */
+    public DependenciesMemento readDependencies() throws SoarDeserializationException
+    {
+        readHeader(Mementos.KIND_DEPENDENCIES);
+        try
+        {
+            FileDependenciesMemento[] files = new FileDependenciesMemento[readCount()];
+            for(int i = 0; i < files.length; ++i)
+            {
+                FileDependenciesMemento file = new FileDependenciesMemento();
+                file.setPath(readString());
+                file.setSources(readStrings());
+                file.setDefinedProcs(readStrings());
+                file.setCalledCommands(readStrings());
+                files[i] = file;
+            }
+            
+            AgentDependenciesMemento[] agents = new AgentDependenciesMemento[readCount()];
+            for(int i = 0; i < agents.length; ++i)
+            {
+                AgentDependenciesMemento agent = new AgentDependenciesMemento();
+                agent.setPath(readString());
+                agent.setFiles(readStrings());
+                agents[i] = agent;
+            }
+            
+            DependenciesMemento memento = new DependenciesMemento();
+            memento.setFiles(files);
+            memento.setAgents(agents);
+            return memento;
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new SoarDeserializationException("Truncated memento");
+        }
+    }
+    
+    private void readHeader(int expectedKind) throws SoarDeserializationException
+    {
+        final int start = buffer.position();
+        final int end = buffer.limit();
+        if(end - start < Mementos.MIN_SIZE)
+        {
+            throw new SoarDeserializationException("Memento is too short");
+        }
+        
+        if(buffer.getInt() != Mementos.MAGIC)
+        {
+            throw new SoarDeserializationException("Not a memento", true);
+        }
+        int version = buffer.getShort();
+        if(version != Mementos.VERSION)
+        {
+            throw new SoarDeserializationException("Unsupported memento version " + version, true);
+        }
+        int kind = buffer.get();
+        if(kind != expectedKind)
+        {
+            throw new SoarDeserializationException("Unexpected memento kind " + kind);
+        }
+        
+        // Verify the checksum before trusting any lengths
+        long expectedCrc = buffer.getLong(end - 8);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer checked = buffer.duplicate();
+        checked.position(start);
+        checked.limit(end - 8);
+        while(checked.hasRemaining())
+        {
+            int n = Math.min(chunk.length, checked.remaining());
+            checked.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        if(crc.getValue() != expectedCrc)
+        {
+            throw new SoarDeserializationException("Memento checksum mismatch");
+        }
+        buffer.limit(end - 8);
+        
+        try
+        {
+            strings = new String[readCount()];
+            for(int i = 0; i < strings.length; ++i)
+            {
+                byte[] utf8 = new byte[readCount()];
+                buffer.get(utf8);
+                strings[i] = new String(utf8, MementoWriter.UTF8);
+            }
+            
+            int bodyLength = readVarInt();
+            if(bodyLength != buffer.remaining())
+            {
+                throw new SoarDeserializationException("Memento body length mismatch");
+            }
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new SoarDeserializationException("Corrupt memento string table");
+        }
+    }
+    
+    private ElementMemento readElement() throws SoarDeserializationException
+    {
+        int tag = buffer.get();
+        ElementMemento m = createElement(tag);
+        
+        if(m instanceof SourceReferenceMemento)
+        {
+            ((SourceReferenceMemento) m).setRange(readRange());
+        }
+        if(m instanceof TclCommandMemento)
+        {
+            TclCommandMemento c = (TclCommandMemento) m;
+            c.setCommandName(readString());
+            c.setCommandNameRange(readRange());
+        }
+        if(m instanceof ProductionMemento)
+        {
+            ProductionMemento p = (ProductionMemento) m;
+            p.setProductionName(readString());
+            p.setProductionNameRange(readRange());
+            p.setBodyInBraces(buffer.get() != 0);
+            p.setBodyRange(readRange());
+        }
+        else if(m instanceof TclProcedureMemento)
+        {
+            TclProcedureMemento p = (TclProcedureMemento) m;
+            p.setProcedureName(readString());
+            p.setArguments(readString());
+            p.setProcedureNameRange(readRange());
+        }
+        else if(m instanceof TclFileReferenceMemento)
+        {
+            TclFileReferenceMemento r = (TclFileReferenceMemento) m;
+            r.setPath(readString());
+            r.setDirectory(buffer.get() != 0);
+        }
+        else if(m instanceof FileAgentProxyMemento)
+        {
+            ((FileAgentProxyMemento) m).setAgentPath(readString());
+        }
+        else if(m instanceof FileMemento)
+        {
+            ((FileMemento) m).setPath(readString());
+        }
+        
+        int count = readCount();
+        if(count > 0)
+        {
+            ElementMemento[] children = new ElementMemento[count];
+            for(int i = 0; i < count; ++i)
+            {
+                children[i] = readElement();
+            }
+            m.setChildren(children);
+        }
+        return m;
+    }
+    
+    private static ElementMemento createElement(int tag) throws SoarDeserializationException
+    {
+        switch(tag)
+        {
+        case Mementos.TAG_ELEMENT:          return new ElementMemento();
+        case Mementos.TAG_SOURCE_REFERENCE: return new SourceReferenceMemento();
+        case Mementos.TAG_COMMAND:          return new TclCommandMemento();
+        case Mementos.TAG_PRODUCTION:       return new ProductionMemento();
+        case Mementos.TAG_PROCEDURE:        return new TclProcedureMemento();
+        case Mementos.TAG_COMMENT:          return new TclCommentMemento();
+        case Mementos.TAG_FILE_REFERENCE:   return new TclFileReferenceMemento();
+        case Mementos.TAG_FILE_AGENT_PROXY: return new FileAgentProxyMemento();
+        case Mementos.TAG_FILE:             return new FileMemento();
+        default:
+            throw new SoarDeserializationException("Unknown memento tag " + tag);
+        }
+    }
+    
+    private DatamapMemento readDatamapBody() throws SoarDeserializationException
+    {
+        DatamapMemento m = new DatamapMemento();
+        
+        DatamapNodeMemento[] nodes = new DatamapNodeMemento[readCount()];
+        for(int i = 0; i < nodes.length; ++i)
+        {
+            DatamapNodeMemento node = new DatamapNodeMemento();
+            DatamapValueMemento[] values = new DatamapValueMemento[readCount()];
+            for(int j = 0; j < values.length; ++j)
+            {
+                DatamapValueMemento value = new DatamapValueMemento();
+                value.setName(readString());
+                value.setProductions(readProductions());
+                values[j] = value;
+            }
+            node.setValues(values);
+            nodes[i] = node;
+        }
+        m.setNodes(nodes);
+        
+        m.setState(readNode(nodes));
+        
+        DatamapAttributeMemento[] attributes = new DatamapAttributeMemento[readCount()];
+        for(int i = 0; i < attributes.length; ++i)
+        {
+            DatamapAttributeMemento attr = new DatamapAttributeMemento();
+            attr.setName(readString());
+            attr.setPersistent(buffer.get() != 0);
+            attr.setProductions(readProductions());
+            attr.setSource(readNode(nodes));
+            attr.setTarget(readNode(nodes));
+            attributes[i] = attr;
+        }
+        m.setAttributes(attributes);
+        
+        return m;
+    }
+    
+    private DatamapNodeMemento readNode(DatamapNodeMemento[] nodes) throws SoarDeserializationException
+    {
+        int index = readVarInt();
+        if(index == 0)
+        {
+            return null;
+        }
+        if(index > nodes.length)
+        {
+            throw new SoarDeserializationException("Invalid datamap node index " + index);
+        }
+        return nodes[index - 1];
+    }
+    
+    private DatamapProductionReference[] readProductions() throws SoarDeserializationException
+    {
+        int count = readCount();
+        if(count == 0)
+        {
+            return DatamapProductionReference.EMPTY_PRODUCTION_ARRAY;
+        }
+        DatamapProductionReference[] refs = new DatamapProductionReference[count];
+        for(int i = 0; i < count; ++i)
+        {
+            DatamapProductionReference ref = new DatamapProductionReference();
+            ref.setFile(readString());
+            ref.setAgent(readString());
+            ref.setName(readString());
+            ref.setOffset(readSignedVarInt());
+            ref.setUsage(readSignedVarInt());
+            refs[i] = ref;
+        }
+        return refs;
+    }
+    
+    private SourceRangeMemento readRange()
+    {
+        SourceRangeMemento range = new SourceRangeMemento();
+        range.setOffset(readSignedVarInt());
+        range.setLength(readSignedVarInt());
+        return range;
+    }
+    
+    private String readString() throws SoarDeserializationException
+    {
+        int index = readVarInt();
+        if(index == 0)
+        {
+            return null;
+        }
+        if(index > strings.length)
+        {
+            throw new SoarDeserializationException("Invalid string index " + index);
+        }
+        return strings[index - 1];
+    }
+    
+    private String[] readStrings() throws SoarDeserializationException
+    {
+        String[] strings = new String[readCount()];
+        for(int i = 0; i < strings.length; ++i)
+        {
+            strings[i] = readString();
+        }
+        return strings;
+    }
+    
+    /**
+     * Read an element count, making sure it's at least plausible given the 
+     * number of bytes left so a corrupt count can't cause a huge allocation.
+     */
+    private int readCount() throws SoarDeserializationException
+    {
+        int count = readVarInt();
+        if(count < 0 || count > buffer.remaining())
+        {
+            throw new SoarDeserializationException("Invalid count " + count);
+        }
+        return count;
+    }
+    
+    private int readSignedVarInt()
+    {
+        int raw = readVarInt();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+    
+    private int readVarInt()
+    {
+        int value = 0;
+        int shift = 0;
+        while(true)
+        {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.core.model.impl.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes mementos in the binary build cache format described in 
+ * {@link Mementos}. 
+ * 
+ * <p>The body is written first so that the string table can be collected
+ * along the way. The string table and body are then written to the output
+ * behind the header, followed by a checksum of everything before it.
+ * 
+ * @author ray
+ */
+class MementoWriter
+{
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    private final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(4096);
+    private final DataOutputStream body = new DataOutputStream(bodyBytes);
+    
+    /**
+     * Write a file memento to the given stream
+     * 
+     * @param memento The memento
+     * @param out The output stream. It is not closed.
+     * @throws IOException
+     */
+    public void write(FileMemento memento, OutputStream out) throws IOException
+    {
+        writeElement(memento);
+        finish(Mementos.KIND_FILE, out);
+    }
+    
+    /**
+     * Write a datamap memento to the given stream
+     * 
+     * @param memento The memento
+     * @param out The output stream. It is not closed.
+     * @throws IOException
+     */
+    public void write(DatamapMemento memento, OutputStream out) throws IOException
+    {
+        writeDatamap(memento);
+        finish(Mementos.KIND_DATAMAP, out);
+    }
+    
+    /**
+     * Write a dependencies memento to the given stream
+     * 
+     * @param memento The memento
+     * @param out The output stream. It is not closed.
+     * @throws IOException
+     */
+    public void write(DependenciesMemento memento, OutputStream out) throws IOException
+    {
+        FileDependenciesMemento[] files = memento.getFiles();
+        writeVarInt(body, files.length);
+        for(FileDependenciesMemento file : files)
+        {
+            writeString(file.getPath());
+            writeStrings(file.getSources());
+            writeStrings(file.getDefinedProcs());
+            writeStrings(file.getCalledCommands());
+        }
+        
+        AgentDependenciesMemento[] agents = memento.getAgents();
+        writeVarInt(body, agents.length);
+        for(AgentDependenciesMemento agent : agents)
+        {
+            writeString(agent.getPath());
+            writeStrings(agent.getFiles());
+        }
+        finish(Mementos.KIND_DEPENDENCIES, out);
+    }
+    
+    private void finish(int kind, OutputStream out) throws IOException
+    {
+        body.flush();
+        
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(1024);
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(Mementos.MAGIC);
+        header.writeShort(Mementos.VERSION);
+        header.writeByte(kind);
+        writeVarInt(header, strings.size());
+        for(String s : strings.keySet())
+        {
+            byte[] utf8 = s.getBytes(UTF8);
+            writeVarInt(header, utf8.length);
+            header.write(utf8);
+        }
+        writeVarInt(header, bodyBytes.size());
+        header.flush();
+        
+        CRC32 crc = new CRC32();
+        crc.update(headerBytes.toByteArray());
+        crc.update(bodyBytes.toByteArray());
+        
+        DataOutputStream data = new DataOutputStream(out);
+        headerBytes.writeTo(data);
+        bodyBytes.writeTo(data);
+        data.writeLong(crc.getValue());
+        data.flush();
+    }
+    
+    private void writeElement(ElementMemento m) throws IOException
+    {
+        body.writeByte(getTag(m));
+        
+        if(m instanceof SourceReferenceMemento)
+        {
+            writeRange(((SourceReferenceMemento) m).getRange());
+        }
+        if(m instanceof TclCommandMemento)
+        {
+            TclCommandMemento c = (TclCommandMemento) m;
+            writeString(c.getCommandName());
+            writeRange(c.getCommandNameRange());
+        }
+        if(m instanceof ProductionMemento)
+        {
+            ProductionMemento p = (ProductionMemento) m;
+            writeString(p.getProductionName());
+            writeRange(p.getProductionNameRange());
+            body.writeBoolean(p.isBodyInBraces());
+            writeRange(p.getBodyRange());
+        }
+        else if(m instanceof TclProcedureMemento)
+        {
+            TclProcedureMemento p = (TclProcedureMemento) m;
+            writeString(p.getProcedureName());
+            writeString(p.getArguments());
+            writeRange(p.getProcedureNameRange());
+        }
+        else if(m instanceof TclFileReferenceMemento)
+        {
+            TclFileReferenceMemento r = (TclFileReferenceMemento) m;
+            writeString(r.getPath());
+            body.writeBoolean(r.isDirectory());
+        }
+        else if(m instanceof FileAgentProxyMemento)
+        {
+            writeString(((FileAgentProxyMemento) m).getAgentPath());
+        }
+        else if(m instanceof FileMemento)
+        {
+            writeString(((FileMemento) m).getPath());
+        }
+        
+        ElementMemento[] children = m.getChildren();
+        writeVarInt(body, children.length);
+        for(ElementMemento child : children)
+        {
+            writeElement(child);
+        }
+    }
+    
+    private static int getTag(ElementMemento m)
+    {
+        // Most specific types first
+        if(m instanceof ProductionMemento)          return Mementos.TAG_PRODUCTION;
+        if(m instanceof TclProcedureMemento)        return Mementos.TAG_PROCEDURE;
+        if(m instanceof TclCommandMemento)          return Mementos.TAG_COMMAND;
+        if(m instanceof TclCommentMemento)          return Mementos.TAG_COMMENT;
+        if(m instanceof TclFileReferenceMemento)    return Mementos.TAG_FILE_REFERENCE;
+        if(m instanceof SourceReferenceMemento)     return Mementos.TAG_SOURCE_REFERENCE;
+        if(m instanceof FileAgentProxyMemento)      return Mementos.TAG_FILE_AGENT_PROXY;
+        if(m instanceof FileMemento)                return Mementos.TAG_FILE;
+        return Mementos.TAG_ELEMENT;
+    }
+    
+    private void writeDatamap(DatamapMemento m) throws IOException
+    {
+        // Nodes are shared between the state and attributes, so they're 
+        // written once and referred to by index.
+        List<DatamapNodeMemento> nodes = new ArrayList<DatamapNodeMemento>();
+        Map<DatamapNodeMemento, Integer> nodeIndexes = new IdentityHashMap<DatamapNodeMemento, Integer>();
+        for(DatamapNodeMemento node : m.getNodes())
+        {
+            indexNode(node, nodes, nodeIndexes);
+        }
+        indexNode(m.getState(), nodes, nodeIndexes);
+        for(DatamapAttributeMemento attr : m.getAttributes())
+        {
+            indexNode(attr.getSource(), nodes, nodeIndexes);
+            indexNode(attr.getTarget(), nodes, nodeIndexes);
+        }
+        
+        writeVarInt(body, nodes.size());
+        for(DatamapNodeMemento node : nodes)
+        {
+            DatamapValueMemento[] values = node.getValues();
+            writeVarInt(body, values.length);
+            for(DatamapValueMemento value : values)
+            {
+                writeString(value.getName());
+                writeProductions(value.getProductions());
+            }
+        }
+        
+        writeNodeIndex(m.getState(), nodeIndexes);
+        
+        DatamapAttributeMemento[] attributes = m.getAttributes();
+        writeVarInt(body, attributes.length);
+        for(DatamapAttributeMemento attr : attributes)
+        {
+            writeString(attr.getName());
+            body.writeBoolean(attr.isPersistent());
+            writeProductions(attr.getProductions());
+            writeNodeIndex(attr.getSource(), nodeIndexes);
+            writeNodeIndex(attr.getTarget(), nodeIndexes);
+        }
+    }
+    
+    private static void indexNode(DatamapNodeMemento node, List<DatamapNodeMemento> nodes, 
+                                  Map<DatamapNodeMemento, Integer> nodeIndexes)
+    {
+        if(node != null && !nodeIndexes.containsKey(node))
+        {
+            nodeIndexes.put(node, nodes.size());
+            nodes.add(node);
+        }
+    }
+    
+    private void writeNodeIndex(DatamapNodeMemento node, Map<DatamapNodeMemento, Integer> nodeIndexes) throws IOException
+    {
+        // 0 is reserved for null
+        writeVarInt(body, node != null ? nodeIndexes.get(node) + 1 : 0);
+    }
+    
+    private void writeProductions(DatamapProductionReference[] refs) throws IOException
+    {
+        writeVarInt(body, refs.length);
+        for(DatamapProductionReference ref : refs)
+        {
+            writeString(ref.getFile());
+            writeString(ref.getAgent());
+            writeString(ref.getName());
+            writeSignedVarInt(body, ref.getOffset());
+            writeSignedVarInt(body, ref.getUsage());
+        }
+    }
+    
+    private void writeRange(SourceRangeMemento range) throws IOException
+    {
+        writeSignedVarInt(body, range.getOffset());
+        writeSignedVarInt(body, range.getLength());
+    }
+    
+    private void writeString(String s) throws IOException
+    {
+        // 0 is reserved for null, otherwise index + 1 into the string table
+        if(s == null)
+        {
+            writeVarInt(body, 0);
+            return;
+        }
+        Integer index = strings.get(s);
+        if(index == null)
+        {
+            index = strings.size();
+            strings.put(s, index);
+        }
+        writeVarInt(body, index + 1);
+    }
+    
+    private void writeStrings(String[] strings) throws IOException
+    {
+        writeVarInt(body, strings.length);
+        for(String s : strings)
+        {
+            writeString(s);
+        }
+    }
+    
+    private static void writeSignedVarInt(DataOutputStream out, int value) throws IOException
+    {
+        // zig-zag encoding so small negative values stay small
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+    
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException
+    {
+        while((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
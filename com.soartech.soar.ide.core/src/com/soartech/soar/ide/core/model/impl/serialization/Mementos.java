@@ -19,101 +19,314 @@
  */
 package com.soartech.soar.ide.core.model.impl.serialization;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 
 import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 
 /**
  * Entry point for memento serialization and other helper methods.
  * 
+ * <p>Mementos are stored in a compact binary format rather than with Java
+ * serialization:
+ * 
+ * <pre>
+ *   int     magic ("SBC1")
+ *   short   format version
+ *   byte    kind (file, datamap or dependencies)
+ *   varint  string count, then each string as varint length + UTF-8 bytes
+ *   varint  body length
+ *   byte[]  body
+ *   long    CRC32 of everything above
+ * </pre>
+ * 
+ * <p>Every string in the body (names, paths, etc) is an index into the 
+ * string table so repeated paths are only stored once. Integers are 
+ * variable length. A file with the wrong magic, version or checksum is 
+ * treated like a missing file, i.e. the caller rebuilds it. Bump 
+ * {@link #VERSION} whenever the layout of a memento changes.
+ * 
  * @author ray
  */
 public class Mementos
 {
     /**
-     * Serialize the given serializable object to the given file
+     * File name extension for memento files in the build directory
+     */
+    public static final String EXTENSION = ".sbc";
+    
+    static final int MAGIC = 0x53424331; // "SBC1"
+    static final int VERSION = 1;
+    
+    static final int KIND_FILE = 1;
+    static final int KIND_DATAMAP = 2;
+    static final int KIND_DEPENDENCIES = 3;
+    
+    static final int TAG_ELEMENT = 0;
+    static final int TAG_SOURCE_REFERENCE = 1;
+    static final int TAG_COMMAND = 2;
+    static final int TAG_PRODUCTION = 3;
+    static final int TAG_PROCEDURE = 4;
+    static final int TAG_COMMENT = 5;
+    static final int TAG_FILE_REFERENCE = 6;
+    static final int TAG_FILE_AGENT_PROXY = 7;
+    static final int TAG_FILE = 8;
+    
+    /**
+     * Header (magic, version, kind, empty string table, body length) plus 
+     * checksum.
+     */
+    static final int MIN_SIZE = 4 + 2 + 1 + 1 + 1 + 8;
+    
+    /**
+     * Files at least this large are memory mapped rather than read onto the
+     * heap. Small files aren't worth the cost of a mapping, and a mapped file
+     * can't be deleted on Windows until the mapping is garbage collected.
+     */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    
+    /**
+     * Serialize a file memento to the given file
+     * 
+     * @param memento The memento to serialize
+     * @param file The file to write to
+     */
+    public static void serialize(final FileMemento memento, File file)
+    {
+        write(file, new Body() {
+
+            public void write(MementoWriter writer, OutputStream out) throws IOException
+            {
+                writer.write(memento, out);
+            }});
+    }
+    
+    /**
+     * Serialize a datamap memento to the given file
+     * 
+     * @param memento The memento to serialize
+     * @param file The file to write to
+     */
+    public static void serialize(final DatamapMemento memento, File file)
+    {
+        write(file, new Body() {
+
+            public void write(MementoWriter writer, OutputStream out) throws IOException
+            {
+                writer.write(memento, out);
+            }});
+    }
+    
+    /**
+     * Serialize a dependencies memento to the given file
      * 
-     * @param e The object to serialize
+     * @param memento The memento to serialize
      * @param file The file to write to
      */
-    public static void serialize(Serializable e, File file)
+    public static void serialize(final DependenciesMemento memento, File file)
     {
-        ObjectOutputStream out = null;
+        write(file, new Body() {
+
+            public void write(MementoWriter writer, OutputStream out) throws IOException
+            {
+                writer.write(memento, out);
+            }});
+    }
+    
+    /**
+     * Deserialize a file memento
+     * 
+     * @param file The file to deserialize from
+     * @return The memento or null if the file is missing, corrupt or from
+     *      an older version.
+     */
+    public static FileMemento deserializeFile(File file)
+    {
+        final long start = SoarMetrics.start();
         try
         {
-            OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file));
-            out = new ObjectOutputStream(fileOut);
-            
-            out.writeObject(e);
+            ByteBuffer buffer = load(file);
+            return buffer != null ? new MementoReader(buffer).readFile() : null;
         }
-        catch(IOException exception)
+        catch (SoarDeserializationException e)
         {
+            discard(file, e);
+            return null;
         }
         finally
         {
-            if(out != null)
-            {
-                try
-                {
-                    out.close();
-                }
-                catch (IOException e1)
-                {
-                    SoarCorePlugin.log(e1);
-                }
-            }
+            SoarMetrics.stop(BuildPhase.SERIALIZATION, SoarMetrics.FILE, file, start);
         }
     }
     
     /**
-     * Deserialize an object from a file
+     * Deserialize a datamap memento
      * 
      * @param file The file to deserialize from
-     * @return The object or null if an error occurred
+     * @return The memento or null if the file is missing, corrupt or from
+     *      an older version.
      */
-    public static Object deserialize(File file)
+    public static DatamapMemento deserializeDatamap(File file)
     {
-        ObjectInputStream in = null;
-        
+        final long start = SoarMetrics.start();
         try
         {
-            InputStream fileIn = new BufferedInputStream(new FileInputStream(file));
-            in = new ObjectInputStream(fileIn);
-            
-            return (Object) in.readObject();
+            ByteBuffer buffer = load(file);
+            return buffer != null ? new MementoReader(buffer).readDatamap() : null;
         }
-        catch(IOException e)
+        catch (SoarDeserializationException e)
         {
+            discard(file, e);
             return null;
         }
-        catch (ClassNotFoundException e)
+        finally
         {
+            SoarMetrics.stop(BuildPhase.SERIALIZATION, SoarMetrics.FILE, file, start);
+        }
+    }
+    
+    /**
+     * Deserialize a dependencies memento
+     * 
+     * @param file The file to deserialize from
+     * @return The memento or null if the file is missing, corrupt or from
+     *      an older version.
+     */
+    public static DependenciesMemento deserializeDependencies(File file)
+    {
+        final long start = SoarMetrics.start();
+        try
+        {
+            ByteBuffer buffer = load(file);
+            return buffer != null ? new MementoReader(buffer).readDependencies() : null;
+        }
+        catch (SoarDeserializationException e)
+        {
+            discard(file, e);
             return null;
         }
         finally
         {
-            try
+            SoarMetrics.stop(BuildPhase.SERIALIZATION, SoarMetrics.FILE, file, start);
+        }
+    }
+    
+    /**
+     * Writes one kind of memento with a memento writer
+     */
+    private interface Body
+    {
+        void write(MementoWriter writer, OutputStream out) throws IOException;
+    }
+    
+    /**
+     * Write a memento file, logging any error
+     * 
+     * @param file The file to write to
+     * @param body Writes the memento
+     */
+    private static void write(File file, Body body)
+    {
+        final long start = SoarMetrics.start();
+        OutputStream out = null;
+        try
+        {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            body.write(new MementoWriter(), out);
+        }
+        catch(IOException exception)
+        {
+            SoarCorePlugin.log(exception);
+        }
+        finally
+        {
+            close(out);
+            SoarMetrics.stop(BuildPhase.SERIALIZATION, SoarMetrics.FILE, file, start);
+        }
+    }
+    
+    private static void discard(File file, SoarDeserializationException e)
+    {
+        // Mementos from older versions are expected after an upgrade. They 
+        // are just rebuilt.
+        if(!e.isOutdated())
+        {
+            SoarCorePlugin.log(new Status(IStatus.WARNING, SoarCorePlugin.PLUGIN_ID, 0, 
+                    "Discarding " + file + ": " + e.getMessage(), e));
+        }
+    }
+    
+    private static ByteBuffer load(File file)
+    {
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+            {
+                return null;
+            }
+            if(size >= MAP_THRESHOLD)
+            {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while(buffer.hasRemaining())
             {
-                if(in != null)
+                if(channel.read(buffer) < 0)
                 {
-                    in.close();
+                    return null;
                 }
             }
-            catch(IOException e1)
+            buffer.flip();
+            return buffer;
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if(raf != null)
             {
-                SoarCorePlugin.log(e1);
+                try
+                {
+                    raf.close();
+                }
+                catch(IOException e1)
+                {
+                    SoarCorePlugin.log(e1);
+                }
             }
         }
     }
     
+    private static void close(OutputStream out)
+    {
+        if(out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e1)
+            {
+                SoarCorePlugin.log(e1);
+            }
+        }
+    }
 }
@@ -28,9 +28,31 @@ package com.soartech.soar.ide.core.model.impl.serialization;
 public class SoarDeserializationException extends Exception
 {
     private static final long serialVersionUID = -5234094881911398000L;
+    
+    private final boolean outdated;
 
     public SoarDeserializationException(String message)
+    {
+        this(message, false);
+    }
+    
+    /**
+     * @param message The message
+     * @param outdated true if the memento was written by an older version 
+     *      rather than being corrupt
+     */
+    public SoarDeserializationException(String message, boolean outdated)
     {
         super(message);
+        this.outdated = outdated;
+    }
+    
+    /**
+     * @return true if the memento was written by an older version rather 
+     *      than being corrupt
+     */
+    public boolean isOutdated()
+    {
+        return outdated;
     }
 }
@@ -48,6 +48,11 @@ public class TclAstNode
     private TclAstNode previousChild = null;
     private TclParserError error;
     
+    /**
+     * For a root node, whether the parse that produced it had errors
+     */
+    private boolean hasParseErrors;
+    
     public TclAstNode(int type, int start)
     {
         this.type = type;
@@ -96,6 +101,24 @@ public class TclAstNode
         return start;
     }
     
+    /**
+     * Move this node and all of its descendants by the given amount. Used
+     * by {@link TclParser} to reuse nodes after an edit.
+     * 
+     * @param delta The amount to add to the start of each node
+     */
+    void shift(int delta)
+    {
+        start += delta;
+        if(children != null)
+        {
+            for(TclAstNode child : children)
+            {
+                child.shift(delta);
+            }
+        }
+    }
+    
     public boolean containsOffset(int offset)
     {
     	int end = start + length;
@@ -129,6 +152,20 @@ public class TclAstNode
         this.error = error;
     }
 
+    /**
+     * @return For a root node, true if the parse that produced it reported
+     *      any errors, some of which may not be attached to a node.
+     */
+    public boolean hasParseErrors()
+    {
+        return hasParseErrors;
+    }
+    
+    void setHasParseErrors(boolean hasParseErrors)
+    {
+        this.hasParseErrors = hasParseErrors;
+    }
+
     /**
      * @return If this node is any type of word node
      */
@@ -143,7 +180,7 @@ public class TclAstNode
         return type == QUOTED_WORD || type == COMMAND_WORD;
     }
     
-    public String getInternalText(char[] buffer)
+    public String getInternalText(CharSequence buffer)
     {
         int internalStart = start;
         int internalLength = length;
@@ -154,12 +191,12 @@ public class TclAstNode
             internalLength -= 2;
         }
         
-        if(internalLength <= 0 || (internalStart + internalLength > buffer.length))
+        if(internalLength <= 0 || (internalStart + internalLength > buffer.length()))
         {
             return "";
         }
         
-        return new String(buffer, internalStart, internalLength);
+        return buffer.subSequence(internalStart, internalStart + internalLength).toString();
     }
     
     public TclAstNode getChild(int type)
@@ -195,7 +232,7 @@ public class TclAstNode
         
     }
     
-    public void printTree(PrintStream stream, char input[], int depth)
+    public void printTree(PrintStream stream, CharSequence input, int depth)
     {
         for(int i = 0; i < depth; ++i)
         {
@@ -204,7 +241,7 @@ public class TclAstNode
         stream.print(this);
         if(children == null || children.isEmpty())
         {
-            stream.println(": " + new String(input, start, length));
+            stream.println(": " + input.subSequence(start, start + length));
         }
         else
         {
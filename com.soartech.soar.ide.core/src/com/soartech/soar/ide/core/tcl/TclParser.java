@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -68,7 +69,7 @@ public class TclParser
     /**
      * The current input buffer
      */
-    private char input[];
+    private CharSequence input;
     
     /**
      * The starting offset that all node positions are adjusted by. This is 
@@ -90,6 +91,19 @@ public class TclParser
     private int retryPosition = -1;
     
     public void setInput(char input[], int offset, int length)
+    {
+        setInput(CharBuffer.wrap(input), offset, length);
+    }
+    
+    /**
+     * Set the input to parse. The input is read in place rather than copied,
+     * so it must not change while parsing.
+     * 
+     * @param input The input, e.g. {@link com.soartech.soar.ide.core.model.ISoarBuffer#getCharSequence()}
+     * @param offset Offset of the first character to parse
+     * @param length Number of characters to parse
+     */
+    public void setInput(CharSequence input, int offset, int length)
     {
         this.input = input;
         this.start = offset;
@@ -121,14 +135,13 @@ public class TclParser
             r = reader.read(buffer);
         }
         
-        char chars[] = builder.toString().toCharArray();
-        setInput(chars, 0, chars.length);
+        setInput(builder, 0, builder.length());
     }
     
     /**
      * @return The current input to the parser
      */
-    public char[] getInput()
+    public CharSequence getInput()
     {
         return input;
     }
@@ -143,6 +156,7 @@ public class TclParser
     public TclAstNode parse()
     {
         errors.clear();
+        cursor = 0;
         TclAstNode root = new TclAstNode(TclAstNode.ROOT, 0);
         
         // Skip leading whitespace
@@ -150,36 +164,143 @@ public class TclParser
         
         while(!isEof())
         {
-            if(lookAhead(0) == '#')
+            consumeTopLevel(root);
+        }
+        
+        root.setEnd(getOffset());
+        root.setHasParseErrors(!errors.isEmpty());
+        return root;
+    }
+    
+    /**
+     * Reparse the current input after a single edit, reusing the parts of a
+     * previous parse tree that the edit can't have affected. The current 
+     * input must be the entire text after the edit, and the old tree must 
+     * be the result of parsing the entire text before the edit.
+     * 
+     * <p>Top-level commands before the edit are reused as is. Parsing 
+     * restarts at the command before the edit, in case the edit joins it
+     * with the next command, and continues until it reaches the start of a 
+     * top-level node of the old tree past the edit. From there, the old 
+     * nodes are shifted by the size of the edit rather than reparsed. So the
+     * cost of the reparse is proportional to the commands touched by the edit
+     * plus a cheap offset adjustment of the nodes after it.
+     * 
+     * <p>If the old tree had errors, a full parse is done instead since 
+     * error recovery can make a parse depend on text far from the error.
+     * 
+     * <p>The nodes of the old tree are reused in the new tree, so the old 
+     * tree must not be used after calling this method.
+     * 
+     * @param oldRoot The root returned by the previous parse
+     * @param offset Offset of the edit
+     * @param removedLength Number of characters removed by the edit
+     * @param insertedLength Number of characters inserted by the edit
+     * @return Root of the new parse tree. As with {@link #parse()}, check
+     *      {@link #getErrors()} for errors.
+     */
+    public TclAstNode parse(TclAstNode oldRoot, int offset, int removedLength, int insertedLength)
+    {
+        final int delta = insertedLength - removedLength;
+        if(oldRoot == null || oldRoot.hasParseErrors() || start != 0 ||
+           oldRoot.getLength() + delta != end || offset < 0 || 
+           offset + removedLength > oldRoot.getLength())
+        {
+            return parse();
+        }
+        
+        errors.clear();
+        TclAstNode root = new TclAstNode(TclAstNode.ROOT, 0);
+        List<TclAstNode> oldKids = oldRoot.getChildren();
+        
+        // Find the first node that could be affected by the edit and then back
+        // up one more since deleting a line terminator or adding a backslash
+        // can join a command to the previous one.
+        int first = 0;
+        while(first < oldKids.size() && 
+              oldKids.get(first).getStart() + oldKids.get(first).getLength() < offset)
+        {
+            ++first;
+        }
+        first = Math.max(0, first - 1);
+        
+        for(int i = 0; i < first; ++i)
+        {
+            root.addChild(oldKids.get(i));
+        }
+        
+        cursor = first > 0 ? oldKids.get(first).getStart() : 0;
+        consumeWhitespace();
+        
+        final int editEnd = offset + insertedLength;
+        int next = first;
+        while(!isEof())
+        {
+            // Once we're past the edit, if we're at the start of an old node,
+            // the rest of the old tree is still valid.
+            final int position = getOffset();
+            if(position > editEnd)
             {
-                TclAstNode comment = consumeComment();
-                if(comment != null)
+                final int oldPosition = position - delta;
+                while(next < oldKids.size() && oldKids.get(next).getStart() < oldPosition)
                 {
-                    root.addChild(comment);
+                    ++next;
                 }
-            }
-            else
-            {
-                TclAstNode command = consumeCommand();
-                if(command != null)
+                if(next < oldKids.size() && oldKids.get(next).getStart() == oldPosition)
                 {
-                    root.addChild(command);
-                    
-                    // If there's an error and a retry position
-                    if(command.getError() != null && retryPosition != -1)
+                    for(int i = next; i < oldKids.size(); ++i)
                     {
-                        cursor = retryPosition; // rewind 
-                        retryPosition = -1; // forget current retry position
+                        TclAstNode kid = oldKids.get(i);
+                        kid.shift(delta);
+                        root.addChild(kid);
                     }
+                    cursor = end;
+                    break;
                 }
             }
-            consumeWhitespace();
+            
+            consumeTopLevel(root);
         }
         
-        root.setEnd(getOffset());
+        root.setEnd(end);
+        root.setHasParseErrors(!errors.isEmpty());
         return root;
     }
     
+    /**
+     * Consume a single top-level comment or command, add it to the root and
+     * skip any whitespace following it.
+     * 
+     * @param root The root node
+     */
+    private void consumeTopLevel(TclAstNode root)
+    {
+        if(lookAhead(0) == '#')
+        {
+            TclAstNode comment = consumeComment();
+            if(comment != null)
+            {
+                root.addChild(comment);
+            }
+        }
+        else
+        {
+            TclAstNode command = consumeCommand();
+            if(command != null)
+            {
+                root.addChild(command);
+                
+                // If there's an error and a retry position
+                if(command.getError() != null && retryPosition != -1)
+                {
+                    cursor = retryPosition; // rewind 
+                    retryPosition = -1; // forget current retry position
+                }
+            }
+        }
+        consumeWhitespace();
+    }
+    
     public List<TclParserError> getErrors()
     {
         return errors;
@@ -601,7 +722,7 @@ public class TclParser
         {
             return EOF;
         }
-        return input[newCursor];
+        return input.charAt(newCursor);
     }
     
     public static void main(String[] args) throws IOException
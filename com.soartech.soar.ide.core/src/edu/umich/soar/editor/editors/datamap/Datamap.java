@@ -1,8 +1,13 @@
 package edu.umich.soar.editor.editors.datamap;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -11,14 +16,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.ui.IEditorDescriptor;
@@ -28,6 +36,8 @@ import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.part.FileEditorInput;
 
+import com.soartech.soar.ide.core.SoarCorePlugin;
+
 import edu.umich.soar.editor.editors.datamap.DatamapNode.NodeType;
 //import edu.umich.soar.editor.search.SoarSearchResultsView;
 
@@ -44,7 +54,10 @@ public class Datamap implements ITreeContentProvider
         boolean onDatamapChanged(Datamap datamap, Object changed);
     }
 
-    private static Map<IFile, Datamap> filesToDatamaps = new HashMap<IFile, Datamap>();
+    // Cache of datamaps that have been read. Shared by builder and editor
+    // threads. Entries are replaced when the file's modification stamp
+    // changes.
+    private static final ConcurrentMap<IFile, Datamap> filesToDatamaps = new ConcurrentHashMap<IFile, Datamap>();
 
     /**
      * For use by the datmap editor
@@ -68,16 +81,20 @@ public class Datamap implements ITreeContentProvider
 
     public DatamapNode makeNode(String line)
     {
-        String[] tokens = line.split("\\s+");
-        if (tokens.length < 2)
+        return makeNode(DatamapTokenizer.tokenize(line));
+    }
+
+    private DatamapNode makeNode(List<String> tokens)
+    {
+        if (tokens.size() < 2)
         {
             return null;
         }
-        String type = tokens[0];
+        String type = tokens.get(0);
         int id;
         try
         {
-            id = Integer.valueOf(tokens[1]);
+            id = Integer.parseInt(tokens.get(1));
         }
         catch (NumberFormatException e)
         {
@@ -87,24 +104,24 @@ public class Datamap implements ITreeContentProvider
         DatamapNode node = new DatamapNode(type, id, this);
         if (node.type == NodeType.ENUMERATION)
         {
-            for (int i = 3; i < tokens.length; ++i)
+            for (int i = 3; i < tokens.size(); ++i)
             {
-                node.values.add(tokens[i]);
+                node.values.add(tokens.get(i));
             }
         }
         else if (node.type == NodeType.FLOAT_RANGE)
         {
             try
             {
-                node.floatMin = Double.valueOf(tokens[2]);
-                node.floatMax = Double.valueOf(tokens[3]);
+                node.floatMin = Double.parseDouble(tokens.get(2));
+                node.floatMax = Double.parseDouble(tokens.get(3));
             }
             catch (NumberFormatException e)
             {
                 e.printStackTrace();
                 valid = false;
             }
-            catch (ArrayIndexOutOfBoundsException e)
+            catch (IndexOutOfBoundsException e)
             {
                 e.printStackTrace();
                 valid = false;
@@ -114,15 +131,15 @@ public class Datamap implements ITreeContentProvider
         {
             try
             {
-                node.intMin = Integer.valueOf(tokens[2]);
-                node.intMax = Integer.valueOf(tokens[3]);
+                node.intMin = Integer.parseInt(tokens.get(2));
+                node.intMax = Integer.parseInt(tokens.get(3));
             }
             catch (NumberFormatException e)
             {
                 e.printStackTrace();
                 valid = false;
             }
-            catch (ArrayIndexOutOfBoundsException e)
+            catch (IndexOutOfBoundsException e)
             {
                 e.printStackTrace();
                 valid = false;
@@ -130,21 +147,25 @@ public class Datamap implements ITreeContentProvider
         }
         else if (node.type == NodeType.LINKED_DATAMAP)
         {
-            node.relativePath = tokens[2];
+            node.relativePath = tokens.get(2);
         }
         return node;
     }
 
     public DatamapAttribute makeAttrbute(String line)
     {
-        String[] tokens = line.split("\\s+");
-        if (tokens.length < 3) return null;
-        int from = Integer.valueOf(tokens[0]);
-        String name = tokens[1];
+        return makeAttribute(DatamapTokenizer.tokenize(line));
+    }
+
+    private DatamapAttribute makeAttribute(List<String> tokens)
+    {
+        if (tokens.size() < 3) return null;
+        int from = Integer.parseInt(tokens.get(0));
+        String name = tokens.get(1);
         int to;
         try
         {
-            to = Integer.valueOf(tokens[2]);
+            to = Integer.parseInt(tokens.get(2));
         }
         catch (NumberFormatException e)
         {
@@ -164,10 +185,20 @@ public class Datamap implements ITreeContentProvider
 
     // Maps attribute.to values onto a list of attributes with that .to value.
     private Map<Integer, ArrayList<DatamapAttribute>> reversedAttributes;
+
+    // Lookup index over attributes, built on first validation and dropped
+    // whenever attributes change.
+    private volatile StaticDatamapIndex staticIndex;
     private boolean valid = true;
+    // Why the datamap couldn't be read, if it failed with an exception.
+    private Exception readError;
     private String filename;
     private IFile input;
 
+    // Modification stamp of input when this datamap was read or last saved.
+    // Used to tell whether the cached datamap is stale.
+    private volatile long modificationStamp;
+
     private Set<Integer> ids = new HashSet<Integer>();
 
     // Maps the name of a state onto root nodes for that state.
@@ -188,25 +219,24 @@ public class Datamap implements ITreeContentProvider
         datamapSavedListeners = new HashSet<Datamap.DatamapSavedListener>();
         datamapChangedListeners = new HashSet<Datamap.DatamapChangedListener>();
 
-        InputStream is;
         filename = input.getName();
         this.input = input;
+        this.modificationStamp = input.getModificationStamp();
         try
         {
-            is = input.getContents();
-            Scanner s = new Scanner(is);
+            char[] contents = readContents(input);
+            DatamapTokenizer tokenizer = new DatamapTokenizer(contents, contents.length);
+            List<String> tokens = tokenizer.getTokens();
             int num_nodes = -1;
-            while (s.hasNextLine())
+            while (num_nodes != 0 && tokenizer.nextLine())
             {
-                String line = s.nextLine().trim();
-                if (line.trim().isEmpty()) continue;
                 if (num_nodes == -1)
                 {
-                    num_nodes = Integer.valueOf(line);
+                    num_nodes = Integer.parseInt(tokens.get(0));
                 }
                 else
                 {
-                    DatamapNode node = makeNode(line);
+                    DatamapNode node = makeNode(tokens);
                     if (node == null)
                     {
                         valid = false;
@@ -215,24 +245,18 @@ public class Datamap implements ITreeContentProvider
                     ids.add(new Integer(node.id));
                     nodes.put(node.id, node);
                     --num_nodes;
-                    if (num_nodes == 0)
-                    {
-                        break;
-                    }
                 }
             }
             int num_attributes = -1;
-            while (s.hasNextLine())
+            while (num_attributes != 0 && tokenizer.nextLine())
             {
-                String line = s.nextLine();
-                if (line.trim().isEmpty()) continue;
                 if (num_attributes == -1)
                 {
-                    num_attributes = Integer.valueOf(line);
+                    num_attributes = Integer.parseInt(tokens.get(0));
                 }
                 else
                 {
-                    DatamapAttribute attribute = makeAttrbute(line);
+                    DatamapAttribute attribute = makeAttribute(tokens);
                     if (attribute == null)
                     {
                         valid = false;
@@ -240,22 +264,43 @@ public class Datamap implements ITreeContentProvider
                     }
                     addAttribute(attribute);
                     --num_attributes;
-                    if (num_attributes == 0)
-                    {
-                        break;
-                    }
                 }
             }
-            s.close();
             findStates();
         }
-        catch (CoreException e)
+        catch (CoreException | IOException e)
         {
-            e.printStackTrace();
+            readError = e;
             valid = false;
         }
     }
 
+    /**
+     * Read the entire contents of a file in the file's charset
+     */
+    private static char[] readContents(IFile file) throws CoreException, IOException
+    {
+        InputStream is = file.getContents();
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int r;
+            while ((r = is.read(buffer)) >= 0)
+            {
+                bytes.write(buffer, 0, r);
+            }
+            CharBuffer chars = Charset.forName(file.getCharset()).decode(ByteBuffer.wrap(bytes.toByteArray()));
+            char[] result = new char[chars.remaining()];
+            chars.get(result);
+            return result;
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
     public String[] getStateNames()
     {
         return stateNodeMap.keySet().toArray(new String[0]);
@@ -344,6 +389,9 @@ public class Datamap implements ITreeContentProvider
 
     public void contentChanged(Object changed, boolean closing)
     {
+        // Attributes may have been renamed in place
+        staticIndex = null;
+
         if (!closing)
         {
             IWorkbenchPage page = PlatformUI.getWorkbench().getActiveWorkbenchWindow().getActivePage();
@@ -385,6 +433,7 @@ public class Datamap implements ITreeContentProvider
 
     public void addAttribute(DatamapAttribute attribute)
     {
+        staticIndex = null;
         ArrayList<DatamapAttribute> list = attributes.get(attribute.from);
         if (list == null)
         {
@@ -403,6 +452,7 @@ public class Datamap implements ITreeContentProvider
 
     public void removeAttribute(DatamapAttribute attribute)
     {
+        staticIndex = null;
         ArrayList<DatamapAttribute> list = attributes.get(attribute.from);
         if (list != null)
         {
@@ -559,6 +609,11 @@ public class Datamap implements ITreeContentProvider
         {
             return false;
         }
+        if (file.equals(input))
+        {
+            // Our own save shouldn't make the cached copy look stale
+            modificationStamp = file.getModificationStamp();
+        }
 
         List<DatamapSavedListener> toRemove = new ArrayList<Datamap.DatamapSavedListener>();
         for (DatamapSavedListener listener : datamapSavedListeners)
@@ -615,6 +670,21 @@ public class Datamap implements ITreeContentProvider
         return attributes;
     }
 
+    /**
+     * @return Index over this datamap's attributes, for validating dynamic
+     *  datamaps against it. Built once and reused until attributes change.
+     */
+    public StaticDatamapIndex getStaticIndex()
+    {
+        StaticDatamapIndex index = staticIndex;
+        if (index == null)
+        {
+            index = new StaticDatamapIndex(attributes);
+            staticIndex = index;
+        }
+        return index;
+    }
+
     public Map<Integer, DatamapNode> getNodes()
     {
         return nodes;
@@ -622,22 +692,36 @@ public class Datamap implements ITreeContentProvider
 
     public static Datamap read(IFile file)
     {
-        System.out.println("Datamap.read, file: " + file.getFullPath());
-        if (filesToDatamaps.containsKey(file))
+        Datamap cached = filesToDatamaps.get(file);
+        if (cached != null && cached.modificationStamp == file.getModificationStamp())
         {
-            Datamap datamap = filesToDatamaps.get(file);
-            System.out.println("Found datamap in map, returning: " + datamap);
-            return datamap;
+            return cached;
         }
+
+        // Parse outside of any lock. If two threads race to read the same
+        // file, the first one to finish wins and the other's copy is dropped.
         Datamap datamap = new Datamap(file);
-        if (datamap.valid)
+        if (!datamap.valid)
         {
-            filesToDatamaps.put(file, datamap);
-            System.out.println("Added datamap to map, returning: " + datamap);
-            return datamap;
+            SoarCorePlugin.log(new Status(IStatus.WARNING, SoarCorePlugin.PLUGIN_ID, 0, 
+                    "Problem reading datamap " + file.getFullPath(), datamap.readError));
+            if (cached != null)
+            {
+                filesToDatamaps.remove(file, cached);
+            }
+            return null;
         }
-        System.out.println("Problem reading datama, returning null.");
-        return null;
+
+        boolean added = cached != null ? filesToDatamaps.replace(file, cached, datamap) : filesToDatamaps.putIfAbsent(file, datamap) == null;
+        if (!added)
+        {
+            Datamap winner = filesToDatamaps.get(file);
+            if (winner != null && winner.modificationStamp == datamap.modificationStamp)
+            {
+                return winner;
+            }
+        }
+        return datamap;
     }
 
     public DatamapNode getStateNode(String stateName)
@@ -731,14 +815,7 @@ public class Datamap implements ITreeContentProvider
 
     public static void datamapClosed(Datamap datamap)
     {
-        System.out.println("Datamap.datamapClosed, datamap: " + datamap);
-        IFile file = datamap.input;
-        System.out.println("Input is: " + file);
-        if (filesToDatamaps.containsKey(file))
-        {
-            System.out.println("...Removing datmap from map");
-            filesToDatamaps.remove(file);
-        }
+        filesToDatamaps.remove(datamap.input, datamap);
         datamap.contentChanged(null, true);
     }
 
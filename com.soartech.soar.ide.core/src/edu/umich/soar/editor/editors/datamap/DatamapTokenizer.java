@@ -0,0 +1,92 @@
+package edu.umich.soar.editor.editors.datamap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the contents of a .dm file into lines of whitespace separated
+ * tokens. This replaces Scanner and String.split(), which compile and run a
+ * regular expression and allocate a string for every line. Here the only
+ * allocations are the tokens themselves, and the token list is reused from
+ * line to line.
+ *
+ * @author ray
+ *
+ */
+class DatamapTokenizer
+{
+    private final char[] input;
+    private final int end;
+    private int cursor = 0;
+    private final List<String> tokens = new ArrayList<String>();
+
+    /**
+     * @param input The characters to tokenize
+     * @param length Number of characters of input to use
+     */
+    public DatamapTokenizer(char[] input, int length)
+    {
+        this.input = input;
+        this.end = length;
+    }
+
+    /**
+     * Tokenize a single line
+     *
+     * @param line The line
+     * @return The tokens in the line
+     */
+    public static List<String> tokenize(String line)
+    {
+        char[] chars = line.toCharArray();
+        DatamapTokenizer tokenizer = new DatamapTokenizer(chars, chars.length);
+        tokenizer.nextLine();
+        return tokenizer.getTokens();
+    }
+
+    /**
+     * Advance to the next line that isn't blank.
+     *
+     * @return true if a line was found, false at end of input
+     */
+    public boolean nextLine()
+    {
+        tokens.clear();
+        while (cursor < end && tokens.isEmpty())
+        {
+            while (cursor < end && input[cursor] != '\n' && input[cursor] != '\r')
+            {
+                if (Character.isWhitespace(input[cursor]))
+                {
+                    ++cursor;
+                    continue;
+                }
+                int start = cursor;
+                while (cursor < end && !Character.isWhitespace(input[cursor]))
+                {
+                    ++cursor;
+                }
+                tokens.add(new String(input, start, cursor - start));
+            }
+            // Skip the line terminator, \n, \r or \r\n
+            if (cursor < end && input[cursor] == '\r')
+            {
+                ++cursor;
+            }
+            if (cursor < end && input[cursor] == '\n')
+            {
+                ++cursor;
+            }
+        }
+        return !tokens.isEmpty();
+    }
+
+    /**
+     * @return The tokens of the current line. This list is reused by the
+     *         next call to {@link #nextLine()}.
+     */
+    public List<String> getTokens()
+    {
+        return tokens;
+    }
+}
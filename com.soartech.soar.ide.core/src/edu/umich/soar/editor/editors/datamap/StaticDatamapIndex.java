@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package edu.umich.soar.editor.editors.datamap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash index over the attributes of a static datamap, so that walking a path
+ * through it costs one lookup per step instead of a scan of each level's
+ * attribute list.
+ *
+ * <p>The index is a snapshot of the attribute table it was built from.
+ * {@link Datamap#getStaticIndex()} keeps one per datamap and drops it when
+ * attributes are added or removed.
+ */
+public class StaticDatamapIndex
+{
+    private final Map<Integer, Map<String, DatamapAttribute>> children = new HashMap<Integer, Map<String, DatamapAttribute>>();
+
+    /**
+     * @param attrMap Attributes of the static datamap, indexed by source node id.
+     *  Attributes from node 0 are the top level of the datamap.
+     */
+    public StaticDatamapIndex(Map<Integer, ArrayList<DatamapAttribute>> attrMap)
+    {
+        for(Map.Entry<Integer, ArrayList<DatamapAttribute>> entry : attrMap.entrySet())
+        {
+            Map<String, DatamapAttribute> byName = new HashMap<String, DatamapAttribute>();
+            for(DatamapAttribute attr : entry.getValue())
+            {
+                // Later attributes win, same as the old linear scan
+                byName.put(attr.name, attr);
+            }
+            children.put(entry.getKey(), byName);
+        }
+    }
+
+    /**
+     * Look up a child attribute.
+     *
+     * @param parent The attribute to step from, or null for the top level
+     * @param name The name of the child attribute
+     * @return The child attribute, or null if there isn't one
+     */
+    public DatamapAttribute getChild(DatamapAttribute parent, String name)
+    {
+        Map<String, DatamapAttribute> byName = children.get(parent != null ? parent.to : 0);
+        return byName != null ? byName.get(name) : null;
+    }
+}
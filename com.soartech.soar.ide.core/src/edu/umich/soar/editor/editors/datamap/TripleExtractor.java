@@ -2,11 +2,11 @@ package edu.umich.soar.editor.editors.datamap;
 
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.ast.Action;
 import com.soartech.soar.ide.core.model.ast.AttributeTest;
 import com.soartech.soar.ide.core.model.ast.AttributeValueMake;
@@ -31,22 +31,6 @@ import com.soartech.soar.ide.core.model.ast.VarAttrValMake;
 
 public class TripleExtractor {
 
-	static long visitingRuleNodes;
-	static long applyingState;
-	static long addingAttributePathInfo;
-
-	public static void resetLoggingTimes() {
-		visitingRuleNodes = 0;
-		applyingState = 0;
-		addingAttributePathInfo = 0;
-	}
-
-	public static void printLoggingTimes() {
-		System.out.println("Time Spent visiting rules nodes: " + visitingRuleNodes);
-		System.out.println("Time Spent applying state: " + applyingState);
-		System.out.println("Time Spent adding attribute path info: " + addingAttributePathInfo);
-	}
-
 	public static HashMap<String, ArrayList<Triple>> triplesWithVariable(ArrayList<Triple> triples) {
 		HashMap<String, ArrayList<Triple>> triplesWithVariable = new HashMap<String, ArrayList<Triple>>();
 		for (Triple triple : triples) {
@@ -82,17 +66,17 @@ public class TripleExtractor {
 	public static List<Triple> makeTriples(SoarProductionAst ast, ArrayList<String> stateVariables, boolean includeRhs)
 	{
 		ArrayList<Triple> triples = new ArrayList<Triple>();
-		visitingRuleNodes -= new Date().getTime();
+		long start = SoarMetrics.start();
 		
 		visitSoarProductionAst(ast, triples, stateVariables, includeRhs);
 		
-		visitingRuleNodes += new Date().getTime();
-		applyingState -= new Date().getTime();
+		SoarMetrics.stop("TripleExtractor: visiting rule nodes", start);
+		start = SoarMetrics.start();
 		applyStateToTriples(triples, stateVariables);
-		applyingState += new Date().getTime();
-		addingAttributePathInfo -= new Date().getTime();
+		SoarMetrics.stop("TripleExtractor: applying state", start);
+		start = SoarMetrics.start();
 		addAttributePathInformationToTriples(triples);
-		addingAttributePathInfo += new Date().getTime();
+		SoarMetrics.stop("TripleExtractor: adding attribute path info", start);
 		
 		return triples;
 	}
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -21,6 +22,8 @@ import org.eclipse.core.runtime.Status;
 
 import com.soartech.soar.ide.core.Logger;
 import com.soartech.soar.ide.core.SoarCorePlugin;
+import com.soartech.soar.ide.core.metrics.BuildPhase;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.ISoarElement;
 import com.soartech.soar.ide.core.model.ISoarFile;
@@ -32,8 +35,7 @@ import com.soartech.soar.ide.core.model.SoarModelException;
 import com.soartech.soar.ide.core.model.SoarModelTools;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute;
-import com.soartech.soar.ide.core.model.datamap.ISoarDatamapNode;
-import com.soartech.soar.ide.core.model.datamap.SoarDatamapTools;
+import com.soartech.soar.ide.core.model.impl.SoarFileAgentProxy;
 import com.soartech.soar.ide.core.model.impl.SoarProduction;
 import com.soartech.soar.ide.core.model.impl.SoarProduction2;
 
@@ -51,6 +53,9 @@ public class ValidateDatamapAction extends Action {
     private ISoarDatamap soarDatamap;
     private String source;
     
+    // Production name ranges of each file proxy seen by getFileRange()
+    private Map<SoarFileAgentProxy, Map<String, ISoarSourceRange>> fileNameRanges = new HashMap<SoarFileAgentProxy, Map<String, ISoarSourceRange>>();
+    
     public ValidateDatamapAction(Datamap staticDatamap, ISoarDatamap soarDatamap, String source)
     {
         super("Validate Datamap against Soar Project");
@@ -63,8 +68,6 @@ public class ValidateDatamapAction extends Action {
     @Override
     public void run() 
     {
-        System.out.println("Validating datamap against the Soar Project");
-        
         //get the datamap file
         File datamapFile = staticDatamap.getFile();
         IFile datamapIFile = staticDatamap.getIFile();
@@ -98,8 +101,6 @@ public class ValidateDatamapAction extends Action {
             // get the project from the datamap file
             soarProject = SoarCorePlugin.getDefault().getInternalSoarModel().createSoarProject(datamapIFile.getProject());
             
-            System.out.println("Processing SoarProject: " + soarProject.getPath());
-            
             //get the agent to check by getting a soar file next to the .dm file
             ISoarAgent agentToCheck = null;
             for (IResource resource : datamapIDirFiles)
@@ -130,10 +131,8 @@ public class ValidateDatamapAction extends Action {
             	return;
             }
             
-            System.out.println("Processing Soar Agent: " + agentToCheck.getName());
-            
-            //get the static datamap
-            Map<Integer, ArrayList<DatamapAttribute>> attrMap = staticDatamap.getAttributes();
+            //get the static datamap, indexed for lookup
+            StaticDatamapIndex staticIndex = staticDatamap.getStaticIndex();
             
             //get the dynamic datamap and attrs
             if(soarDatamap == null)
@@ -141,165 +140,257 @@ public class ValidateDatamapAction extends Action {
                 soarDatamap = agentToCheck.getDatamap();
             }
             
-            Map<String, ISoarDatamapNode> dynamicNodes = SoarDatamapTools.getAllElementNodes(soarDatamap);
-            
-            //create a map
-            ArrayList<DatamapAttribute> level0Attrs = attrMap.get(0);
-            Map<String, DatamapAttribute> staticLevel0AttrMap = new HashMap<String, DatamapAttribute>();
-            for(DatamapAttribute attr:level0Attrs)
-            {
-                staticLevel0AttrMap.put(attr.name, attr);
-            }
+            final long start = SoarMetrics.start();
+            List<Mismatch> mismatches = findMismatches(staticIndex, soarDatamap);
+            SoarMetrics.stop(BuildPhase.VALIDATION, SoarMetrics.AGENT, agentToCheck.getName(), start);
             
-            //go over each leaf attribute node in the dynamic datamap
-            for(String key : dynamicNodes.keySet())
+            final long markerStart = SoarMetrics.start();
+            for(Mismatch mismatch : mismatches)
             {
-                ISoarDatamapNode node = dynamicNodes.get(key);
+                ISoarDatamapAttribute currDynamicAttr = mismatch.attribute;
+                String errorMessage = mismatch.errorMessage;
                 
-                System.out.println("Checking dynamic node: " + key);
-                
-                DatamapAttribute currStaticAttr = null;
-                ISoarDatamapAttribute currDynamicAttr = null;
-                
-                boolean hasError = false;
-                
-                String errorPath = "[state";
-                String errorMessage = "Missing in static datamap: \n ";
-                
-                //get the path to this dynamic leaf attribute node
-                List<ISoarDatamapAttribute> nodePath = SoarDatamapTools.getPathToNode(node);
-                //iterate over the ordered list of ISoarDatamapAttribute objects representing the path to this node
-                for(ISoarDatamapAttribute attr : nodePath)
+                //set error on node in editor here
+                Set<ISoarProduction> supportingProductions = currDynamicAttr.getSupportingProductions();
+                for(ISoarProduction sp : supportingProductions)
                 {
-                    System.out.println("path part: " + attr.getName());
-                    currDynamicAttr = attr;
-                    errorPath += "." + attr.getName();
-                    
-                    //if there is no staticAttr mapped to this dynamic node path part, then get it from the base level
-                    if(currStaticAttr == null)
-                    {
-                        currStaticAttr = staticLevel0AttrMap.get(attr.getName());
-                        if(currStaticAttr == null)
-                        {
-                            System.out.println("Dynamic node " + attr.getName() + " not in static map");
-                            hasError = true;
-                            errorMessage = updateErrorMessage(errorMessage, errorPath);
-//                            break;
-                        }
-                        else
-                        {
-                            //base level attr is in the map
-                            //do nothing?
-                        }
-                    }
-                    else
+                    if(source != null)
                     {
-                        //check if attr is on next level in map
-                        boolean hasAttr = false;
-                        ArrayList<DatamapAttribute> toAttrs = attrMap.get(currStaticAttr.to);
-                        if(toAttrs == null)
+                        int index;
+                        int length;
+                        ISoarSourceRange range = getFileRange(sp);
+                        if(range != null)
                         {
-                            hasError = true;
-                            errorMessage = updateErrorMessage(errorMessage, errorPath);
-//                            break;
+                            index = range.getOffset();
+                            length = range.getLength();
                         }
                         else
                         {
-                            for(DatamapAttribute toAttr : toAttrs)
-                            {
-                                if(toAttr.name.equals(attr.getName()))
-                                {
-                                    currStaticAttr = toAttr;
-                                    hasAttr = true;
-                                }
-                            }
-                            
-                            if(!hasAttr)
-                            {
-                                System.out.println("Dynamic node " + attr.getName() + " not in static map");
-                                hasError = true;
-                                errorMessage = updateErrorMessage(errorMessage, errorPath);
-//                                break;
-                            }
+                            index = source.indexOf(sp.getProductionName());
+                            length = sp.getProductionName().length();
                         }
                         
-                    }
-                    
-                }
-                
-                if(hasError)
-                {
-                    System.out.println("ERROR: node is not in static datamap: " + key);
-                    
-                    //set error on node in editor here
-                    Set<ISoarProduction> supportingProductions = currDynamicAttr.getSupportingProductions();
-                    
-                    for(ISoarProduction sp : supportingProductions)
-                    {
-                        System.out.println(" -> error in " + sp.getProductionName());
-                        
-                        if(source != null)
-                        {
-                            
-                            //sp is the ISoarProduction from the expanded code
-                            //ideally we want the ISoarProduction from the file's code
-                            //so the marker is in the right spot
-                            int index = source.indexOf(sp.getProductionName());
-                            int length = sp.getProductionName().length();
-                            
-                            if(sp instanceof SoarProduction2)
-                            {
-                                ISoarSourceRange tclMacroRange = ((SoarProduction2) sp).getTclSourceRange();
-                                if(tclMacroRange != null)
-                                {
-                                    index = tclMacroRange.getOffset();
-                                    length = tclMacroRange.getLength();
-                                }
-                            }
-                            
-                            try {
+                        try {
 //                                ISoarSourceRange sourceRange = getEditorLocation(sp);
 //                                createErrorMarker(sp, currDynamicAttr, soarProject);
 //                                errorMessage += "]";
-                                createErrorMarker(sp, errorMessage, index, length, currDynamicAttr, soarProject);
-                                
-                            } catch (CoreException e) {
-                                e.printStackTrace();
-                            }
+                            createErrorMarker(sp, errorMessage, index, length, currDynamicAttr, soarProject);
+                            
+                        } catch (CoreException e) {
+                            e.printStackTrace();
                         }
-                        else
-                        {
-                            try {
+                    }
+                    else
+                    {
+                        try {
 //                                ISoarSourceRange sourceRange = getEditorLocation(sp);
 //                                errorMessage += "]";
-                                createErrorMarker(sp, errorMessage, currDynamicAttr, soarProject);
-                                
-                            } catch (CoreException e) {
-                                e.printStackTrace();
-                            }
+                            createErrorMarker(sp, errorMessage, currDynamicAttr, soarProject);
+                            
+                        } catch (CoreException e) {
+                            e.printStackTrace();
                         }
                     }
                 }
-                else
-                {
-                    System.out.println("SUCCESS: node is in static datamap: " + key);
-                }
             }
-            
-            
-            
+            SoarMetrics.stop(BuildPhase.MARKER_WRITING, SoarMetrics.AGENT, agentToCheck.getName(), markerStart);
         } catch (SoarModelException e1) {
             e1.printStackTrace();
         }
+    }
+    
+    /**
+     * Find where a production's marker should go in the file being validated.
+     * 
+     * @param sp A supporting production
+     * @return The range of the production's tcl macro or name in the file, or
+     *  null if it can't be found
+     */
+    private ISoarSourceRange getFileRange(ISoarProduction sp)
+    {
+        if(!(sp instanceof SoarProduction2))
+        {
+            return sp.getProductionNameRange();
+        }
         
-        System.out.println("Finished Validating datamap!");
+        SoarProduction2 expanded = (SoarProduction2) sp;
+        ISoarSourceRange tclMacroRange = expanded.getTclSourceRange();
+        if(tclMacroRange != null)
+        {
+            return tclMacroRange;
+        }
         
+        //sp is the ISoarProduction from the expanded code, so its ranges
+        //don't match the file. Use the file's production with the same name.
+        Map<String, ISoarSourceRange> nameRanges = fileNameRanges.get(expanded.getSoarFileProxy());
+        if(nameRanges == null)
+        {
+            nameRanges = new HashMap<String, ISoarSourceRange>();
+            for(ISoarElement element : expanded.getFileElements())
+            {
+                if(element instanceof ISoarProduction)
+                {
+                    ISoarProduction fileProduction = (ISoarProduction) element;
+                    nameRanges.put(fileProduction.getProductionName(), fileProduction.getProductionNameRange());
+                }
+            }
+            fileNameRanges.put(expanded.getSoarFileProxy(), nameRanges);
+        }
+        return nameRanges.get(sp.getProductionName());
     }
     
-    private String updateErrorMessage(String errorMessage, String errorPath)
+    /**
+     * A node of the dynamic datamap that has no matching path in the static
+     * datamap.
+     */
+    public static class Mismatch
     {
-        errorMessage += errorPath + "] \n ";
-        return errorMessage;
+        /** Key of the node, as returned by SoarDatamapTools.getAllElementNodes() */
+        public final String key;
+        
+        /** Marker message listing the paths that were not found */
+        public final String errorMessage;
+        
+        /** Last attribute on the path to the node */
+        public final ISoarDatamapAttribute attribute;
+        
+        Mismatch(String key, String errorMessage, ISoarDatamapAttribute attribute)
+        {
+            this.key = key;
+            this.errorMessage = errorMessage;
+            this.attribute = attribute;
+        }
+    }
+    
+    /**
+     * Check every element node of the dynamic datamap against the static
+     * datamap. This doesn't touch the workspace, so it can be run (and
+     * measured) outside of Eclipse.
+     * 
+     * @param attrMap Attributes of the static datamap, indexed by source node id
+     * @param soarDatamap The dynamic datamap
+     * @return The dynamic nodes that aren't in the static datamap
+     */
+    public static List<Mismatch> findMismatches(Map<Integer, ArrayList<DatamapAttribute>> attrMap, ISoarDatamap soarDatamap)
+    {
+        return findMismatches(new StaticDatamapIndex(attrMap), soarDatamap);
+    }
+    
+    /**
+     * Check every element node of the dynamic datamap against the static
+     * datamap in one depth-first pass. The dynamic datamap is walked the same
+     * way as SoarDatamapTools.getAllElementNodes(), with the matching static
+     * attribute tracked along the way, so each dynamic attribute is looked
+     * up once.
+     * 
+     * @param staticIndex Index over the static datamap
+     * @param soarDatamap The dynamic datamap. Its latest snapshot is checked.
+     * @return The dynamic nodes that aren't in the static datamap
+     */
+    public static List<Mismatch> findMismatches(StaticDatamapIndex staticIndex, ISoarDatamap soarDatamap)
+    {
+        Walk walk = new Walk(staticIndex);
+        for(ISoarDatamapAttribute attr : soarDatamap.getSnapshot().getState().getAttributes())
+        {
+            walk.visit(attr, null, 0);
+        }
+        return walk.mismatches;
+    }
+    
+    /**
+     * State of a findMismatches() pass. The path to the current node is kept
+     * as ".a.b.c" in path, with pathEnds[i] marking the end of the i+1'th
+     * step and missing[i] recording whether that prefix was missing from
+     * the static datamap.
+     */
+    private static class Walk
+    {
+        //don't ever recurse more than 25 times
+        private static final int MAX_DEPTH = 25;
+        
+        final StaticDatamapIndex staticIndex;
+        final List<Mismatch> mismatches = new ArrayList<Mismatch>();
+        final Set<ISoarDatamapAttribute> followed = new HashSet<ISoarDatamapAttribute>();
+        final Set<String> reported = new HashSet<String>();
+        final StringBuilder path = new StringBuilder();
+        final int[] pathEnds = new int[MAX_DEPTH + 1];
+        final boolean[] missing = new boolean[MAX_DEPTH + 1];
+        int missingCount = 0;
+        
+        Walk(StaticDatamapIndex staticIndex)
+        {
+            this.staticIndex = staticIndex;
+        }
+        
+        void visit(ISoarDatamapAttribute attr, DatamapAttribute staticParent, int depth)
+        {
+            int pathStart = path.length();
+            path.append('.').append(attr.getName());
+            pathEnds[depth] = path.length();
+            
+            //a step that isn't in the static datamap leaves the static
+            //position where it was
+            DatamapAttribute staticAttr = staticIndex.getChild(staticParent, attr.getName());
+            missing[depth] = staticAttr == null;
+            if(staticAttr == null)
+            {
+                staticAttr = staticParent;
+                missingCount++;
+            }
+            
+            //a missing step is reported at every node it's on, not just
+            //at the leaves below it
+            if(missing[depth])
+            {
+                report(attr, depth);
+            }
+            
+            boolean visitedChild = false;
+            if(depth + 1 <= MAX_DEPTH)
+            {
+                for(ISoarDatamapAttribute child : attr.getTarget().getAttributes())
+                {
+                    //only recurse if we haven't already followed this attribute
+                    if(followed.add(child))
+                    {
+                        visitedChild = true;
+                        visit(child, staticAttr, depth + 1);
+                    }
+                }
+            }
+            
+            //the walk ends here, either at a leaf, at the depth limit or
+            //because every child was reached by another path
+            if(!visitedChild && missingCount > 0)
+            {
+                report(attr, depth);
+            }
+            
+            if(missing[depth])
+            {
+                missingCount--;
+            }
+            path.setLength(pathStart);
+        }
+        
+        private void report(ISoarDatamapAttribute attr, int depth)
+        {
+            String key = path.substring(1);
+            if(!reported.add(key))
+            {
+                return;
+            }
+            
+            StringBuilder errorMessage = new StringBuilder("Missing in static datamap: \n ");
+            for(int i = 0; i <= depth; ++i)
+            {
+                if(missing[i])
+                {
+                    errorMessage.append("[state").append(path, 0, pathEnds[i]).append("] \n ");
+                }
+            }
+            mismatches.add(new Mismatch(key, errorMessage.toString(), attr));
+        }
     }
     
     private void createErrorMarker(ISoarElement element, String message, ISoarDatamapAttribute attr, ISoarProject soarProject) throws CoreException
@@ -346,8 +437,6 @@ public class ValidateDatamapAction extends Action {
                 lengthAdded = 0;
             }
             
-            System.out.println("[ValidateDatamapAction]: creating error marker for attr " + attr.getName());
-            
             if(offsetIntoProduction > 0)
             {
                 SoarModelTools.createWarningMarker(SoarCorePlugin.DATAMAP_PROBLEM_MARKER_ID, file, range.getOffset() + offsetIntoProduction, attr.getName().length() + lengthAdded, message);
@@ -393,8 +482,6 @@ public class ValidateDatamapAction extends Action {
         
 //        System.out.println(" -> with file " + file.getFullPath().toOSString());
 //        System.out.println(" -> with offset " + index + " and length " + length);
-        System.out.println("[ValidateDatamapAction]: creating error marker for attr " + attr.getName());
-        
         SoarModelTools.createWarningMarker(SoarCorePlugin.DATAMAP_PROBLEM_MARKER_ID, file, index, length, message);
 //        SoarModelTools.createErrorMarker(SoarCorePlugin.DATAMAP_PROBLEM_MARKER_ID, file, index, length, "Attribute " + attr.getName() + " not in static datamap");
     }
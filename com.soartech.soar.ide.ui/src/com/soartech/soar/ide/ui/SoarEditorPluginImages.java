@@ -141,6 +141,7 @@ public class SoarEditorPluginImages {
         registerImage(registry, IMG_FOLDING_REGION);
         registerImage(registry, IMG_DATAMAP_FILTER);
         registerImage(registry, IMG_DATAMAP_REMOVE_FILTER);
+        registerImage(registry, IMG_CLEAR);
     }
     
     /**
@@ -35,6 +35,7 @@ import org.eclipse.ui.IWorkbenchPart;
 import com.soartech.soar.ide.core.model.ISoarBuffer;
 import com.soartech.soar.ide.core.model.ISoarFile;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamapNode;
@@ -210,7 +211,9 @@ public class GenerateMonitorProductionFromDatamapActionDelegate implements
             return;
         }
         
-        synchronized (workingCopy.getLock())
+        final SoarModelLock lock = workingCopy.getLock();
+        lock.acquireWrite();
+        try
         {
             
             try
@@ -224,6 +227,10 @@ public class GenerateMonitorProductionFromDatamapActionDelegate implements
                 return;
             }
         }
+        finally
+        {
+            lock.releaseWrite();
+        }
         
         if(lineOffset != -1)
         {
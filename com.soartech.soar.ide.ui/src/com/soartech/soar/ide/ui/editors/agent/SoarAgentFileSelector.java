@@ -56,6 +56,7 @@ import org.eclipse.ui.model.WorkbenchLabelProvider;
 
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.ui.SoarEditorUIPlugin;
 import com.soartech.soar.ide.ui.SoarUiTools;
 
@@ -288,7 +289,9 @@ class SoarAgentFileSelector implements ITreeViewerListener, ICheckStateListener,
     {
         final ISoarAgent agent = editor.getAgent();
         
-        synchronized(agent.getLock())
+        final SoarModelLock lock = agent.getLock();
+        lock.acquireWrite();
+        try
         {
             try
             {
@@ -319,6 +322,10 @@ class SoarAgentFileSelector implements ITreeViewerListener, ICheckStateListener,
                 SoarEditorUIPlugin.log(e);
             }
         }
+        finally
+        {
+            lock.releaseWrite();
+        }
     }
 
     /* (non-Javadoc)
@@ -107,6 +107,16 @@ public class SoarBufferDocumentAdapter implements ISoarBuffer,
         String content = getContents();
         return content != null ? content.toCharArray() : new char[0];
     }
+    
+    /* (non-Javadoc)
+     * @see com.soartech.soar.ide.core.model.ISoarBuffer#getCharSequence()
+     */
+    public CharSequence getCharSequence()
+    {
+        // The document's contents may change underneath us, so a String copy
+        // is the only safe view here.
+        return getContents();
+    }
 
     /* (non-Javadoc)
      * @see com.soartech.soar.ide.core.model.ISoarBuffer#getContents()
@@ -47,6 +47,7 @@ import com.soartech.soar.ide.core.model.ITclHelpModel;
 import com.soartech.soar.ide.core.model.ITclProcedure;
 import com.soartech.soar.ide.core.model.ITclProcedureHelp;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
 import com.soartech.soar.ide.core.tcl.TclAstNode;
 import com.soartech.soar.ide.core.tcl.TclParser;
@@ -152,7 +153,9 @@ extends TemplateCompletionProcessor {
     //TODO: Find out what files the autocomplete is indexing that might make it slow
     public ICompletionProposal[] computeCompletionProposals( ITextViewer viewer, int offset )
     {
-        synchronized(configuration.getEditor().getWorkingCopyLock())
+        final SoarModelLock lock = configuration.getEditor().getWorkingCopyLock();
+        lock.acquireRead();
+        try
         {
             IDocument doc = viewer.getDocument();
             String last = lastWord( doc, offset );
@@ -241,6 +244,10 @@ extends TemplateCompletionProcessor {
 
             return proposals.toArray( new ICompletionProposal[proposals.size()] );
         }
+        finally
+        {
+            lock.releaseRead();
+        }
 
     }
     
@@ -273,8 +280,9 @@ extends TemplateCompletionProcessor {
 
     private TclAstNode getProductionNode(ISoarBuffer buffer, int offset)
     {
+        CharSequence contents = buffer.getCharSequence();
         TclParser parser = new TclParser();
-        parser.setInput(buffer.getCharacters(), 0, buffer.getLength());
+        parser.setInput(contents, 0, contents.length());
         TclAstNode root = parser.parse();
         for(TclAstNode node : root.getChildren())
         {
@@ -323,7 +331,7 @@ extends TemplateCompletionProcessor {
 
     private ProposalInfo[][] getPossibleAttributes(ISoarAgent agent, ProductionInfo info)
     {
-        ISoarDatamap datamap = agent.getDatamap();
+        ISoarDatamap datamap = agent.getDatamap().getSnapshot();
 
         return SoarContentAssistAttributeFinder.getPossibleAttributes(datamap, info.source, info.localOffset);
     }
@@ -66,6 +66,7 @@ import com.soartech.soar.ide.core.model.ISoarProblemReporter;
 import com.soartech.soar.ide.core.model.ISoarProject;
 import com.soartech.soar.ide.core.model.SoarModelEvent;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.core.model.SoarModelTools;
 import com.soartech.soar.ide.ui.SoarEditorUIPlugin;
 import com.soartech.soar.ide.ui.editors.text.actions.ToggleCommentAction;
@@ -88,7 +89,7 @@ public class SoarEditor extends TextEditor
     private boolean disposed = false;
     private SoarEditorStatusBar statusBar;
     private SoarOutlinePage outline = null;
-    private Object workingCopyLock = new Object();
+    private SoarModelLock workingCopyLock = SoarModelLock.createProjectLock("");
     private ModelListener modelListener = new ModelListener();
     
     private SoarFoldingSupport foldingSupport;
@@ -149,7 +150,7 @@ public class SoarEditor extends TextEditor
         return null;
     }
     
-    public Object getWorkingCopyLock()
+    public SoarModelLock getWorkingCopyLock()
     {
         ISoarFile workingCopy = getSoarFileWorkingCopy();
         return workingCopy != null ? workingCopy.getLock() : workingCopyLock;
@@ -214,7 +215,9 @@ public class SoarEditor extends TextEditor
                     return;
                 }
                 
-                synchronized(getWorkingCopyLock())
+                final SoarModelLock lock = getWorkingCopyLock();
+                lock.acquireRead();
+                try
                 {
                     foldingSupport.updateFoldingStructure();
                     
@@ -228,6 +231,10 @@ public class SoarEditor extends TextEditor
                     // the model.
                     getSelectionProvider().setSelection(getSelectionProvider().getSelection());
                 }
+                finally
+                {
+                    lock.releaseRead();
+                }
             }});
     }
     
@@ -389,7 +396,9 @@ public class SoarEditor extends TextEditor
      */
     public ISoarElement getElementAtCaretOffset()
     {
-        synchronized (getWorkingCopyLock())
+        final SoarModelLock lock = getWorkingCopyLock();
+        lock.acquireRead();
+        try
         {
             ISourceViewer sourceViewer = getSourceViewer();
             if(sourceViewer == null)
@@ -423,6 +432,10 @@ public class SoarEditor extends TextEditor
                 return null;
             }
         }
+        finally
+        {
+            lock.releaseRead();
+        }
     }
 
     /**
@@ -431,7 +444,9 @@ public class SoarEditor extends TextEditor
      */
     public ISoarProduction getProductionWithinOffsets(int start, int end)
     {
-        synchronized (getWorkingCopyLock())
+        final SoarModelLock lock = getWorkingCopyLock();
+        lock.acquireRead();
+        try
         {         
             ISoarFile wc = getSoarFileWorkingCopy();
             if(wc == null)
@@ -444,11 +459,18 @@ public class SoarEditor extends TextEditor
                 ISoarFileAgentProxy agentProxy = wc.getPrimaryAgentProxy();
                 if(agentProxy!=null)
                 {
-                	//get every production in the file (almost certain faster than checking every offset in the range)
-                	List<ISoarProduction> list = agentProxy.getProductions();
+                	// Only the productions near the range. The index query is
+                	// widened by one on each side to include productions that
+                	// end at start or begin at end.
+                	List<ISoarElement> list = agentProxy.getElementsOverlapping(start - 1, end - start + 2);
             		ISoarProduction element=null;
-                	for(ISoarProduction prod : list)
+                	for(ISoarElement e : list)
                 	{
+                	    if(!(e instanceof ISoarProduction))
+                	    {
+                	        continue;
+                	    }
+                	    ISoarProduction prod = (ISoarProduction) e;
                 		//if any part of the production is in range
                 		if((prod.getSourceRange().getOffset() >= start && prod.getSourceRange().getOffset() <= end) ||
                 				(prod.getSourceRange().getEnd() >= start && prod.getSourceRange().getEnd() <=end))
@@ -475,6 +497,10 @@ public class SoarEditor extends TextEditor
                 return null;
             }
         }
+        finally
+        {
+            lock.releaseRead();
+        }
     }
 
     private void configureToggleCommentAction() {
@@ -48,6 +48,7 @@ import com.soartech.soar.ide.core.SoarCorePlugin;
 import com.soartech.soar.ide.core.model.ISoarAgent;
 import com.soartech.soar.ide.core.model.ISoarFile;
 import com.soartech.soar.ide.core.model.SoarModelException;
+import com.soartech.soar.ide.core.model.SoarModelLock;
 import com.soartech.soar.ide.ui.SoarEditorUIPlugin;
 import com.soartech.soar.ide.ui.actions.NewSoarAgentWizardActionDelegate;
 
@@ -188,7 +189,9 @@ public class SoarEditorStatusBar
             return;
         }
         
-        synchronized (editor.getWorkingCopyLock())
+        final SoarModelLock lock = editor.getWorkingCopyLock();
+        lock.acquireRead();
+        try
         {
             ISoarFile wc = editor.getSoarFileWorkingCopy();
             String link = "";
@@ -203,6 +206,10 @@ public class SoarEditorStatusBar
             
             agentsLink.setText(link);
         }
+        finally
+        {
+            lock.releaseRead();
+        }
     }
     
     private void agentClicked(SelectionEvent event)
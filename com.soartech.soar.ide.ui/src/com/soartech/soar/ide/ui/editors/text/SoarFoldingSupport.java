@@ -91,7 +91,7 @@ public class SoarFoldingSupport
         {
             try
             {
-                refreshRegions(root, editor.getSoarFileWorkingCopy().getBuffer().getCharacters());
+                refreshRegions(root, editor.getSoarFileWorkingCopy().getBuffer().getCharSequence());
             }
             catch (SoarModelException e) {}
             
@@ -190,7 +190,7 @@ public class SoarFoldingSupport
         return null;
     }
     
-    private void refreshRegions(TclAstNode root, char buffer[])
+    private void refreshRegions(TclAstNode root, CharSequence buffer)
     {
         Stack<TclAstNode> stack = new Stack<TclAstNode>();
         Stack<String> names = new Stack<String>();
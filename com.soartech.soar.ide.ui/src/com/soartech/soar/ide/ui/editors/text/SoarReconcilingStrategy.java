@@ -39,6 +39,7 @@ import com.soartech.soar.ide.core.model.ISoarFileAgentProxy;
 import com.soartech.soar.ide.core.model.SoarModelException;
 import com.soartech.soar.ide.core.model.SoarModelTools;
 import com.soartech.soar.ide.core.model.impl.SoarAgent;
+import com.soartech.soar.ide.core.model.impl.SoarFileAgentProxy;
 import com.soartech.soar.ide.ui.SoarEditorUIPlugin;
 
 import edu.umich.soar.editor.editors.datamap.Datamap;
@@ -114,6 +115,7 @@ public class SoarReconcilingStrategy implements IReconcilingStrategy, IReconcili
             
             //delete any datamap problem markers
             SoarModelTools.deleteMarkers(workingCopy.getFile(), SoarCorePlugin.DATAMAP_PROBLEM_MARKER_ID);
+            SoarFileAgentProxy.forgetDatamapValidation(workingCopy.getFile());
             
             //get the static datamaps
             Set<IResource> agentFiles = agentToCheck.getMembers();
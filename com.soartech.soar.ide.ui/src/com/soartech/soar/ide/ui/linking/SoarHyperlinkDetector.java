@@ -104,7 +104,7 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 	 * @param offset The offset around which to find the region.
 	 * @return The new delimited region.
 	 */
-	private IRegion getWhitespaceDelimitedRegion(char[] source, int offset)
+	private IRegion getWhitespaceDelimitedRegion(CharSequence source, int offset)
 	{	
 		int beginIndex = getTclCommandBeginIndex(source, offset);
 		
@@ -128,8 +128,8 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 		int offset = region.getOffset();
         		
 		try {
-			char[] source = file.getBuffer().getCharacters();
-			if(source == null || source.length == 0)
+			CharSequence source = file.getBuffer().getCharSequence();
+			if(source == null || source.length() == 0)
             {
 			    return null;
             }
@@ -162,13 +162,13 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 	 * @param offset The offset into the source to search from.
 	 * @return The begin index.
 	 */
-	private int getTclCommandBeginIndex(char[] source, int offset)
+	private int getTclCommandBeginIndex(CharSequence source, int offset)
 	{
-		int index = Math.min(offset, source.length - 1);
+		int index = Math.min(offset, source.length() - 1);
 		
 		while(index >= 0)
 		{
-			char c = source[index];
+			char c = source.charAt(index);
 			
 			if(Character.isWhitespace(c))
 			{
@@ -193,13 +193,13 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 	 * @param offset The offset into the source to search from.
 	 * @return The end index.
 	 */
-	private int getTclCommandEndIndex(char[] source, int offset)
+	private int getTclCommandEndIndex(CharSequence source, int offset)
 	{
 		int index = offset;
 		
-		while(index < source.length)
+		while(index < source.length())
 		{
-			char c = source[index];
+			char c = source.charAt(index);
 			
 			if(Character.isWhitespace(c))
 			{
@@ -218,13 +218,13 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 	}
 	
 	/**
-	 * Get the string represented by a char[] and region.
+	 * Get the string represented by a source and region.
 	 * 
 	 * @param source The source text.
 	 * @param region The region of text.
 	 * @return The source string.
 	 */
-	private String getStringFromRegion(char[] source, IRegion region)
+	private String getStringFromRegion(CharSequence source, IRegion region)
 	{
 		String str = "";
 		
@@ -233,14 +233,14 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 		
 		for(int i = beginIndex; i < endIndex; i++)
 		{
-		    if(i >= source.length)
+		    if(i >= source.length())
 		    {
 		        Logger.log("[SoarHyperlinkDetector]:getStringFromRegion() beginIndex: " + beginIndex + " endIndex: " + endIndex);
 		        Logger.log("[SoarHyperlinkDetector]:getStringFromRegion() ERROR: ArrayOutOfBounds - current string: " + str);
 		        break;
 		    }
 		    
-			str += source[i];
+			str += source.charAt(i);
 		}
 		
 		return str;
@@ -258,7 +258,7 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 		int offset = region.getOffset();
 		
 		try {
-			char[] source = file.getBuffer().getCharacters();
+			CharSequence source = file.getBuffer().getCharSequence();
 			
 			IRegion linkRegion = getWhitespaceDelimitedRegion(source, offset);
 			
@@ -323,7 +323,7 @@ public class SoarHyperlinkDetector implements IHyperlinkDetector
 		try {
             for(ISoarFileAgentProxy proxy : file.getAgentProxies())
             {
-    			for(ISoarElement element:proxy.getChildren())
+    			for(ISoarElement element:proxy.getElementsOverlapping(region.getOffset(), 1))
     			{
     				if(element instanceof ITclFileReference)
     				{
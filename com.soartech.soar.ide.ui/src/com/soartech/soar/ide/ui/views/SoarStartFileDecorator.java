@@ -50,7 +50,9 @@ public class SoarStartFileDecorator extends LabelProvider implements ILightweigh
     
     public SoarStartFileDecorator()
     {
-        SoarCorePlugin.getDefault().getSoarModel().addListener(listener);
+        // Label updates only need the net change per file, so take events
+        // coalesced off the model's event thread.
+        SoarCorePlugin.getDefault().getSoarModel().addListener(listener, 0);
     }
     
     /* (non-Javadoc)
@@ -101,8 +101,8 @@ public class DatamapFilterActionProvider implements ISelectionChangedListener
         if (fromPath == null) { return null; }
         
         // The linked-back datamap always persists, even if the attribute
-        // has since been removed.
-        ISoarDatamap datamap = fromPath.getDatamap();
+        // has since been removed. Look in its latest snapshot.
+        ISoarDatamap datamap = fromPath.getDatamap().getSnapshot();
 
         ISoarDatamapAttribute actual = datamap.getState().getAttribute(fromPath.getName());
 
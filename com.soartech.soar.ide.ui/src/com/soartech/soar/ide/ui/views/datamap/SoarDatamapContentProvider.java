@@ -82,20 +82,20 @@ public class SoarDatamapContentProvider implements ITreeContentProvider
         {
             ISoarAgent agent = (ISoarAgent) parentElement;
             
-            ISoarDatamap datamap = agent.getDatamap();
+            ISoarDatamap datamap = agent.getDatamap().getSnapshot();
             
             return datamap.getState().getAttributes().toArray();
         }
         else if(parentElement instanceof ISoarDatamap)
         {
-            ISoarDatamap datamap = (ISoarDatamap) parentElement;
+            ISoarDatamap datamap = ((ISoarDatamap) parentElement).getSnapshot();
             
             return datamap.getState().getAttributes().toArray();
         }
         else if(parentElement instanceof ISoarDatamapAttribute)
         {
-            ISoarDatamapAttribute a = (ISoarDatamapAttribute) parentElement;
-            ISoarDatamapNode target = a.getTarget();
+            ISoarDatamapAttribute a = getCurrentAttribute((ISoarDatamapAttribute) parentElement);
+            ISoarDatamapNode target = a != null ? a.getTarget() : null;
             if(target != null)
             {
                 return target.getAttributes().toArray();
@@ -108,6 +108,20 @@ public class SoarDatamapContentProvider implements ITreeContentProvider
         return new Object[0];
     }
 
+    /**
+     * Items in the tree keep the attribute they were created with, which
+     * may be from an older snapshot than the one the tree was last updated
+     * from. Children are always read from the latest snapshot.
+     * 
+     * @param a An attribute from any snapshot of a datamap
+     * @return The attribute in the latest snapshot, or null if it has since
+     *      been removed
+     */
+    static ISoarDatamapAttribute getCurrentAttribute(ISoarDatamapAttribute a)
+    {
+        return a.getDatamap().getSnapshot().getAttribute(a);
+    }
+
     /* (non-Javadoc)
      * @see org.eclipse.jface.viewers.ITreeContentProvider#getParent(java.lang.Object)
      */
@@ -151,8 +165,8 @@ public class SoarDatamapContentProvider implements ITreeContentProvider
         }
         else if(element instanceof ISoarDatamapAttribute)
         {
-            ISoarDatamapAttribute a = (ISoarDatamapAttribute) element;
-            ISoarDatamapNode target = a.getTarget();
+            ISoarDatamapAttribute a = getCurrentAttribute((ISoarDatamapAttribute) element);
+            ISoarDatamapNode target = a != null ? a.getTarget() : null;
             if(target != null)
             {
                 return target.hasAttributes();
@@ -19,9 +19,14 @@
  */
 package com.soartech.soar.ide.ui.views.datamap;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.jface.action.Action;
@@ -50,12 +55,15 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.TreeColumn;
+import org.eclipse.swt.widgets.TreeItem;
 import org.eclipse.ui.IActionBars;
 import org.eclipse.ui.IMemento;
+import org.eclipse.ui.IPartListener2;
 import org.eclipse.ui.ISelectionListener;
 import org.eclipse.ui.IViewSite;
 import org.eclipse.ui.IWorkbenchActionConstants;
 import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.IWorkbenchPartReference;
 import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.part.DrillDownAdapter;
 import org.eclipse.ui.part.ViewPart;
@@ -75,6 +83,7 @@ import com.soartech.soar.ide.core.model.datamap.CompositeSoarDatamapListener;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamap;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamapAttribute;
 import com.soartech.soar.ide.core.model.datamap.ISoarDatamapListener;
+import com.soartech.soar.ide.core.model.datamap.ISoarDatamapNode;
 import com.soartech.soar.ide.core.model.datamap.SoarDatamapEvent;
 import com.soartech.soar.ide.core.model.impl.SoarAgent;
 import com.soartech.soar.ide.ui.SoarEditorPluginImages;
@@ -91,6 +100,22 @@ public class SoarDatamapView extends ViewPart
 {
     public static final String ID = "com.soartech.soar.ide.ui.views.datamap.SoarDatamapView";
     
+    /**
+     * Minimum time between model event deliveries, in milliseconds. Model 
+     * events refresh the whole tree, so bursts during a build are coalesced.
+     */
+    private static final long MODEL_EVENT_INTERVAL = 250;
+    
+    /**
+     * Time to wait for more events before updating the tree, in milliseconds
+     */
+    private static final int REFRESH_DELAY = 200;
+    
+    /**
+     * Queued datamap events beyond which the tree is simply refreshed
+     */
+    private static final int MAX_PENDING_DATAMAP_EVENTS = 1000;
+    
     private TreeViewer treeViewer;
     private TableViewer listViewer; // ListViewer does not support icons
     private ModelListener modelListener = new ModelListener();
@@ -141,6 +166,51 @@ public class SoarDatamapView extends ViewPart
 	
 	private IMemento memento;
 	
+	/**
+	 * Events waiting for the next UI pass. Guarded by pendingLock.
+	 */
+	private final Object pendingLock = new Object();
+	private final List<SoarModelEvent> pendingModelEvents = new ArrayList<SoarModelEvent>();
+	private final List<SoarDatamapEvent> pendingDatamapEvents = new ArrayList<SoarDatamapEvent>();
+	private boolean pendingReset = false;
+	private boolean pendingFullRefresh = false;
+	private boolean refreshScheduled = false;
+	private boolean visible = true;
+	
+	private final IPartListener2 visibilityListener = new IPartListener2() {
+
+        public void partVisible(IWorkbenchPartReference partRef)
+        {
+            if(partRef.getPart(false) == SoarDatamapView.this)
+            {
+                synchronized(pendingLock)
+                {
+                    visible = true;
+                }
+                // Catch up on anything dropped while hidden
+                flushRefresh();
+            }
+        }
+
+        public void partHidden(IWorkbenchPartReference partRef)
+        {
+            if(partRef.getPart(false) == SoarDatamapView.this)
+            {
+                synchronized(pendingLock)
+                {
+                    visible = false;
+                }
+            }
+        }
+
+        public void partActivated(IWorkbenchPartReference partRef) { }
+        public void partBroughtToTop(IWorkbenchPartReference partRef) { }
+        public void partClosed(IWorkbenchPartReference partRef) { }
+        public void partDeactivated(IWorkbenchPartReference partRef) { }
+        public void partOpened(IWorkbenchPartReference partRef) { }
+        public void partInputChanged(IWorkbenchPartReference partRef) { }
+	};
+	
     private boolean isDisposed()
     {
         return treeViewer == null ||
@@ -230,7 +300,7 @@ public class SoarDatamapView extends ViewPart
     	this.parent = parent;
     	
         ISoarModel soarModel = SoarCorePlugin.getDefault().getSoarModel();
-        soarModel.addListener(modelListener);
+        soarModel.addListener(modelListener, MODEL_EVENT_INTERVAL);
         datamapListener = new CompositeSoarDatamapListener(soarModel);
         datamapListener.addListener(new ISoarDatamapListener() {
 
@@ -243,10 +313,15 @@ public class SoarDatamapView extends ViewPart
         {
             public void selectionChanged(IWorkbenchPart part, ISelection selection)
             {
-                safeRefresh(null, null);
+                // Only the file datamap depends on the active editor
+                if(!showAgentDatamap)
+                {
+                    safeRefresh(null, null);
+                }
                 currentPart = part;
             }
         });
+        getSite().getPage().addPartListener(visibilityListener);
         
         
         addResizeListener(parent);
@@ -475,7 +550,8 @@ public class SoarDatamapView extends ViewPart
     public void dispose()
     {
         datamapListener.dispose();
-        SoarCorePlugin.getDefault().getSoarModel().addListener(modelListener);
+        getSite().getPage().removePartListener(visibilityListener);
+        SoarCorePlugin.getDefault().getSoarModel().removeListener(modelListener);
         super.dispose();
     }
     
@@ -532,71 +608,318 @@ public class SoarDatamapView extends ViewPart
      * the datamap. If it has been removed, we have to reset the tree back to
      * its normal state.
      *  
-     * @param sme A model event, possibly null
-     * @param sde A datamap event, possible null
+     * @param modelEvents Model events since the last refresh
+     * @param datamapChanged True if any datamap has changed since the last
+     *      refresh
      * @return True if the current tree input has been removed
      */
-    private boolean treeRequiresReset(final SoarModelEvent sme, final SoarDatamapEvent sde)
+    private boolean treeRequiresReset(List<SoarModelEvent> modelEvents, boolean datamapChanged)
     {
         Object input = treeViewer.getInput();
-        boolean reset = false;
-        if(sme != null && sme.getType() == SoarModelEvent.ELEMENTS_REMOVED)
+        for(SoarModelEvent sme : modelEvents)
         {
-            for(ISoarElement e : sme.getElements())
+            if(removesElement(sme, input))
             {
-                if(e == input)
-                {
-                    reset = true;
-                    break;
-                }
+                return true;
             }
         }
-        if(!reset && sde != null)
+        if(datamapChanged && input instanceof ISoarDatamapAttribute)
+        {
+            return SoarDatamapContentProvider.getCurrentAttribute((ISoarDatamapAttribute) input) == null;
+        }
+        return false;
+    }
+    
+    /**
+     * @param sme A model event
+     * @param element An element
+     * @return True if the event removes the given element from the model
+     */
+    private static boolean removesElement(SoarModelEvent sme, Object element)
+    {
+        if(sme.getType() == SoarModelEvent.ELEMENTS_REMOVED)
         {
-            for(ISoarDatamapAttribute a : sde.removed)
+            for(ISoarElement e : sme.getElements())
             {
-                if(a == input)
+                if(e == element)
                 {
-                    reset = true;
-                    break;
+                    return true;
                 }
             }
         }
-        if(sme == null && sde == null)
-        {
-            reset = true;
-        }
-        return reset;
+        return false;
     }
     
     /**
      * Safely (threads) refresh the view in response to a model or datamap event.
+     * Events are queued and applied together in a single UI pass after 
+     * {@link #REFRESH_DELAY}. While the view is hidden, events are dropped and
+     * the tree is refreshed when it is shown again; the only thing remembered
+     * is whether the current tree input was removed.
      * 
      * @param sme A model event, possibly null
      * @param sde A datamap event, possibly null
      */
     private void safeRefresh(final SoarModelEvent sme, final SoarDatamapEvent sde)
     {
-        Display.getDefault().asyncExec(new Runnable(){
+        synchronized(pendingLock)
+        {
+            if(sme == null && sde == null)
+            {
+                pendingReset = true;
+            }
+            else if(!visible)
+            {
+                // Nothing to update until the view is shown again
+                pendingFullRefresh = true;
+                if(sme != null && removesElement(sme, treeViewer.getInput()))
+                {
+                    pendingReset = true;
+                }
+                return;
+            }
+            else if(sme != null)
+            {
+                pendingModelEvents.add(sme);
+            }
+            else if(!pendingFullRefresh)
+            {
+                pendingDatamapEvents.add(sde);
+                if(pendingDatamapEvents.size() > MAX_PENDING_DATAMAP_EVENTS)
+                {
+                    pendingDatamapEvents.clear();
+                    pendingFullRefresh = true;
+                }
+            }
+            
+            if(refreshScheduled || !visible)
+            {
+                return;
+            }
+            refreshScheduled = true;
+        }
+        
+        final Display display = Display.getDefault();
+        display.asyncExec(new Runnable(){
 
             public void run()
             {
-                if(!isDisposed())
-                {
-                    if(!treeRequiresReset(sme, sde))
+                display.timerExec(REFRESH_DELAY, new Runnable() {
+
+                    public void run()
                     {
-                        treeViewer.refresh();
-                        // Force production list to repopulate
-                        treeViewer.setSelection(treeViewer.getSelection());
-                    }
-                    else
+                        flushRefresh();
+                    }});
+            }});
+    }
+    
+    /**
+     * Apply all queued events to the tree. Must be called from the UI thread.
+     */
+    private void flushRefresh()
+    {
+        boolean reset;
+        boolean fullRefresh;
+        List<SoarModelEvent> modelEvents;
+        List<SoarDatamapEvent> datamapEvents;
+        synchronized(pendingLock)
+        {
+            reset = pendingReset;
+            fullRefresh = pendingFullRefresh;
+            modelEvents = new ArrayList<SoarModelEvent>(pendingModelEvents);
+            datamapEvents = new ArrayList<SoarDatamapEvent>(pendingDatamapEvents);
+            pendingReset = false;
+            pendingFullRefresh = false;
+            pendingModelEvents.clear();
+            pendingDatamapEvents.clear();
+            refreshScheduled = false;
+        }
+        
+        if(isDisposed())
+        {
+            return;
+        }
+        
+        if(reset || treeRequiresReset(modelEvents, fullRefresh || !datamapEvents.isEmpty()))
+        {
+            treeViewer.setInput(getInitialTreeInput());
+            drilldown.reset();
+            return;
+        }
+        
+        if(fullRefresh || !modelEvents.isEmpty())
+        {
+            treeViewer.refresh();
+        }
+        else if(!datamapEvents.isEmpty())
+        {
+            applyDatamapEvents(datamapEvents);
+        }
+        else
+        {
+            return;
+        }
+        // Force production list to repopulate
+        treeViewer.setSelection(treeViewer.getSelection());
+    }
+    
+    /**
+     * Apply datamap events to the tree with targeted removes, adds and
+     * updates. Only items that have been created in the tree are touched;
+     * the rest are read from the latest snapshot when they're expanded.
+     * 
+     * @param events The events to apply
+     */
+    private void applyDatamapEvents(List<SoarDatamapEvent> events)
+    {
+        // Map the live attributes in the events to the latest snapshot. 
+        // Anything that's since been removed again drops out here.
+        Map<ISoarDatamapNode, List<ISoarDatamapAttribute>> added = new HashMap<ISoarDatamapNode, List<ISoarDatamapAttribute>>();
+        Set<ISoarDatamapAttribute> addedSet = new HashSet<ISoarDatamapAttribute>();
+        Set<ISoarDatamapAttribute> modified = new LinkedHashSet<ISoarDatamapAttribute>();
+        boolean removed = false;
+        for(SoarDatamapEvent event : events)
+        {
+            ISoarDatamap snapshot = event.getDatamap().getSnapshot();
+            for(ISoarDatamapAttribute a : event.added)
+            {
+                ISoarDatamapAttribute current = snapshot.getAttribute(a);
+                if(current != null && addedSet.add(current))
+                {
+                    List<ISoarDatamapAttribute> siblings = added.get(current.getSource());
+                    if(siblings == null)
                     {
-                        treeViewer.setInput(getInitialTreeInput());
-                        drilldown.reset();
+                        siblings = new ArrayList<ISoarDatamapAttribute>();
+                        added.put(current.getSource(), siblings);
                     }
+                    siblings.add(current);
                 }
-            }});
-
+            }
+            for(ISoarDatamapAttribute a : event.modified)
+            {
+                ISoarDatamapAttribute current = snapshot.getAttribute(a);
+                if(current != null)
+                {
+                    modified.add(current);
+                }
+            }
+            removed |= !event.removed.isEmpty();
+        }
+        
+        // Find removed items and the parents of added attributes among the
+        // items that exist.
+        List<Object> gone = new ArrayList<Object>();
+        Map<Object, List<ISoarDatamapAttribute>> parents = new LinkedHashMap<Object, List<ISoarDatamapAttribute>>();
+        if(!added.isEmpty())
+        {
+            addParent(parents, treeViewer.getInput(), treeViewer.getTree().getItems(), added);
+        }
+        if(removed || !added.isEmpty())
+        {
+            collectChanges(treeViewer.getTree().getItems(), removed, added, gone, parents);
+        }
+        
+        treeViewer.getControl().setRedraw(false);
+        try
+        {
+            if(!gone.isEmpty())
+            {
+                treeViewer.remove(gone.toArray());
+            }
+            for(Map.Entry<Object, List<ISoarDatamapAttribute>> entry : parents.entrySet())
+            {
+                treeViewer.add(entry.getKey(), entry.getValue().toArray());
+            }
+            if(!modified.isEmpty())
+            {
+                treeViewer.update(modified.toArray(), null);
+            }
+        }
+        finally
+        {
+            treeViewer.getControl().setRedraw(true);
+        }
+    }
+    
+    /**
+     * Walk the items that exist in the tree, collecting items whose attributes
+     * have been removed and items that are parents of added attributes.
+     */
+    private void collectChanges(TreeItem[] items, boolean removed,
+                                Map<ISoarDatamapNode, List<ISoarDatamapAttribute>> added,
+                                List<Object> gone, Map<Object, List<ISoarDatamapAttribute>> parents)
+    {
+        for(TreeItem item : items)
+        {
+            Object data = item.getData();
+            if(data == null)
+            {
+                // Placeholder for children that haven't been created yet
+                continue;
+            }
+            if(removed && data instanceof ISoarDatamapAttribute &&
+               SoarDatamapContentProvider.getCurrentAttribute((ISoarDatamapAttribute) data) == null)
+            {
+                gone.add(data);
+                continue;
+            }
+            if(!added.isEmpty())
+            {
+                addParent(parents, data, item.getItems(), added);
+            }
+            collectChanges(item.getItems(), removed, added, gone, parents);
+        }
+    }
+    
+    /**
+     * If the node an element shows the children of has added attributes,
+     * record the element as a parent for those that aren't already among 
+     * its child items.
+     */
+    private void addParent(Map<Object, List<ISoarDatamapAttribute>> parents, Object element,
+                           TreeItem[] childItems, Map<ISoarDatamapNode, List<ISoarDatamapAttribute>> added)
+    {
+        ISoarDatamapNode node = null;
+        if(element instanceof ISoarDatamapAttribute)
+        {
+            node = ((ISoarDatamapAttribute) element).getTarget();
+        }
+        else if(element instanceof ISoarAgent)
+        {
+            node = ((ISoarAgent) element).getDatamap().getSnapshot().getState();
+        }
+        else if(element instanceof ISoarDatamap)
+        {
+            node = ((ISoarDatamap) element).getSnapshot().getState();
+        }
+        
+        List<ISoarDatamapAttribute> children = node != null ? added.get(node) : null;
+        if(children == null || parents.containsKey(element))
+        {
+            return;
+        }
+        
+        // Children created after the snapshot was published already have them
+        Set<Object> existing = new HashSet<Object>();
+        for(TreeItem child : childItems)
+        {
+            if(child.getData() != null)
+            {
+                existing.add(child.getData());
+            }
+        }
+        List<ISoarDatamapAttribute> missing = new ArrayList<ISoarDatamapAttribute>();
+        for(ISoarDatamapAttribute a : children)
+        {
+            if(!existing.contains(a))
+            {
+                missing.add(a);
+            }
+        }
+        if(!missing.isEmpty())
+        {
+            parents.put(element, missing);
+        }
     }
     
     private class ModelListener implements ISoarModelListener
@@ -69,6 +69,13 @@ public class SoarExplorerView extends ViewPart
 {
     public static final String ID = "com.soartech.soar.ide.ui.views.SoarExplorerView";
     
+    /**
+     * Minimum time between model event deliveries, in milliseconds. Each
+     * delivery rebuilds the tree, so bursts of events during a build are
+     * coalesced.
+     */
+    private static final long MODEL_EVENT_INTERVAL = 250;
+    
 	private TreeViewer viewer;
 	
 	/**
@@ -135,7 +142,7 @@ public class SoarExplorerView extends ViewPart
 		FilterContributionItem filterContribution = new FilterContributionItem("text_filter", this);
 		toolbarManager.add(filterContribution);
 		
-        SoarCorePlugin.getDefault().getSoarModel().addListener(this);
+        SoarCorePlugin.getDefault().getSoarModel().addListener(this, MODEL_EVENT_INTERVAL);
 	}
     
     private void createContextMenu()
@@ -206,6 +213,7 @@ public class SoarExplorerView extends ViewPart
 	@Override
 	public void dispose() 
 	{
+        SoarCorePlugin.getDefault().getSoarModel().removeListener(this);
 		super.dispose();
 	}
 
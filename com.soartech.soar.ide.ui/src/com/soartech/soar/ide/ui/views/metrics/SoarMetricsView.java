@@ -0,0 +1,217 @@
+/*
+ *Copyright (c) 2009, Soar Technology, Inc.
+ *All rights reserved.
+ *
+ *Redistribution and use in source and binary forms, with or without modification,   *are permitted provided that the following conditions are met:
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  * Neither the name of Soar Technology, Inc. nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY  *EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED   *WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.   *IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,   *INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT   *NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR   *PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,    *WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)   *ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE    *POSSIBILITY OF SUCH *DAMAGE. 
+ *
+ * 
+ */
+package com.soartech.soar.ide.ui.views.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.part.ViewPart;
+
+import com.soartech.soar.ide.core.metrics.Counter;
+import com.soartech.soar.ide.core.metrics.Histogram;
+import com.soartech.soar.ide.core.metrics.SoarMetrics;
+import com.soartech.soar.ide.core.metrics.Timer;
+import com.soartech.soar.ide.ui.SoarEditorPluginImages;
+
+/**
+ * View that shows the build metrics recorded by {@link SoarMetrics}. While 
+ * metrics are enabled the table is refreshed periodically.
+ * 
+ * @author ray
+ */
+public class SoarMetricsView extends ViewPart
+{
+    public static final String ID = "com.soartech.soar.ide.ui.views.metrics.SoarMetricsView";
+    
+    private static final int REFRESH_INTERVAL = 2000;
+    
+    private static final String[] COLUMNS = { "Name", "Count", "Total (ms)", "Mean (ms)", "90% (ms)", "Max (ms)" };
+    private static final int[] WIDTHS = { 350, 70, 90, 90, 90, 90 };
+    
+    private TableViewer viewer;
+    
+    private final Runnable refresher = new Runnable()
+    {
+        public void run()
+        {
+            if(viewer == null || viewer.getControl().isDisposed())
+            {
+                return;
+            }
+            if(SoarMetrics.isEnabled())
+            {
+                refresh();
+            }
+            viewer.getControl().getDisplay().timerExec(REFRESH_INTERVAL, this);
+        }
+    };
+    
+    /* (non-Javadoc)
+     * @see org.eclipse.ui.part.WorkbenchPart#createPartControl(org.eclipse.swt.widgets.Composite)
+     */
+    @Override
+    public void createPartControl(Composite parent)
+    {
+        viewer = new TableViewer(parent, SWT.FULL_SELECTION | SWT.MULTI);
+        Table table = viewer.getTable();
+        table.setHeaderVisible(true);
+        table.setLinesVisible(true);
+        for(int i = 0; i < COLUMNS.length; ++i)
+        {
+            TableColumn column = new TableColumn(table, i == 0 ? SWT.LEFT : SWT.RIGHT);
+            column.setText(COLUMNS[i]);
+            column.setWidth(WIDTHS[i]);
+        }
+        viewer.setContentProvider(new ArrayContentProvider());
+        viewer.setLabelProvider(new MetricLabelProvider());
+        
+        createActions();
+        refresh();
+        
+        viewer.getControl().getDisplay().timerExec(REFRESH_INTERVAL, refresher);
+    }
+    
+    private void createActions()
+    {
+        IToolBarManager toolbarManager = getViewSite().getActionBars().getToolBarManager();
+        
+        Action enableAction = new Action("Record", Action.AS_CHECK_BOX)
+        {
+            @Override
+            public void run()
+            {
+                SoarMetrics.setEnabled(isChecked());
+            }
+        };
+        enableAction.setToolTipText("Record build metrics");
+        enableAction.setChecked(SoarMetrics.isEnabled());
+        toolbarManager.add(enableAction);
+        
+        Action refreshAction = new Action("Refresh")
+        {
+            @Override
+            public void run()
+            {
+                refresh();
+            }
+        };
+        refreshAction.setToolTipText("Refresh build metrics");
+        toolbarManager.add(refreshAction);
+        
+        Action resetAction = new Action("Reset")
+        {
+            @Override
+            public void run()
+            {
+                SoarMetrics.reset();
+                refresh();
+            }
+        };
+        resetAction.setToolTipText("Discard recorded build metrics");
+        resetAction.setImageDescriptor(SoarEditorPluginImages.getDescriptor(SoarEditorPluginImages.IMG_CLEAR));
+        toolbarManager.add(resetAction);
+    }
+    
+    /**
+     * Reload the table from the metrics registry
+     */
+    public void refresh()
+    {
+        List<Object> metrics = new ArrayList<Object>();
+        metrics.addAll(SoarMetrics.getTimers().values());
+        metrics.addAll(SoarMetrics.getHistograms().values());
+        metrics.addAll(SoarMetrics.getCounters().values());
+        viewer.setInput(metrics);
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.ui.part.WorkbenchPart#setFocus()
+     */
+    @Override
+    public void setFocus()
+    {
+        viewer.getControl().setFocus();
+    }
+    
+    private static class MetricLabelProvider extends LabelProvider implements ITableLabelProvider
+    {
+        /* (non-Javadoc)
+         * @see org.eclipse.jface.viewers.ITableLabelProvider#getColumnImage(java.lang.Object, int)
+         */
+        public Image getColumnImage(Object element, int columnIndex)
+        {
+            return null;
+        }
+
+        /* (non-Javadoc)
+         * @see org.eclipse.jface.viewers.ITableLabelProvider#getColumnText(java.lang.Object, int)
+         */
+        public String getColumnText(Object element, int columnIndex)
+        {
+            if(element instanceof Timer)
+            {
+                Timer t = (Timer) element;
+                switch(columnIndex)
+                {
+                case 0: return t.getName();
+                case 1: return Long.toString(t.getCount());
+                case 2: return String.format("%.1f", t.getTotalMillis());
+                case 3: return String.format("%.3f", t.getMeanMillis());
+                case 4: return String.format("%.3f", t.getPercentileMillis(90));
+                case 5: return String.format("%.3f", t.getMaxMillis());
+                }
+            }
+            else if(element instanceof Histogram)
+            {
+                Histogram h = (Histogram) element;
+                switch(columnIndex)
+                {
+                case 0: return h.getName();
+                case 1: return Long.toString(h.getCount());
+                case 2: return Long.toString(h.getTotal());
+                case 3: return String.format("%.1f", h.getMean());
+                case 4: return Long.toString(h.getPercentile(90));
+                case 5: return Long.toString(h.getMax());
+                }
+            }
+            else if(element instanceof Counter)
+            {
+                Counter c = (Counter) element;
+                switch(columnIndex)
+                {
+                case 0: return c.getName();
+                case 1: return Long.toString(c.getCount());
+                }
+            }
+            return "";
+        }
+    }
+}
@@ -131,7 +131,7 @@ public class FindTestingRulesAction extends Action implements ISearchQuery
             
             System.out.println("Processing Soar Agent: " + agentToCheck.getName());
             
-            ISoarDatamap soarDatamap = agentToCheck.getDatamap();
+            ISoarDatamap soarDatamap = agentToCheck.getDatamap().getSnapshot();
             
             Object[] attrs = soarDatamap.getState().getAttributes().toArray();
             Set<ISoarDatamapAttribute> attrSet = soarDatamap.getState().getAttributes();